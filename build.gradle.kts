@@ -10,6 +10,8 @@ plugins {
     id("com.gradleup.shadow") version "8.3.0"
     // Apply the Run-Paper plugin for running Paper Minecraft servers
     id("xyz.jpenilla.run-paper") version "2.3.1"
+    // Apply the JMH plugin for the benchmarks in src/jmh
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 // Define project properties for versions and package name
@@ -22,6 +24,11 @@ val vaultApiVersion: String by project
 val protocolLibVersion: String by project
 val spiGuiVersion: String by project
 val signGuiVersion: String by project
+val jmhCoreVersion: String by project
+val junitVersion: String by project
+val testcontainersVersion: String by project
+val mysqlConnectorVersion: String by project
+val mockitoVersion: String by project
 val projectPackageName = "${project.group}.openheads"
 
 // Configure Java toolchain and compatibility settings
@@ -33,6 +40,22 @@ java {
     }
 }
 
+// The fixture in src/testSupport runs the plugin without a server,
+// the integration tests in src/integrationTest use it to run the database code against a real MySQL server
+sourceSets {
+    create("testSupport") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+    create("integrationTest") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+configurations["testSupportImplementation"].extendsFrom(configurations.implementation.get())
+configurations["integrationTestImplementation"].extendsFrom(configurations["testSupportImplementation"])
+configurations["jmh"].extendsFrom(configurations["testSupportImplementation"])
+
 // Define repositories for dependency resolution
 repositories {
     mavenCentral() // Central Maven repository
@@ -81,6 +104,68 @@ dependencies {
     compileOnly("com.comphenix.protocol:ProtocolLib:${protocolLibVersion}") {
         exclude(group = "org.bukkit", module = "bukkit") // Exclude Bukkit module
     }
+    // The benchmarks run without a server, on the same fixture as the integration tests
+    jmh(sourceSets["testSupport"].output)
+
+    // The test fixture creates the plugin as a mock, its constructor only works on a server
+    "testSupportImplementation"("io.papermc.paper:paper-api:${paperApiVersion}")
+    "testSupportImplementation"("org.mockito:mockito-core:${mockitoVersion}")
+
+    // The integration tests also run without a server, the MySQL server is started with Testcontainers
+    "integrationTestImplementation"(sourceSets["testSupport"].output)
+    "integrationTestImplementation"(platform("org.junit:junit-bom:${junitVersion}"))
+    "integrationTestImplementation"("org.junit.jupiter:junit-jupiter")
+    "integrationTestImplementation"("org.testcontainers:mysql:${testcontainersVersion}")
+    "integrationTestRuntimeOnly"("org.junit.platform:junit-platform-launcher")
+    // The server ships the MySQL driver, the tests have to bring their own
+    "integrationTestRuntimeOnly"("com.mysql:mysql-connector-j:${mysqlConnectorVersion}")
+}
+
+// Compile the bundled head files into the compact binary catalog
+val headCatalogDir = layout.buildDirectory.dir("generated/headCatalog")
+val compileHeadCatalog by tasks.registering(JavaExec::class) {
+    description = "Compiles the bundled heads/*.json files into binary head catalogs."
+    group = "build"
+    val headsDir = layout.projectDirectory.dir("src/main/resources/heads")
+    inputs.dir(headsDir)
+    outputs.dir(headCatalogDir)
+    // Only the compiled classes are needed, the resources would depend on this task
+    classpath = sourceSets.main.get().output.classesDirs + sourceSets.main.get().compileClasspath
+    mainClass.set("${projectPackageName}.utils.HeadCatalogCodec")
+    args(headsDir.asFile.absolutePath, headCatalogDir.get().dir("heads").asFile.absolutePath)
+    doFirst {
+        delete(headCatalogDir)
+    }
+}
+
+// Configure the benchmarks, the results are written as JSON so they can be compared between builds
+jmh {
+    jmhVersion.set(jmhCoreVersion)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+    // The benchmarks read the bundled head files straight from the sources
+    jvmArgsAppend.add("-Dopenheads.resources=${layout.projectDirectory.dir("src/main/resources").asFile.absolutePath}")
+    // Mockito attaches its agent at runtime to mock the plugin
+    jvmArgsAppend.add("-XX:+EnableDynamicAgentLoading")
+}
+
+// Run the integration tests with ./gradlew integrationTest, they need Docker or a local MySQL/MariaDB server,
+// see the OPENHEADS_MYSQL_* environment variables in MySqlChangeLogIT
+val integrationTest by tasks.registering(Test::class) {
+    description = "Runs the database integration tests against a MySQL server."
+    group = "verification"
+    testClassesDirs = sourceSets["integrationTest"].output.classesDirs
+    classpath = sourceSets["integrationTest"].runtimeClasspath
+    useJUnitPlatform()
+    // Mockito attaches its agent at runtime to mock the plugin
+    jvmArgs("-XX:+EnableDynamicAgentLoading")
+    // List the skipped tests too, so a missing database does not go unnoticed
+    testLogging {
+        events("passed", "skipped", "failed")
+    }
 }
 
 // Disable the default JAR task
@@ -131,5 +216,8 @@ tasks {
         filesMatching("plugin.yml") {
             expand(props) // Replace placeholders in `plugin.yml`
         }
+        // Ship the binary head catalogs instead of the JSON head files
+        exclude("heads/*.json")
+        from(compileHeadCatalog)
     }
 }
\ No newline at end of file
@@ -0,0 +1,304 @@
+package io.github.tavstaldev.openheads.managers;
+
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.metrics.Metrics;
+import io.github.tavstaldev.openheads.models.Favorite;
+import io.github.tavstaldev.openheads.models.FavoriteChange;
+import io.github.tavstaldev.openheads.testing.HeadlessPlugin;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the favorite change log of {@link MySqlManager} and the {@link FavoriteChangePoller} against a real MySQL server.
+ * The changes of the other servers are either written straight into the change log, with a server id this server does not know,
+ * or through a second manager, which gets a server id of its own.
+ * Needs Docker or a local server, see {@link MySqlTestServer}, the tests are skipped otherwise.
+ */
+public class MySqlChangeLogIT {
+    private static final String CATEGORY = "test";
+    /**
+     * The time a condition is polled for, longer than the time the poller waits for a missing sequence number.
+     */
+    private static final long POLL_TIMEOUT = 30_000L;
+    private static final long POLL_SLEEP = 50L;
+    private static final UUID OTHER_SERVER = UUID.randomUUID();
+    /**
+     * The number of changes written after a gap, more than two polls read.
+     */
+    private static final int FULL_BATCHES_CHANGES = 1200;
+
+    /**
+     * Starts the database once for the whole class.
+     *
+     * @throws Exception if the fixture could not be set up
+     */
+    @BeforeAll
+    public static void start() throws Exception {
+        assumeTrue(MySqlTestServer.start(), "Neither Docker nor a local MySQL server is available.");
+    }
+
+    /**
+     * Stops the database.
+     *
+     * @throws SQLException if the tables could not be dropped
+     */
+    @AfterAll
+    public static void stop() throws SQLException {
+        MySqlTestServer.stop();
+    }
+
+    /**
+     * Stops the poller started by the test.
+     */
+    @AfterEach
+    public void stopPoller() {
+        FavoriteChangePoller.shutdown();
+    }
+
+    /**
+     * A change committed after a change with a higher sequence number leaves a gap at first,
+     * it is applied once its transaction commits and the gap is closed.
+     *
+     * @throws Exception if the test could not talk to the database
+     */
+    @Test
+    public void appliesChangeCommittedAfterLaterSequence() throws Exception {
+        UUID player = UUID.randomUUID();
+        FavoritesCache.load(player).join();
+        FavoriteChangePoller.init();
+        pollUntil(() -> readGauge("favorites.changeLog.sequence") >= 0);
+        long start = readGauge("favorites.changeLog.sequence");
+
+        long slowSequence;
+        long fastSequence;
+        try (Connection slow = MySqlTestServer.openConnection();
+             Connection fast = MySqlTestServer.openConnection()) {
+            slow.setAutoCommit(false);
+            slowSequence = logChange(slow, player, "Slow");
+            fastSequence = logChange(fast, player, "Fast");
+            assertTrue(slowSequence < fastSequence);
+
+            pollUntil(() -> FavoritesCache.isFavorite(player, CATEGORY, "Fast"));
+            assertFalse(FavoritesCache.isFavorite(player, CATEGORY, "Slow"));
+            assertEquals(fastSequence, readGauge("favorites.changeLog.sequence"));
+            assertEquals(fastSequence - start - 1, readGauge("favorites.changeLog.gaps"));
+
+            slow.commit();
+        }
+
+        pollUntil(() -> FavoritesCache.isFavorite(player, CATEGORY, "Slow"));
+        assertEquals(0, readGauge("favorites.changeLog.gaps"));
+        assertEquals(fastSequence, readGauge("favorites.changeLog.sequence"));
+    }
+
+    /**
+     * The changes after a gap are applied even if more of them follow the gap than a single poll reads.
+     *
+     * @throws Exception if the test could not talk to the database
+     */
+    @Test
+    public void readsPastGapFollowedByFullBatches() throws Exception {
+        UUID player = UUID.randomUUID();
+        FavoritesCache.load(player).join();
+        FavoriteChangePoller.init();
+        pollUntil(() -> readGauge("favorites.changeLog.sequence") >= 0);
+        long start = readGauge("favorites.changeLog.sequence");
+
+        try (Connection slow = MySqlTestServer.openConnection();
+             Connection fast = MySqlTestServer.openConnection()) {
+            slow.setAutoCommit(false);
+            long slowSequence = logChange(slow, player, "Slow");
+            fast.setAutoCommit(false);
+            long lastSequence = slowSequence;
+            for (int i = 0; i < FULL_BATCHES_CHANGES; i++)
+                lastSequence = logChange(fast, player, "Head" + i);
+            fast.commit();
+
+            pollUntil(() -> FavoritesCache.isFavorite(player, CATEGORY, "Head" + (FULL_BATCHES_CHANGES - 1)));
+            assertFalse(FavoritesCache.isFavorite(player, CATEGORY, "Slow"));
+            assertEquals(lastSequence, readGauge("favorites.changeLog.sequence"));
+            assertEquals(slowSequence - start, readGauge("favorites.changeLog.gaps"));
+            slow.rollback();
+        }
+    }
+
+    /**
+     * The expired changes are deleted from the log, a poller which has not read them yet
+     * applies the changes kept and gives up the pruned sequence numbers after a while.
+     *
+     * @throws Exception if the test could not talk to the database
+     */
+    @Test
+    public void givesUpPrunedChanges() throws Exception {
+        UUID player = UUID.randomUUID();
+        long last = OpenHeads.Database.GetLastChangeSequence();
+        long keptSequence;
+        try (Connection connection = MySqlTestServer.openConnection()) {
+            logChange(connection, player, "Pruned1");
+            logChange(connection, player, "Pruned2");
+            keptSequence = logChange(connection, player, "Kept");
+            try (PreparedStatement statement = connection.prepareStatement(String.format(
+                    "UPDATE %s SET CreatedAt = NOW() - INTERVAL 2 HOUR WHERE Seq>? AND Seq<?;", MySqlTestServer.getTable("favorite_changes")))) {
+                statement.setLong(1, last);
+                statement.setLong(2, keptSequence);
+                assertEquals(2, statement.executeUpdate());
+            }
+        }
+
+        assertEquals(2, OpenHeads.Database.PruneFavoriteChanges(3600));
+        List<FavoriteChange> changes = OpenHeads.Database.GetFavoriteChanges(last, 10);
+        assertNotNull(changes);
+        assertEquals(List.of(keptSequence), changes.stream().map(change -> change.Sequence).toList());
+
+        // A poller which fell behind the retention only finds the kept change
+        long lostGaps = Metrics.counter("favorites.changeLog.lostGaps").sum();
+        FavoritesCache.load(player).join();
+        FavoriteChangePoller.init(last);
+        pollUntil(() -> FavoritesCache.isFavorite(player, CATEGORY, "Kept"));
+        assertFalse(FavoritesCache.isFavorite(player, CATEGORY, "Pruned1"));
+        assertFalse(FavoritesCache.isFavorite(player, CATEGORY, "Pruned2"));
+        assertEquals(keptSequence - last - 1, readGauge("favorites.changeLog.gaps"));
+
+        pollUntil(() -> readGauge("favorites.changeLog.gaps") == 0);
+        assertEquals(lostGaps + keptSequence - last - 1, Metrics.counter("favorites.changeLog.lostGaps").sum());
+        assertEquals(keptSequence, readGauge("favorites.changeLog.sequence"));
+    }
+
+    /**
+     * The favorites written through the managers are recorded in the change log, and a server only applies
+     * the changes of the other servers to its cached favorites, never its own.
+     *
+     * @throws Exception if the test could not talk to the database
+     */
+    @Test
+    public void appliesChangesOfOtherServersOnly() throws Exception {
+        UUID player = UUID.randomUUID();
+        FavoritesCache.load(player).join();
+        FavoriteChangePoller.init();
+        pollUntil(() -> readGauge("favorites.changeLog.sequence") >= 0);
+        long start = readGauge("favorites.changeLog.sequence");
+
+        MySqlManager otherServer = new MySqlManager();
+        try {
+            otherServer.CheckSchema();
+            // Written behind the back of the cache, so only the change log could add it
+            OpenHeads.Database.AddFavorite(player, CATEGORY, "Own");
+            otherServer.AddFavorite(player, CATEGORY, "Remote");
+
+            pollUntil(() -> FavoritesCache.isFavorite(player, CATEGORY, "Remote"));
+            assertFalse(FavoritesCache.isFavorite(player, CATEGORY, "Own"));
+            assertTrue(OpenHeads.Database.IsFavorite(player, CATEGORY, "Own"));
+            assertTrue(OpenHeads.Database.IsFavorite(player, CATEGORY, "Remote"));
+
+            List<FavoriteChange> changes = OpenHeads.Database.GetFavoriteChanges(start, 10);
+            assertNotNull(changes);
+            assertEquals(List.of("Own", "Remote"), changes.stream().map(change -> change.Favorite.HeadName).toList());
+            assertEquals(List.of(false, true), changes.stream().map(change -> change.IsRemote).toList());
+
+            otherServer.RemoveFavorite(player, CATEGORY, "Remote");
+            pollUntil(() -> !FavoritesCache.isFavorite(player, CATEGORY, "Remote"));
+            assertFalse(OpenHeads.Database.IsFavorite(player, CATEGORY, "Remote"));
+        } finally {
+            otherServer.Unload();
+        }
+    }
+
+    /**
+     * A batch which fails is rolled back as a whole: neither its favorites nor its change log rows are written.
+     * The head name is too long for the change log, which fails in the strict SQL mode MySQL uses by default,
+     * after the favorites themselves have been inserted.
+     */
+    @Test
+    public void rolledBackBatchLeavesNoChangeLogRow() {
+        UUID player = UUID.randomUUID();
+        long last = OpenHeads.Database.GetLastChangeSequence();
+        String tooLong = "x".repeat(300);
+
+        assertFalse(OpenHeads.Database.ApplyFavoriteChanges(List.of(
+                new Favorite(player, CATEGORY, "Valid"),
+                new Favorite(player, CATEGORY, tooLong)), List.of()));
+
+        assertEquals(List.of(), OpenHeads.Database.GetFavoriteChanges(last, 10));
+        assertEquals(0, OpenHeads.Database.CountFavorites(player));
+        assertFalse(OpenHeads.Database.IsFavorite(player, CATEGORY, "Valid"));
+    }
+
+    /**
+     * Writes a favorite added by another server into the change log.
+     *
+     * @param connection the connection to write with, the change is visible once its transaction commits
+     * @param player the player who added the favorite
+     * @param headName the name of the head
+     * @return the sequence number of the change
+     * @throws SQLException if the change could not be written
+     */
+    private static long logChange(Connection connection, UUID player, String headName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(String.format(
+                "INSERT INTO %s (PlayerId, Category, HeadName, IsAdd, ServerId) VALUES (?, ?, ?, ?, ?);",
+                MySqlTestServer.getTable("favorite_changes")), Statement.RETURN_GENERATED_KEYS)) {
+            statement.setBytes(1, toBytes(player));
+            statement.setString(2, CATEGORY);
+            statement.setString(3, headName);
+            statement.setBoolean(4, true);
+            statement.setBytes(5, toBytes(OTHER_SERVER));
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                assertTrue(keys.next());
+                return keys.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Runs the change log poll until a condition holds.
+     *
+     * @param condition the condition
+     * @throws InterruptedException if the test was interrupted
+     */
+    private static void pollUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + POLL_TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                fail("The change log poll did not reach the expected state in time.");
+            HeadlessPlugin.runTimers();
+            Thread.sleep(POLL_SLEEP);
+        }
+    }
+
+    /**
+     * Reads the current value of a gauge.
+     *
+     * @param name the name of the gauge
+     * @return the value of the gauge
+     */
+    private static long readGauge(String name) {
+        Number value = Metrics.readGauges().get(name);
+        assertNotNull(value, String.format("The gauge %s is not registered.", name));
+        return value.longValue();
+    }
+
+    /**
+     * Converts a UUID into the 16 bytes the change log stores.
+     */
+    private static byte[] toBytes(UUID id) {
+        return ByteBuffer.allocate(16)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .array();
+    }
+}
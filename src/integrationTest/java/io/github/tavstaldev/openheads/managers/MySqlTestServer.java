@@ -0,0 +1,137 @@
+package io.github.tavstaldev.openheads.managers;
+
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.testing.HeadlessPlugin;
+import io.github.tavstaldev.openheads.utils.AsyncUtils;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+/**
+ * Runs the plugin's MySQL code on a plain JVM, against a MySQL server started with Testcontainers.
+ * A local MySQL or MariaDB server is used instead when the OPENHEADS_MYSQL_HOST environment variable is set,
+ * together with OPENHEADS_MYSQL_PORT (3306 by default), OPENHEADS_MYSQL_DATABASE, OPENHEADS_MYSQL_USERNAME and OPENHEADS_MYSQL_PASSWORD.
+ * Every run uses its own table prefix and drops its tables when it stops, so a shared database is left as it was.
+ * The plugin and the server are set up by {@link HeadlessPlugin}, the tests run the scheduled change log poll themselves.
+ */
+public class MySqlTestServer {
+    /**
+     * The image started when no local server is configured.
+     */
+    private static final String MYSQL_IMAGE = "mysql:8.0";
+    private static MySQLContainer<?> _container;
+    private static String _jdbcUrl;
+    private static String _username;
+    private static String _password;
+    private static String _tablePrefix;
+
+    /**
+     * Starts the database, sets up the plugin and migrates the schema.
+     * Returns false if neither Docker nor a local server is available, so the caller can skip its tests.
+     *
+     * @return true if the database is ready, false otherwise
+     * @throws Exception if the fixture could not be set up
+     */
+    public static synchronized boolean start() throws Exception {
+        if (OpenHeads.Database != null)
+            return true;
+
+        String host = System.getenv("OPENHEADS_MYSQL_HOST");
+        YamlConfiguration config = new YamlConfiguration();
+        if (host != null) {
+            config.set("storage.host", host);
+            config.set("storage.port", getEnv("OPENHEADS_MYSQL_PORT", "3306"));
+            config.set("storage.database", getEnv("OPENHEADS_MYSQL_DATABASE", "minecraft"));
+            config.set("storage.username", getEnv("OPENHEADS_MYSQL_USERNAME", "root"));
+            config.set("storage.password", getEnv("OPENHEADS_MYSQL_PASSWORD", ""));
+        } else {
+            if (!DockerClientFactory.instance().isDockerAvailable())
+                return false;
+            _container = new MySQLContainer<>(DockerImageName.parse(MYSQL_IMAGE));
+            _container.start();
+            config.set("storage.host", _container.getHost());
+            config.set("storage.port", String.valueOf(_container.getMappedPort(MySQLContainer.MYSQL_PORT)));
+            config.set("storage.database", _container.getDatabaseName());
+            config.set("storage.username", _container.getUsername());
+            config.set("storage.password", _container.getPassword());
+        }
+        _tablePrefix = String.format("openheads_it_%s", UUID.randomUUID().toString().substring(0, 8));
+        config.set("storage.type", "MySql");
+        config.set("storage.tablePrefix", _tablePrefix);
+        config.set("storage.changeLog.enabled", true);
+        config.set("storage.changeLog.pollInterval", 1);
+        config.set("storage.pool.maximumPoolSize", 4);
+        config.set("storage.pool.minimumIdle", 0);
+        _jdbcUrl = String.format("jdbc:mysql://%s:%s/%s", config.getString("storage.host"),
+                config.getString("storage.port"), config.getString("storage.database"));
+        _username = config.getString("storage.username");
+        _password = config.getString("storage.password");
+
+        HeadlessPlugin.start(config, Files.createTempDirectory("openheads-mysql"));
+        AsyncUtils.init();
+        MySqlManager database = new MySqlManager();
+        database.CheckSchema();
+        OpenHeads.Database = database;
+        return true;
+    }
+
+    /**
+     * Drops the tables of the run, closes the connection pool and stops the container.
+     *
+     * @throws SQLException if the tables could not be dropped
+     */
+    public static synchronized void stop() throws SQLException {
+        if (OpenHeads.Database == null)
+            return;
+
+        FavoriteChangePoller.shutdown();
+        OpenHeads.Database.Unload();
+        OpenHeads.Database = null;
+        try (Connection connection = openConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(String.format("DROP TABLE IF EXISTS %s_favorite_changes, %s_favorites, %s_schema;",
+                    _tablePrefix, _tablePrefix, _tablePrefix));
+        } finally {
+            if (_container != null) {
+                _container.stop();
+                _container = null;
+            }
+        }
+    }
+
+    /**
+     * Opens a connection to the test database, outside the plugin's connection pool.
+     *
+     * @return the connection
+     * @throws SQLException if the connection could not be opened
+     */
+    public static Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(_jdbcUrl, _username, _password);
+    }
+
+    /**
+     * Gets the name of a table of the run.
+     *
+     * @param name the name of the table without the prefix
+     * @return the prefixed name of the table
+     */
+    public static String getTable(String name) {
+        return String.format("%s_%s", _tablePrefix, name);
+    }
+
+    /**
+     * Gets an environment variable.
+     */
+    private static String getEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : value;
+    }
+}
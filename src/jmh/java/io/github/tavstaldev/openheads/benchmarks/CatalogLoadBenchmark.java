@@ -0,0 +1,29 @@
+package io.github.tavstaldev.openheads.benchmarks;
+
+import io.github.tavstaldev.openheads.utils.HeadUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading the whole head catalog the way the plugin does on startup:
+ * reading categories.yml, parsing every head file in parallel and building the lookup maps and the search index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CatalogLoadBenchmark {
+    @Param({"json", "binary"})
+    public String format;
+
+    @Setup
+    public void setup() throws Exception {
+        HeadlessServer.start();
+    }
+
+    @Benchmark
+    public int load() throws Exception {
+        HeadlessServer.loadCatalog(format.equals("binary"));
+        return HeadUtils.getSearchIndex().size();
+    }
+}
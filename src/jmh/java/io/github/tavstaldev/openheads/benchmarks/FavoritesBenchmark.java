@@ -0,0 +1,80 @@
+package io.github.tavstaldev.openheads.benchmarks;
+
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.managers.FavoritesCache;
+import io.github.tavstaldev.openheads.models.Favorite;
+import io.github.tavstaldev.openheads.models.HeadCategory;
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.utils.HeadUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the favorite lookups done while drawing a page and while opening the favorites view.
+ * The favorites are spread randomly over the whole catalog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FavoritesBenchmark {
+    private static final int PAGE_SIZE = 45;
+
+    @Param({"10", "100", "1000"})
+    public int favoriteCount;
+
+    private UUID _playerId;
+    private String[] _pageCategories;
+    private String[] _pageHeads;
+
+    @Setup
+    public void setup() throws Exception {
+        HeadlessServer.loadCatalog(true);
+        _playerId = HeadlessServer.createPlayer("Favorites" + favoriteCount).getUniqueId();
+
+        Random random = new Random(42);
+        // Some categories have no bundled head file
+        List<HeadCategory> categories = HeadUtils.getHeadCategories().stream()
+                .filter(category -> !category.getHeads().isEmpty())
+                .toList();
+        for (int i = 0; i < favoriteCount; i++) {
+            HeadCategory category = categories.get(random.nextInt(categories.size()));
+            HeadData head = category.getHeads().get(random.nextInt(category.getHeads().size()));
+            OpenHeads.Database.AddFavorite(_playerId, category.Name, head.Name);
+        }
+        FavoritesCache.unload(_playerId).join();
+        FavoritesCache.load(_playerId).join();
+
+        // A page where every other head is a favorite
+        List<Favorite> favorites = FavoritesCache.getFavorites(_playerId);
+        HeadCategory category = categories.get(0);
+        _pageCategories = new String[PAGE_SIZE];
+        _pageHeads = new String[PAGE_SIZE];
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            if (i % 2 == 0) {
+                Favorite favorite = favorites.get(i % favorites.size());
+                _pageCategories[i] = favorite.CategoryName;
+                _pageHeads[i] = favorite.HeadName;
+            } else {
+                _pageCategories[i] = category.Name;
+                _pageHeads[i] = category.getHeads().get(i).Name;
+            }
+        }
+    }
+
+    @Benchmark
+    public void isFavoritePage(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_SIZE; i++)
+            blackhole.consume(FavoritesCache.isFavorite(_playerId, _pageCategories[i], _pageHeads[i]));
+    }
+
+    @Benchmark
+    public void resolveFavorites(Blackhole blackhole) {
+        for (Favorite favorite : FavoritesCache.getFavorites(_playerId))
+            blackhole.consume(HeadUtils.getHead(favorite.CategoryName, favorite.HeadName));
+    }
+}
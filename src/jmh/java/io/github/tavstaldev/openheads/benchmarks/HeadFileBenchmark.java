@@ -0,0 +1,56 @@
+package io.github.tavstaldev.openheads.benchmarks;
+
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.utils.HeadCatalogCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a single bundled head file, as JSON and as a binary catalog.
+ * The binary benchmark decodes every head, so both variants produce the same objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HeadFileBenchmark {
+    @Param({"alphabet.json", "animals.json", "blocks.json", "food.json", "humanoid.json", "misc.json", "mobs.json", "plants.json"})
+    public String file;
+
+    private Path _jsonPath;
+    private Path _binaryPath;
+
+    @Setup
+    public void setup() throws Exception {
+        for (Path path : HeadlessServer.getHeadFiles()) {
+            if (path.getFileName().toString().equals(file))
+                _jsonPath = path;
+        }
+        if (_jsonPath == null)
+            throw new IllegalStateException(String.format("Head file '%s' not found.", file));
+
+        _binaryPath = Files.createTempFile("openheads-", HeadCatalogCodec.BINARY_EXTENSION);
+        HeadCatalogCodec.writeBinary(HeadCatalogCodec.readJson(_jsonPath), _binaryPath);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(_binaryPath);
+    }
+
+    @Benchmark
+    public List<HeadData> parseJson() throws Exception {
+        return HeadCatalogCodec.readJson(_jsonPath);
+    }
+
+    @Benchmark
+    public void readBinary(Blackhole blackhole) throws Exception {
+        List<HeadData> heads = HeadCatalogCodec.readBinary(_binaryPath);
+        for (HeadData head : heads)
+            blackhole.consume(head);
+    }
+}
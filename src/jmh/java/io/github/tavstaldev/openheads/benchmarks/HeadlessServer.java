@@ -0,0 +1,135 @@
+package io.github.tavstaldev.openheads.benchmarks;
+
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.testing.HeadlessPlugin;
+import io.github.tavstaldev.openheads.utils.HeadCatalogCodec;
+import io.github.tavstaldev.openheads.utils.HeadUtils;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Stands in for the server, so the benchmarks can run the plugin code on a plain JVM.
+ * The plugin and the Bukkit server are set up by {@link HeadlessPlugin}, the players are
+ * dynamic proxies which only answer the handful of calls made by the benchmarked code.
+ * Nothing which needs a real server, like building ItemStacks, can be benchmarked this way.
+ */
+public class HeadlessServer {
+    /**
+     * The system property holding the path of the plugin's resources directory.
+     */
+    public static final String RESOURCES_PROPERTY = "openheads.resources";
+    private static OpenHeads _plugin;
+    private static Path _jsonDataFolder;
+    private static Path _binaryDataFolder;
+
+    /**
+     * Sets up the headless server once per JVM.
+     * Two data folders are prepared, one holding the JSON head files and one holding the binary catalogs.
+     *
+     * @return the plugin instance
+     * @throws Exception if the fixture could not be set up
+     */
+    public static synchronized OpenHeads start() throws Exception {
+        if (_plugin != null)
+            return _plugin;
+
+        Path resources = getResourcesDir();
+        _jsonDataFolder = Files.createTempDirectory("openheads-json");
+        _binaryDataFolder = Files.createTempDirectory("openheads-binary");
+        Files.createDirectories(_jsonDataFolder.resolve("heads"));
+        Files.createDirectories(_binaryDataFolder.resolve("heads"));
+        Files.copy(resources.resolve("categories.yml"), _jsonDataFolder.resolve("categories.yml"));
+        Files.copy(resources.resolve("categories.yml"), _binaryDataFolder.resolve("categories.yml"));
+        for (Path file : getHeadFiles()) {
+            Files.copy(file, _jsonDataFolder.resolve("heads").resolve(file.getFileName()));
+            List<HeadData> heads = HeadCatalogCodec.readJson(file);
+            HeadCatalogCodec.writeBinary(heads, _binaryDataFolder.resolve("heads")
+                    .resolve(HeadCatalogCodec.toBinaryFileName(file.getFileName().toString())));
+        }
+
+        _plugin = HeadlessPlugin.start(YamlConfiguration.loadConfiguration(resources.resolve("config.yml").toFile()), _jsonDataFolder);
+        OpenHeads.Database = new InMemoryDatabase();
+        return _plugin;
+    }
+
+    /**
+     * Loads the head catalog the same way the plugin does on startup and waits until it is ready.
+     *
+     * @param binary true to load the binary catalogs, false to load the JSON head files
+     * @throws Exception if the fixture could not be set up
+     */
+    public static void loadCatalog(boolean binary) throws Exception {
+        start();
+        HeadlessPlugin.setDataFolder(binary ? _binaryDataFolder : _jsonDataFolder);
+        if (!HeadUtils.Load())
+            throw new IllegalStateException("Failed to load the categories.");
+        HeadUtils.getLoadFuture().join();
+    }
+
+    /**
+     * Gets the bundled JSON head files.
+     *
+     * @return the paths of the head files, sorted by name
+     * @throws IOException if the resources directory could not be listed
+     */
+    public static List<Path> getHeadFiles() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(getResourcesDir().resolve("heads"), "*.json")) {
+            List<Path> files = new ArrayList<>();
+            stream.forEach(files::add);
+            files.sort(null);
+            return files;
+        }
+    }
+
+    /**
+     * Creates a player which only knows its name, UUID and locale.
+     *
+     * @param name the name of the player
+     * @return the player
+     */
+    public static Player createPlayer(String name) {
+        UUID id = UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes());
+        return (Player) Proxy.newProxyInstance(HeadlessServer.class.getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUniqueId":
+                            return id;
+                        case "getName":
+                        case "toString":
+                            return name;
+                        case "isOnline":
+                            return true;
+                        case "locale":
+                            return Locale.ENGLISH;
+                        case "hashCode":
+                            return id.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return HeadlessPlugin.defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * Gets the resources directory of the plugin, passed in by the build.
+     */
+    private static Path getResourcesDir() {
+        String path = System.getProperty(RESOURCES_PROPERTY);
+        if (path == null)
+            throw new IllegalStateException(String.format("The '%s' system property is not set.", RESOURCES_PROPERTY));
+        return Paths.get(path);
+    }
+}
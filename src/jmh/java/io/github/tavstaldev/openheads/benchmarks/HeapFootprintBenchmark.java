@@ -0,0 +1,106 @@
+package io.github.tavstaldev.openheads.benchmarks;
+
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.utils.HeadCatalogCodec;
+import io.github.tavstaldev.openheads.utils.HeadStringPool;
+import org.openjdk.jmh.annotations.*;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the heap retained by the whole catalog in the compact head representation and in the
+ * previous one, which kept the name, the comma-joined tags and the full base64 texture as separate strings.
+ * Every iteration loads all bundled JSON head files and keeps them reachable, the retained heap is printed
+ * after the iteration, and a class histogram of the heap is printed at the end of the trial.
+ * Every invocation reads the files with a new string pool, like a catalog build, so the pooled strings retained
+ * by the compact heads are counted each time, while the string representation leaves its pool behind as garbage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HeapFootprintBenchmark {
+    /**
+     * The number of histogram lines printed at the end of the trial.
+     */
+    private static final int HISTOGRAM_LINES = 20;
+
+    @Param({"compact", "strings"})
+    public String representation;
+
+    private List<Path> _files;
+    private List<Object> _retained;
+    private long _baseline;
+
+    /**
+     * The representation used before the heads were compacted.
+     */
+    private record StringHead(String Name, String Tags, String Texture) {}
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        _files = HeadlessServer.getHeadFiles();
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        _retained = null;
+        _baseline = usedHeap();
+    }
+
+    @Benchmark
+    public List<Object> loadCatalog() throws Exception {
+        List<Object> heads = new ArrayList<>();
+        // One pool for the whole catalog, like a catalog build
+        HeadStringPool strings = new HeadStringPool();
+        for (Path file : _files) {
+            for (HeadData head : HeadCatalogCodec.readJson(file, strings)) {
+                if (representation.equals("strings")) {
+                    // Fresh copies, like the strings the JSON parser used to hand out for every head
+                    heads.add(new StringHead(head.Name == null ? null : new String(head.Name), head.GetTagText(), head.GetTexture()));
+                } else {
+                    heads.add(head);
+                }
+            }
+        }
+        _retained = heads;
+        return heads;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        long retained = usedHeap() - _baseline;
+        System.out.printf("%n%s: %d heads retain %,d bytes (%.1f bytes per head)%n",
+                representation, _retained.size(), retained, (double) retained / Math.max(1, _retained.size()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        // Same output as 'jcmd <pid> GC.class_histogram', taken while the last loaded catalog is still reachable
+        String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                new ObjectName("com.sun.management:type=DiagnosticCommand"),
+                "gcClassHistogram",
+                new Object[]{new String[0]},
+                new String[]{String[].class.getName()});
+        String[] lines = histogram.split("\n");
+        System.out.printf("%nHeap histogram (%s):%n", representation);
+        for (int i = 0; i < Math.min(HISTOGRAM_LINES + 3, lines.length); i++)
+            System.out.println(lines[i]);
+        _retained = null;
+    }
+
+    /**
+     * Gets the used heap after a full garbage collection.
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++)
+            memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.tavstaldev.openheads.benchmarks;
+
+import io.github.tavstaldev.openheads.models.Favorite;
+import io.github.tavstaldev.openheads.models.FavoriteChange;
+import io.github.tavstaldev.openheads.models.FavoritePage;
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.models.IAsyncDatabase;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Database kept in memory, used by the benchmarks instead of SQLite or MySQL.
+ */
+public class InMemoryDatabase implements IAsyncDatabase {
+    private final Map<UUID, Set<Favorite>> _favorites = new ConcurrentHashMap<>();
+
+    @Override
+    public void Load() {
+    }
+
+    @Override
+    public void Unload() {
+        _favorites.clear();
+    }
+
+    @Override
+    public void CheckSchema() {
+    }
+
+    @Override
+    public void AddFavorite(UUID owner, String category, String headName) {
+        _favorites.computeIfAbsent(owner, k -> Collections.synchronizedSet(new LinkedHashSet<>()))
+                .add(new Favorite(owner, category, headName));
+    }
+
+    @Override
+    public void RemoveFavorite(UUID owner, String category, String headName) {
+        Set<Favorite> favorites = _favorites.get(owner);
+        if (favorites != null)
+            favorites.remove(new Favorite(owner, category, headName));
+    }
+
+    @Override
+    public boolean ApplyFavoriteChanges(List<Favorite> added, List<Favorite> removed) {
+        for (Favorite favorite : added)
+            AddFavorite(favorite.PlayerId, favorite.CategoryName, favorite.HeadName);
+        for (Favorite favorite : removed)
+            RemoveFavorite(favorite.PlayerId, favorite.CategoryName, favorite.HeadName);
+        return true;
+    }
+
+    @Override
+    public boolean IsFavorite(UUID owner, String category, String headName) {
+        Set<Favorite> favorites = _favorites.get(owner);
+        return favorites != null && favorites.contains(new Favorite(owner, category, headName));
+    }
+
+    @Override
+    public boolean IsFavorite(UUID owner, Map.Entry<String, HeadData> head) {
+        return IsFavorite(owner, head.getKey(), head.getValue().Name);
+    }
+
+    @Override
+    public List<Favorite> GetFavorites(UUID owner) {
+        Set<Favorite> favorites = _favorites.get(owner);
+        if (favorites == null)
+            return new ArrayList<>();
+        synchronized (favorites) {
+            return new ArrayList<>(favorites);
+        }
+    }
+
+    @Override
+    public FavoritePage GetFavoritesPage(UUID owner, long cursor, int limit) {
+        List<Favorite> favorites = GetFavorites(owner);
+        int start = (int) Math.min(cursor, favorites.size());
+        int end = Math.min(start + limit, favorites.size());
+        return new FavoritePage(new ArrayList<>(favorites.subList(start, end)), end, end - start == limit);
+    }
+
+    @Override
+    public int CountFavorites(UUID owner) {
+        Set<Favorite> favorites = _favorites.get(owner);
+        return favorites == null ? 0 : favorites.size();
+    }
+
+    @Override
+    public Set<Favorite> FilterFavorites(UUID owner, Collection<Favorite> heads) {
+        Set<Favorite> result = new HashSet<>();
+        for (Favorite head : heads) {
+            if (IsFavorite(owner, head.CategoryName, head.HeadName))
+                result.add(new Favorite(owner, head.CategoryName, head.HeadName));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean HasChangeLog() {
+        return false;
+    }
+
+    @Override
+    public long GetLastChangeSequence() {
+        return 0;
+    }
+
+    @Override
+    public List<FavoriteChange> GetFavoriteChanges(long after, int limit) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<FavoriteChange> GetFavoriteChanges(Collection<Long> sequences) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public int PruneFavoriteChanges(int maxAgeSeconds) {
+        return 0;
+    }
+}
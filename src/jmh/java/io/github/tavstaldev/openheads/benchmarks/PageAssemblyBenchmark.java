@@ -0,0 +1,92 @@
+package io.github.tavstaldev.openheads.benchmarks;
+
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.managers.FavoritesCache;
+import io.github.tavstaldev.openheads.models.HeadCategory;
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.models.PlayerData;
+import io.github.tavstaldev.openheads.utils.HeadUtils;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures assembling the data of a heads GUI page: refreshing the player's head list for the current view,
+ * then resolving the category and the favorite state of every slot on the first page, like HeadsGUI.refresh does.
+ * Building the icons needs a running server, so it is not part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PageAssemblyBenchmark {
+    @Param({"category", "search", "favorites"})
+    public String view;
+
+    private Player _player;
+    private PlayerData _playerData;
+
+    @Setup
+    public void setup() throws Exception {
+        HeadlessServer.loadCatalog(true);
+        _player = HeadlessServer.createPlayer("Page" + view);
+        _playerData = new PlayerData(_player);
+        UUID playerId = _player.getUniqueId();
+
+        switch (view) {
+            case "category":
+                _playerData.setSearchCategory(HeadUtils.getCategory("Humanoids"));
+                break;
+            case "search":
+                _playerData.setSearch("man");
+                break;
+            case "favorites":
+            default:
+                HeadCategory category = HeadUtils.getCategory("Humanoids");
+                List<HeadData> heads = category.getHeads();
+                for (int i = 0; i < 500; i++)
+                    OpenHeads.Database.AddFavorite(playerId, category.Name, heads.get(i * 7 % heads.size()).Name);
+                FavoritesCache.unload(playerId).join();
+                FavoritesCache.load(playerId).join();
+                _playerData.setFavorite(true);
+                break;
+        }
+    }
+
+    @Benchmark
+    public void refreshAndAssemble(Blackhole blackhole) {
+        _playerData.refreshHeads().join();
+        assemblePage(1, blackhole);
+    }
+
+    @Benchmark
+    public void assembleNextPage(Blackhole blackhole) {
+        if (_playerData.getHeads() == null)
+            _playerData.refreshHeads().join();
+        int maxPage = 1 + (_playerData.getHeadCount() / PlayerData.PAGE_SIZE);
+        int page = _playerData.getHeadsPage() % maxPage + 1;
+        _playerData.setHeadsPage(page);
+        assemblePage(page, blackhole);
+    }
+
+    /**
+     * Loads the page and does the lookups HeadsGUI.refresh does for every slot of it.
+     */
+    private void assemblePage(int page, Blackhole blackhole) {
+        UUID playerId = _player.getUniqueId();
+        _playerData.loadPage(page).join();
+        for (int i = 0; i < PlayerData.PAGE_SIZE; i++) {
+            int index = i + (page - 1) * PlayerData.PAGE_SIZE;
+            Map.Entry<String, HeadData> head = _playerData.getHead(index);
+            if (head == null)
+                break;
+
+            blackhole.consume(HeadUtils.getCategory(head.getKey()));
+            blackhole.consume(FavoritesCache.isFavorite(playerId, head.getKey(), head.getValue().Name));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.tavstaldev.openheads.benchmarks;
+
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.utils.HeadSearchIndex;
+import io.github.tavstaldev.openheads.utils.HeadUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures searching the full catalog with queries of different selectivity,
+ * from a single letter matching most heads to a query matching nothing,
+ * and with misspelled queries which are only found by the typo-tolerant matching.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+    @Param({"a", "man", "dragon", "red wool", "qxzj", "zombei", "drgaon", "blue zombei"})
+    public String query;
+
+    private HeadSearchIndex _index;
+
+    @Setup
+    public void setup() throws Exception {
+        HeadlessServer.loadCatalog(true);
+        _index = HeadUtils.getSearchIndex();
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, HeadData>> search() {
+        return _index.search(query, HeadSearchIndex.DEFAULT_RESULT_LIMIT);
+    }
+}
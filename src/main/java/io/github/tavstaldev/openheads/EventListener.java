@@ -1,13 +1,19 @@
 package io.github.tavstaldev.openheads;
 
+import com.samjakob.spigui.menu.SGMenu;
 import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.managers.FavoritesCache;
 import io.github.tavstaldev.openheads.managers.PlayerManager;
 import io.github.tavstaldev.openheads.models.PlayerData;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerKickEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 
 /**
  * Event listener for handling player-related events.
@@ -35,5 +41,57 @@ public class EventListener implements Listener
         Player player = event.getPlayer();
         PlayerData playerData = new PlayerData(player);
         PlayerManager.addPlayerData(player.getUniqueId(), playerData);
+        // Warm up the favorites, so the GUI does not have to wait for the database
+        FavoritesCache.load(player.getUniqueId());
+    }
+
+    /**
+     * Handles the event when a player leaves the server.
+     *
+     * @param event The PlayerQuitEvent triggered when a player leaves the server.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        removeSession(event.getPlayer());
+    }
+
+    /**
+     * Handles the event when a player is kicked from the server.
+     *
+     * @param event The PlayerKickEvent triggered when a player is kicked from the server.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerKick(PlayerKickEvent event) {
+        removeSession(event.getPlayer());
+    }
+
+    /**
+     * Handles the event when a player closes one of the plugin's menus by hand.
+     * Reopening a menu while the GUI is refreshed also closes the old inventory, those events are ignored.
+     *
+     * @param event The InventoryCloseEvent triggered when an inventory is closed.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClose(InventoryCloseEvent event) {
+        if (event.getReason() != InventoryCloseEvent.Reason.PLAYER || !(event.getInventory().getHolder() instanceof SGMenu))
+            return;
+        PlayerData playerData = PlayerManager.getPlayerData(event.getPlayer().getUniqueId());
+        if (playerData != null)
+            playerData.setGUIOpened(false);
+    }
+
+    /**
+     * Drops the session of a player and writes back their favorites.
+     * Both the kick and the quit event call it, so it must be safe to call twice.
+     *
+     * @param player The player who left the server.
+     */
+    private void removeSession(Player player) {
+        PlayerData playerData = PlayerManager.getPlayerData(player.getUniqueId());
+        if (playerData == null)
+            return;
+        playerData.setGUIOpened(false);
+        PlayerManager.removePlayerData(player.getUniqueId());
+        FavoritesCache.unload(player.getUniqueId());
     }
 }
@@ -6,11 +6,22 @@ import io.github.tavstaldev.minecorelib.core.PluginLogger;
 import io.github.tavstaldev.minecorelib.core.PluginTranslator;
 import io.github.tavstaldev.minecorelib.utils.VersionUtils;
 import io.github.tavstaldev.openheads.commands.CommandHeads;
+import io.github.tavstaldev.openheads.gui.MenuTemplate;
+import io.github.tavstaldev.openheads.managers.FavoriteChangePoller;
+import io.github.tavstaldev.openheads.managers.FavoritesCache;
 import io.github.tavstaldev.openheads.managers.MySqlManager;
+import io.github.tavstaldev.openheads.managers.PlayerManager;
+import io.github.tavstaldev.openheads.managers.PurchaseManager;
+import io.github.tavstaldev.openheads.managers.SearchManager;
 import io.github.tavstaldev.openheads.managers.SqlLiteManager;
-import io.github.tavstaldev.openheads.models.IDatabase;
+import io.github.tavstaldev.openheads.metrics.Metrics;
+import io.github.tavstaldev.openheads.models.IAsyncDatabase;
+import io.github.tavstaldev.openheads.utils.AsyncUtils;
+import io.github.tavstaldev.openheads.utils.CatalogWatcher;
 import io.github.tavstaldev.openheads.utils.EconomyUtils;
+import io.github.tavstaldev.openheads.utils.HeadIconCache;
 import io.github.tavstaldev.openheads.utils.HeadUtils;
+import io.github.tavstaldev.openheads.utils.MenuItemCache;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.file.FileConfiguration;
 
@@ -53,7 +64,7 @@ public class OpenHeads extends PluginBase {
     public static FileConfiguration GetConfig(){
         return Instance.getConfig();
     }
-    public static IDatabase Database;
+    public static IAsyncDatabase Database;
 
     /**
      * Constructor for the OpenHeads plugin.
@@ -119,6 +130,7 @@ public class OpenHeads extends PluginBase {
         }
 
         // Create Database
+        AsyncUtils.init();
         String databaseType = this.getConfig().getString("storage.type");
         if (databaseType == null)
             databaseType = "sqlite";
@@ -136,14 +148,24 @@ public class OpenHeads extends PluginBase {
             }
         }
         Database.CheckSchema();
+        // The poller reads the end of the change log before any favorites are cached
+        FavoriteChangePoller.init();
+        FavoritesCache.init();
 
         // Register Head Config
         _logger.Debug("Loading config...");
         HeadUtils.Load();
+        HeadIconCache.init();
+        SearchManager.init();
+        PurchaseManager.init();
+        // Start watching the head files once the initial load, which might copy them from the resources, is done
+        HeadUtils.getLoadFuture().thenRun(CatalogWatcher::init);
 
         // Register GUI
         _logger.Debug("Loading GUI...");
         _spiGUI = new SpiGUI(this);
+        PlayerManager.init();
+        Metrics.init();
 
         // Register Commands
         _logger.Debug("Registering commands...");
@@ -170,6 +192,16 @@ public class OpenHeads extends PluginBase {
      */
     @Override
     public void onDisable() {
+        CatalogWatcher.shutdown();
+        Metrics.shutdown();
+        PlayerManager.shutdown();
+        // Write back the cached favorites and let the pending database tasks finish before closing the connections
+        FavoriteChangePoller.shutdown();
+        if (Database != null)
+            FavoritesCache.shutdown();
+        AsyncUtils.shutdown();
+        if (Database != null)
+            Database.Unload();
         _logger.Info(String.format("%s has been successfully unloaded.", getProjectName()));
     }
 
@@ -196,7 +228,8 @@ public class OpenHeads extends PluginBase {
     }
 
     /**
-     * Reloads the plugin configuration and localizations.
+     * Reloads the plugin configuration and localizations, then starts rebuilding the head catalog in the background.
+     * Open GUIs keep using the previous catalog until they are refreshed, see {@link HeadUtils#getReloadFuture()}.
      */
     public void reload() {
         _logger.Info("Reloading OpenHeads...");
@@ -206,5 +239,15 @@ public class OpenHeads extends PluginBase {
         _logger.Debug("Reloading configuration...");
         this.reloadConfig();
         _logger.Debug("Configuration reloaded.");
+        // The cached items hold the old translations
+        HeadIconCache.init();
+        MenuItemCache.clear();
+        MenuTemplate.clear();
+        _logger.Debug("Head icon cache cleared.");
+        SearchManager.init();
+        PurchaseManager.init();
+        _logger.Debug("Reloading head catalog...");
+        // The watcher is restarted, in case it has been turned on or off in the config
+        HeadUtils.reload().thenRun(CatalogWatcher::init);
     }
 }
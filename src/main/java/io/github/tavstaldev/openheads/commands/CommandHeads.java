@@ -5,6 +5,10 @@ import io.github.tavstaldev.minecorelib.models.command.SubCommandData;
 import io.github.tavstaldev.minecorelib.utils.ChatUtils;
 import io.github.tavstaldev.openheads.OpenHeads;
 import io.github.tavstaldev.openheads.gui.MainGUI;
+import io.github.tavstaldev.openheads.metrics.Metrics;
+import io.github.tavstaldev.openheads.metrics.Timer;
+import io.github.tavstaldev.openheads.utils.AsyncUtils;
+import io.github.tavstaldev.openheads.utils.HeadUtils;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.ClickEvent;
 import org.bukkit.command.Command;
@@ -17,6 +21,7 @@ import org.jetbrains.annotations.NotNull;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class CommandHeads implements CommandExecutor {
@@ -83,8 +88,33 @@ public class CommandHeads implements CommandExecutor {
                         return true;
                     }
 
+                    // The config and the messages are reloaded right away, the catalog is rebuilt in the background
                     OpenHeads.Instance.reload();
                     OpenHeads.Instance.sendLocalizedMsg(player, "Commands.Reload.Done");
+                    HeadUtils.getReloadFuture().whenCompleteAsync((catalog, ex) -> {
+                        if (!player.isOnline())
+                            return;
+                        if (ex != null) {
+                            _logger.Error("Failed to reload the head catalog.");
+                            _logger.Error(ex);
+                            OpenHeads.Instance.sendLocalizedMsg(player, "Commands.Reload.CatalogFailed");
+                            return;
+                        }
+                        OpenHeads.Instance.sendLocalizedMsg(player, "Commands.Reload.CatalogDone", Map.of(
+                                "heads", String.valueOf(catalog.HeadCount),
+                                "categories", String.valueOf(catalog.Categories.size()),
+                                "time", String.valueOf(catalog.LoadMillis)
+                        ));
+                    }, AsyncUtils.getMainThreadExecutor());
+                    return true;
+                }
+                case "stats": {
+                    if (!player.hasPermission("openheads.commands.stats")) {
+                        OpenHeads.Instance.sendLocalizedMsg(player, "General.NoPermission");
+                        return true;
+                    }
+
+                    stats(player);
                     return true;
                 }
             }
@@ -93,6 +123,12 @@ public class CommandHeads implements CommandExecutor {
             return true;
         }
 
+        // The heads are still being loaded in the background
+        if (!HeadUtils.isLoaded()) {
+            OpenHeads.Instance.sendLocalizedMsg(player, "General.CatalogLoading");
+            return true;
+        }
+
         MainGUI.open(player);
         return true;
     }
@@ -117,6 +153,11 @@ public class CommandHeads implements CommandExecutor {
                 put("syntax", null);
                 put("description", "Commands.Reload.Desc");
             }}));
+            // STATS
+            add(new SubCommandData("stats", "openheads.commands.stats", new HashMap<>() {{
+                put("syntax", null);
+                put("description", "Commands.Stats.Desc");
+            }}));
             // OPEN
             add(new SubCommandData("", "", new HashMap<>() {{
                 put("syntax", null);
@@ -125,6 +166,50 @@ public class CommandHeads implements CommandExecutor {
         }
     };
 
+    /**
+     * Sends the current metrics of the plugin to the specified player: the gauges, the counters and the timers.
+     *
+     * @param player The player to whom the metrics are being sent.
+     */
+    private void stats(Player player) {
+        OpenHeads.Instance.sendLocalizedMsg(player, "Commands.Stats.Title");
+        for (var entry : Metrics.readGauges().entrySet()) {
+            OpenHeads.Instance.sendLocalizedMsg(player, "Commands.Stats.Value", Map.of(
+                    "name", entry.getKey(),
+                    "value", formatNumber(entry.getValue())
+            ));
+        }
+        for (var entry : Metrics.getCounters().entrySet()) {
+            OpenHeads.Instance.sendLocalizedMsg(player, "Commands.Stats.Value", Map.of(
+                    "name", entry.getKey(),
+                    "value", String.valueOf(entry.getValue().sum())
+            ));
+        }
+        for (var entry : Metrics.getTimers().entrySet()) {
+            Timer timer = entry.getValue();
+            OpenHeads.Instance.sendLocalizedMsg(player, "Commands.Stats.Timer", Map.of(
+                    "name", entry.getKey(),
+                    "count", String.valueOf(timer.getCount()),
+                    "mean", formatNumber(timer.getMeanMillis()),
+                    "p95", formatNumber(timer.getPercentileMillis(95)),
+                    "p99", formatNumber(timer.getPercentileMillis(99)),
+                    "max", formatNumber(timer.getMaxMillis())
+            ));
+        }
+    }
+
+    /**
+     * Formats a metric value, keeping two decimals of the fractional values.
+     *
+     * @param value The value to format.
+     * @return The formatted value.
+     */
+    private static String formatNumber(Number value) {
+        if (value instanceof Double || value instanceof Float)
+            return String.format(Locale.ROOT, "%.2f", value.doubleValue());
+        return String.valueOf(value);
+    }
+
     /**
      * Sends the help message to the specified player, displaying the available subcommands.
      *
@@ -5,18 +5,22 @@ import com.samjakob.spigui.menu.SGMenu;
 import io.github.tavstaldev.minecorelib.core.PluginLogger;
 import io.github.tavstaldev.minecorelib.utils.GuiUtils;
 import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.managers.FavoritesCache;
 import io.github.tavstaldev.openheads.managers.PlayerManager;
+import io.github.tavstaldev.openheads.managers.PurchaseManager;
+import io.github.tavstaldev.openheads.metrics.Metrics;
 import io.github.tavstaldev.openheads.models.HeadData;
 import io.github.tavstaldev.openheads.models.PlayerData;
-import io.github.tavstaldev.openheads.utils.EconomyUtils;
+import io.github.tavstaldev.openheads.utils.AsyncUtils;
 import io.github.tavstaldev.openheads.utils.HeadUtils;
+import io.github.tavstaldev.openheads.utils.MenuItemCache;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
-import org.bukkit.event.inventory.InventoryClickEvent;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 public class HeadsGUI {
     private static final PluginLogger _logger = OpenHeads.Logger().WithModule(HeadsGUI.class);
@@ -28,6 +32,7 @@ public class HeadsGUI {
 
     /**
      * Creates the heads GUI for the specified player.
+     * The static buttons are shared with the players of the same locale, see {@link MenuTemplate}.
      *
      * @param player The player for whom the GUI is being created.
      * @return The created SGMenu instance.
@@ -36,40 +41,8 @@ public class HeadsGUI {
         try {
             // Create a new GUI menu with 6 rows and a default title
             SGMenu menu = OpenHeads.GetGUI().create("...", 6);
-
-            // Create placeholder buttons to fill specific slots in the GUI
-            SGButton placeholderButton = new SGButton(GuiUtils.createItem(OpenHeads.Instance, Material.BLACK_STAINED_GLASS_PANE, " "));
-            for (Integer slot : SlotPlaceholders) {
-                // Set the placeholder button in the specified slots
-                menu.setButton(0, slot, placeholderButton);
-            }
-
-            // Create a back button to return to the main GUI
-            SGButton closeButton = new SGButton(
-                    GuiUtils.createItem(OpenHeads.Instance, Material.SPRUCE_DOOR, _plugin.Localize(player, "GUI.Back")))
-                    .withListener((InventoryClickEvent event) -> {
-                        // Close the current GUI and open the main GUI
-                        close(player);
-                        MainGUI.open(player);
-                    });
-            // Set the back button in the bottom-left corner of the GUI
-            menu.setButton(0, 45, closeButton);
-
-            // Create a button to navigate to the previous page
-            SGButton prevPageButton = new SGButton(
-                    GuiUtils.createItem(OpenHeads.Instance, Material.ARROW, _plugin.Localize(player, "GUI.PreviousPage")))
-                    .withListener((InventoryClickEvent event) -> {
-                        // Retrieve the player's data
-                        PlayerData playerData = PlayerManager.getPlayerData(player.getUniqueId());
-                        // Check if the current page is the first page
-                        if (playerData.getHeadsPage() - 1 <= 0)
-                            return;
-                        // Decrement the page number and refresh the GUI
-                        playerData.setHeadsPage(playerData.getHeadsPage() - 1);
-                        refresh(player);
-                    });
-            // Set the previous page button in the bottom-left center of the GUI
-            menu.setButton(0, 48, prevPageButton);
+            // Put the shared placeholder and navigation buttons into the menu
+            MenuTemplate.get(HeadsGUI.class, player, HeadsGUI::createTemplate).applyTo(menu);
 
             // Create a page indicator button to display the current page number
             SGButton pageButton = new SGButton(
@@ -78,24 +51,6 @@ public class HeadsGUI {
             // Set the page indicator button in the center of the bottom row
             menu.setButton(0, 49, pageButton);
 
-            // Create a button to navigate to the next page
-            SGButton nextPageButton = new SGButton(
-                    GuiUtils.createItem(OpenHeads.Instance, Material.ARROW, _plugin.Localize(player, "GUI.NextPage")))
-                    .withListener((InventoryClickEvent event) -> {
-                        // Retrieve the player's data
-                        PlayerData playerData = PlayerManager.getPlayerData(player.getUniqueId());
-                        // Calculate the maximum number of pages
-                        int maxPage = 1 + (playerData.getHeads().size() / 45);
-                        // Check if the current page is the last page
-                        if (playerData.getHeadsPage() + 1 > maxPage)
-                            return;
-                        // Increment the page number and refresh the GUI
-                        playerData.setHeadsPage(playerData.getHeadsPage() + 1);
-                        refresh(player);
-                    });
-            // Set the next page button in the bottom-right center of the GUI
-            menu.setButton(0, 50, nextPageButton);
-
             // Return the created menu
             return menu;
         } catch (Exception ex) {
@@ -107,6 +62,74 @@ public class HeadsGUI {
         }
     }
 
+    /**
+     * Builds the static buttons of the heads GUI in the locale of the specified player.
+     * The listeners act on the player who clicked, so the buttons can be shared.
+     *
+     * @param player The player whose locale is used.
+     * @return The buttons keyed by their slots.
+     */
+    private static Map<Integer, SGButton> createTemplate(@NotNull Player player) {
+        Map<Integer, SGButton> buttons = new HashMap<>();
+
+        // Create placeholder buttons to fill specific slots in the GUI
+        SGButton placeholderButton = new SGButton(MenuItemCache.get(player, Material.BLACK_STAINED_GLASS_PANE,
+                () -> GuiUtils.createItem(OpenHeads.Instance, Material.BLACK_STAINED_GLASS_PANE, " ")));
+        for (Integer slot : SlotPlaceholders) {
+            // Set the placeholder button in the specified slots
+            buttons.put(slot, placeholderButton);
+        }
+
+        // Create a back button to return to the main GUI
+        SGButton closeButton = new SGButton(
+                MenuItemCache.getButton(player, Material.SPRUCE_DOOR, "GUI.Back"))
+                .withListener(MenuTemplate.listener(clicker -> {
+                    // Close the current GUI and open the main GUI
+                    close(clicker);
+                    MainGUI.open(clicker);
+                }));
+        // Set the back button in the bottom-left corner of the GUI
+        buttons.put(45, closeButton);
+
+        // Create a button to navigate to the previous page
+        SGButton prevPageButton = new SGButton(
+                MenuItemCache.getButton(player, Material.ARROW, "GUI.PreviousPage"))
+                .withListener(MenuTemplate.listener(clicker -> {
+                    // Retrieve the player's data
+                    PlayerData playerData = PlayerManager.getPlayerData(clicker.getUniqueId());
+                    // Check if the current page is the first page
+                    if (playerData.getHeadsPage() - 1 <= 0)
+                        return;
+                    // Decrement the page number and refresh the GUI
+                    playerData.setHeadsPage(playerData.getHeadsPage() - 1);
+                    refresh(clicker);
+                }));
+        // Set the previous page button in the bottom-left center of the GUI
+        buttons.put(48, prevPageButton);
+
+        // Create a button to navigate to the next page
+        SGButton nextPageButton = new SGButton(
+                MenuItemCache.getButton(player, Material.ARROW, "GUI.NextPage"))
+                .withListener(MenuTemplate.listener(clicker -> {
+                    // Retrieve the player's data
+                    PlayerData playerData = PlayerManager.getPlayerData(clicker.getUniqueId());
+                    // The heads are still being loaded
+                    if (playerData.getHeads() == null)
+                        return;
+                    // Calculate the maximum number of pages
+                    int maxPage = 1 + (playerData.getHeadCount() / PlayerData.PAGE_SIZE);
+                    // Check if the current page is the last page
+                    if (playerData.getHeadsPage() + 1 > maxPage)
+                        return;
+                    // Increment the page number and refresh the GUI
+                    playerData.setHeadsPage(playerData.getHeadsPage() + 1);
+                    refresh(clicker);
+                }));
+        // Set the next page button in the bottom-right center of the GUI
+        buttons.put(50, nextPageButton);
+        return buttons;
+    }
+
     /**
      * Opens the GUI for the specified player.
      *
@@ -144,9 +167,27 @@ public class HeadsGUI {
         if (menuName != null) {
             playerData.getHeadsMenu().setName(menuName);
         }
-        
-        playerData.refreshHeads();
-        refresh(player);
+
+        // The load completes on a database thread, the player data is only ever touched on the main thread
+        var future = FavoritesCache.load(player.getUniqueId())
+                .thenComposeAsync(ignored -> playerData.refreshHeads(), AsyncUtils.getMainThreadExecutor());
+        // Show a loading placeholder while the favorites are being fetched from the database
+        if (!future.isDone())
+            showLoading(player);
+
+        future.thenRun(() -> {
+            // The player might have closed the GUI while the heads were loading
+            if (!player.isOnline() || !playerData.isGUIOpened())
+                return;
+            refresh(player);
+        }).exceptionally(ex -> {
+            // The player started another search, which opens the GUI again
+            if (ex instanceof CancellationException || ex.getCause() instanceof CancellationException)
+                return null;
+            _logger.Error("An error occurred while loading the heads.");
+            _logger.Error(ex);
+            return null;
+        });
     }
 
     /**
@@ -162,12 +203,51 @@ public class HeadsGUI {
         playerData.setSearchCategory(null);
     }
 
+    /**
+     * Clears the head slots and shows a loading placeholder in the middle of the GUI.
+     *
+     * @param player The player for whom the placeholder is being shown.
+     */
+    private static void showLoading(@NotNull Player player) {
+        PlayerData playerData = PlayerManager.getPlayerData(player.getUniqueId());
+        SGMenu menu = playerData.getHeadsMenu();
+        for (int i = 0; i < 45; i++) {
+            menu.removeButton(0, i);
+        }
+        menu.setButton(0, 22, new SGButton(MenuItemCache.getButton(player, Material.CLOCK, "GUI.Loading")));
+        player.openInventory(menu.getInventory());
+    }
+
     /**
      * Refreshes the GUI for the specified player.
+     * The heads of the current page are loaded first, and the page is drawn on the main thread once they are ready.
      *
      * @param player The player for whom the GUI is being refreshed.
      */
     public static void refresh(@NotNull Player player) {
+        // Retrieve the player's data
+        PlayerData playerData = PlayerManager.getPlayerData(player.getUniqueId());
+        int page = playerData.getHeadsPage();
+        playerData.loadPage(page).thenRun(() -> {
+            // The player might have closed the GUI or turned the page while the heads were loading
+            if (!player.isOnline() || !playerData.isGUIOpened() || playerData.getHeadsPage() != page)
+                return;
+            drawPage(player);
+        }).exceptionally(ex -> {
+            _logger.Error("An error occurred while loading the page of the heads GUI.");
+            _logger.Error(ex);
+            return null;
+        });
+    }
+
+    /**
+     * Draws the current page of the heads GUI for the specified player.
+     * Only the heads on the page are touched, their favorite state is answered from the cache.
+     *
+     * @param player The player for whom the GUI is being drawn.
+     */
+    private static void drawPage(@NotNull Player player) {
+        long start = System.nanoTime();
         try {
             // Retrieve the player's data
             PlayerData playerData = PlayerManager.getPlayerData(player.getUniqueId());
@@ -187,78 +267,20 @@ public class HeadsGUI {
 
             // Get the current page number
             int page = playerData.getHeadsPage();
-            for (int i = 0; i < 45; i++) {
+            var playerId = player.getUniqueId();
+            for (int i = 0; i < PlayerData.PAGE_SIZE; i++) {
                 // Calculate the index of the head based on the current page and slot
-                int index = i + (page - 1) * 45;
-                List<Map.Entry<String, HeadData>> heads = playerData.getHeads();
+                int index = i + (page - 1) * PlayerData.PAGE_SIZE;
+                Map.Entry<String, HeadData> head = playerData.getHead(index);
 
                 // If the index is out of bounds, remove the button from the slot
-                if (index >= heads.size()) {
+                if (head == null) {
                     playerData.getHeadsMenu().removeButton(0, i);
                     continue;
                 }
 
-                // Retrieve the head data and its category
-                Map.Entry<String, HeadData> head = heads.get(index);
-                var category = HeadUtils.getCategory(head.getKey());
-
-                // Log a warning if the category is not found and skip this head
-                if (category == null) {
-                    _logger.Warn("Failed to find category for head data.");
-                    continue;
-                }
-
-                int finalSlot = i;
-                // Set a button in the specified slot with the head's icon and listener
-                playerData.getHeadsMenu().setButton(0, i, new SGButton(head.getValue().GetIcon(player, category.Name, category.DisplayNameKey))
-                        .withListener(event -> {
-                            // Handle left-click events: Buy or receive the head
-                            if (event.isLeftClick()) {
-                                var price = category.Price;
-                                var headValue = head.getValue();
-
-                                // Check if the player has enough money to buy the head
-                                if (price > 0) {
-                                    if (!EconomyUtils.has(player, price)) {
-                                        _plugin.sendLocalizedMsg(player, "General.NotEnoughMoney");
-                                        return;
-                                    }
-
-                                    // Deduct the price and add the head to the player's inventory
-                                    EconomyUtils.withdraw(player, price);
-                                    player.getInventory().addItem(headValue.GetItem(player, category.DisplayNameKey));
-                                    _plugin.sendLocalizedMsg(player, "General.BoughtHead",  Map.of(
-                                            "price", String.format("%.2f", price), // Format the price to two decimal places
-                                            "head", headValue.Name
-                                    ));
-                                    return;
-                                }
-
-                                // Add the head to the player's inventory for free
-                                player.getInventory().addItem(headValue.GetItem(player, category.DisplayNameKey));
-                                _plugin.sendLocalizedMsg(player, "General.ReceivedHead",  Map.of(
-                                        "head", headValue.Name
-                                ));
-                                return;
-                            }
-
-                            // Handle right-click events: Add or remove the head from favorites
-                            if (event.isRightClick()) {
-                                var headValue = head.getValue();
-                                var headKey = head.getKey();
-                                var playerId = player.getUniqueId();
-
-                                // Toggle the favorite status of the head
-                                if (OpenHeads.Database.IsFavorite(playerId, headKey, headValue.Name)) {
-                                    OpenHeads.Database.RemoveFavorite(playerId, headKey, headValue.Name);
-                                } else {
-                                    OpenHeads.Database.AddFavorite(playerId, headKey, headValue.Name);
-                                }
-
-                                // Refresh the slot to reflect the changes
-                                refreshSlot(player, finalSlot);
-                            }
-                        }));
+                // The favorite state is answered from the cache, so drawing a page does no I/O
+                setHeadButton(player, i, head, FavoritesCache.isFavorite(playerId, head.getKey(), head.getValue().Name));
             }
 
             // Open the updated inventory for the player
@@ -268,6 +290,7 @@ public class HeadsGUI {
             _logger.Error("An error occurred while refreshing the heads GUI.");
             _logger.Error(ex);
         }
+        Metrics.timer("gui.heads.render").recordSince(start);
     }
 
     /**
@@ -283,76 +306,16 @@ public class HeadsGUI {
             int page = playerData.getHeadsPage();
 
             // Calculate the index of the head based on the current page and slot
-            int index = slot + (page - 1) * 45;
-            List<Map.Entry<String, HeadData>> heads = playerData.getHeads();
+            int index = slot + (page - 1) * PlayerData.PAGE_SIZE;
+            Map.Entry<String, HeadData> head = playerData.getHead(index);
 
             // If the index is out of bounds, remove the button from the slot
-            if (index >= heads.size()) {
+            if (head == null) {
                 playerData.getHeadsMenu().removeButton(0, slot);
                 return;
             }
 
-            // Retrieve the head data and its category
-            Map.Entry<String, HeadData> head = heads.get(index);
-            var category = HeadUtils.getCategory(head.getKey());
-
-            // Log a warning if the category is not found and exit
-            if (category == null) {
-                _logger.Warn("Failed to find category for head data.");
-                return;
-            }
-
-            // Set a button in the specified slot with the head's icon and listener
-            playerData.getHeadsMenu().setButton(0, slot, new SGButton(head.getValue().GetIcon(player, category.Name, category.DisplayNameKey))
-                    .withListener(event -> {
-                        // Handle left-click events: Buy or receive the head
-                        if (event.isLeftClick()) {
-                            var price = category.Price;
-                            var headValue = head.getValue();
-
-                            // Check if the player has enough money to buy the head
-                            if (price > 0) {
-                                if (!EconomyUtils.has(player, price)) {
-                                    _plugin.sendLocalizedMsg(player, "General.NotEnoughMoney");
-                                    return;
-                                }
-
-                                // Deduct the price and add the head to the player's inventory
-                                EconomyUtils.withdraw(player, price);
-                                player.getInventory().addItem(headValue.GetItem(player, category.DisplayNameKey));
-                                _plugin.sendLocalizedMsg(player, "General.BoughtHead", Map.of(
-                                        "price", String.format("%.2f", price),
-                                        "head", headValue.Name
-                                ));
-                                return;
-                            }
-
-                            // Add the head to the player's inventory for free
-                            player.getInventory().addItem(headValue.GetItem(player, category.DisplayNameKey));
-                            _plugin.sendLocalizedMsg(player, "General.ReceivedHead", Map.of(
-                                    "head", headValue.Name
-                            ));
-                            return;
-                        }
-
-                        // Handle right-click events: Add or remove the head from favorites
-                        if (event.isRightClick()) {
-                            var headValue = head.getValue();
-                            var headKey = head.getKey();
-                            var playerId = player.getUniqueId();
-
-                            // Toggle the favorite status of the head
-                            if (OpenHeads.Database.IsFavorite(playerId, headKey, headValue.Name)) {
-                                OpenHeads.Database.RemoveFavorite(playerId, headKey, headValue.Name);
-                            } else {
-                                OpenHeads.Database.AddFavorite(playerId, headKey, headValue.Name);
-                            }
-
-                            // Refresh the slot to reflect the changes
-                            refreshSlot(player, slot);
-                        }
-                    })
-            );
+            setHeadButton(player, slot, head, FavoritesCache.isFavorite(player.getUniqueId(), head.getKey(), head.getValue().Name));
 
             // Open the updated inventory for the player
             player.openInventory(playerData.getHeadsMenu().getInventory());
@@ -362,4 +325,56 @@ public class HeadsGUI {
             _logger.Error(ex);
         }
     }
+
+    /**
+     * Places the button of a head into the given slot of the heads GUI.
+     *
+     * @param player     The player who owns the GUI.
+     * @param slot       The slot index of the button.
+     * @param head       The entry containing the category name and the head data.
+     * @param isFavorite Whether the head is one of the player's favorites.
+     */
+    private static void setHeadButton(@NotNull Player player, int slot, Map.Entry<String, HeadData> head, boolean isFavorite) {
+        PlayerData playerData = PlayerManager.getPlayerData(player.getUniqueId());
+        // Retrieve the category of the head
+        var category = HeadUtils.getCategory(head.getKey());
+
+        // Log a warning if the category is not found and skip this head
+        if (category == null) {
+            _logger.Warn("Failed to find category for head data.");
+            return;
+        }
+
+        // Set a button in the specified slot with the head's icon and listener
+        playerData.getHeadsMenu().setButton(0, slot, new SGButton(head.getValue().GetIcon(player, category.DisplayNameKey, isFavorite))
+                .withListener(event -> {
+                    // Handle left-click events: Buy or receive the head, shift-click buys several copies at once
+                    if (event.isLeftClick()) {
+                        int amount = event.isShiftClick() ? PurchaseManager.getBulkAmount() : 1;
+                        PurchaseManager.purchase(player, category, head.getValue(), amount);
+                        return;
+                    }
+
+                    // Handle right-click events: Add or remove the head from favorites
+                    if (event.isRightClick()) {
+                        var headValue = head.getValue();
+                        var headKey = head.getKey();
+                        var playerId = player.getUniqueId();
+
+                        // Toggle the favorite status of the head, the change is written back in the background
+                        FavoritesCache.toggleFavorite(playerId, headKey, headValue.Name).whenComplete((added, ex) -> {
+                            if (!player.isOnline())
+                                return;
+                            if (ex != null) {
+                                _plugin.sendLocalizedMsg(player, "General.FavoritesUnavailable");
+                                return;
+                            }
+
+                            // Refresh the slot to reflect the changes
+                            if (playerData.isGUIOpened())
+                                refreshSlot(player, slot);
+                        });
+                    }
+                }));
+    }
 }
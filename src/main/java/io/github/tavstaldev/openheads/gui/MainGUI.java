@@ -6,14 +6,17 @@ import io.github.tavstaldev.minecorelib.core.PluginLogger;
 import io.github.tavstaldev.minecorelib.utils.GuiUtils;
 import io.github.tavstaldev.openheads.OpenHeads;
 import io.github.tavstaldev.openheads.managers.PlayerManager;
+import io.github.tavstaldev.openheads.metrics.Metrics;
+import io.github.tavstaldev.openheads.models.HeadCatalog;
 import io.github.tavstaldev.openheads.models.HeadCategory;
 import io.github.tavstaldev.openheads.models.PlayerData;
 import io.github.tavstaldev.openheads.utils.HeadUtils;
+import io.github.tavstaldev.openheads.utils.MenuItemCache;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
-import org.bukkit.event.inventory.InventoryClickEvent;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.HashMap;
 import java.util.Map;
 
 public class MainGUI {
@@ -31,38 +34,15 @@ public class MainGUI {
 
     /**
      * Creates the GUI for the specified player.
+     * The static buttons are shared with the players of the same locale, see {@link MenuTemplate}.
      *
      * @param player The player for whom the GUI is being created.
      * @return The created SGMenu instance.
      */
     public static SGMenu create(@NotNull Player player) {
         try {
-            var playerId = player.getUniqueId();
             SGMenu menu = OpenHeads.GetGUI().create(_plugin.Localize(player, "GUI.MainTitle"), 6);
-
-            // Create Placeholders
-            SGButton placeholderButton = new SGButton(GuiUtils.createItem(OpenHeads.Instance, Material.BLACK_STAINED_GLASS_PANE, " "));
-            for (Integer slot : SlotPlaceholders) {
-                menu.setButton(0, slot, placeholderButton);
-            }
-
-            // Close Button
-            SGButton closeButton = new SGButton(
-                    GuiUtils.createItem(OpenHeads.Instance, Material.BARRIER, _plugin.Localize(player, "GUI.Close"))
-            ).withListener(event -> close(player));
-            menu.setButton(0, 45, closeButton);
-
-            // Previous Page Button
-            SGButton prevPageButton = new SGButton(
-                    GuiUtils.createItem(OpenHeads.Instance, Material.ARROW, _plugin.Localize(player, "GUI.PreviousPage"))
-            ).withListener(event -> {
-                PlayerData playerData = PlayerManager.getPlayerData(playerId);
-                if (playerData.getMainPage() > 1) {
-                    playerData.setMainPage(playerData.getMainPage() - 1);
-                    refresh(player);
-                }
-            });
-            menu.setButton(0, 48, prevPageButton);
+            MenuTemplate.get(MainGUI.class, player, MainGUI::createTemplate).applyTo(menu);
 
             // Page Indicator
             SGButton pageButton = new SGButton(
@@ -73,46 +53,6 @@ public class MainGUI {
                     )
             );
             menu.setButton(0, 49, pageButton);
-
-            // Next Page Button
-            SGButton nextPageButton = new SGButton(
-                    GuiUtils.createItem(OpenHeads.Instance, Material.ARROW, _plugin.Localize(player, "GUI.NextPage"))
-            ).withListener(event -> {
-                PlayerData playerData = PlayerManager.getPlayerData(playerId);
-                int maxPage = 1 + HeadUtils.getHeadCategories().size() / 28;
-                if (playerData.getMainPage() < maxPage) {
-                    playerData.setMainPage(playerData.getMainPage() + 1);
-                    refresh(player);
-                }
-            });
-            menu.setButton(0, 50, nextPageButton);
-
-            // Favorites Button
-            SGButton favoriteButton = new SGButton(
-                    GuiUtils.createItem(OpenHeads.Instance,Material.NETHER_STAR, _plugin.Localize(player, "GUI.Favorites"))
-            ).withListener(event -> {
-                PlayerData data = PlayerManager.getPlayerData(playerId);
-                close(player);
-                data.setHeadsPage(1);
-                data.setSearchCategory(null);
-                data.setFavorite(true);
-                data.setSearch(null);
-                HeadsGUI.open(player);
-            });
-            menu.setButton(0, 52, favoriteButton);
-
-            // Search Button
-            SGButton searchButton = new SGButton(
-                    GuiUtils.createItem(OpenHeads.Instance, Material.COMPASS, _plugin.Localize(player, "GUI.Search"))
-            ).withListener(event -> {
-                PlayerData data = PlayerManager.getPlayerData(playerId);
-                close(player);
-                data.setHeadsPage(1);
-                data.setSearchCategory(null);
-                data.setFavorite(false);
-                data.getSignMenu().open(player);
-            });
-            menu.setButton(0, 53, searchButton);
             return menu;
         }
         catch (Exception ex) {
@@ -122,6 +62,107 @@ public class MainGUI {
         }
     }
 
+    /**
+     * Builds the static buttons of the GUI in the locale of the specified player.
+     * The listeners act on the player who clicked, so the buttons can be shared.
+     *
+     * @param player The player whose locale is used.
+     * @return The buttons keyed by their slots.
+     */
+    private static Map<Integer, SGButton> createTemplate(@NotNull Player player) {
+        Map<Integer, SGButton> buttons = new HashMap<>();
+
+        // Create Placeholders
+        SGButton placeholderButton = new SGButton(MenuItemCache.get(player, Material.BLACK_STAINED_GLASS_PANE,
+                () -> GuiUtils.createItem(OpenHeads.Instance, Material.BLACK_STAINED_GLASS_PANE, " ")));
+        for (Integer slot : SlotPlaceholders) {
+            buttons.put(slot, placeholderButton);
+        }
+
+        // Close Button
+        SGButton closeButton = new SGButton(
+                MenuItemCache.getButton(player, Material.BARRIER, "GUI.Close")
+        ).withListener(MenuTemplate.listener(MainGUI::close));
+        buttons.put(45, closeButton);
+
+        // Previous Page Button
+        SGButton prevPageButton = new SGButton(
+                MenuItemCache.getButton(player, Material.ARROW, "GUI.PreviousPage")
+        ).withListener(MenuTemplate.listener(clicker -> {
+            PlayerData playerData = PlayerManager.getPlayerData(clicker.getUniqueId());
+            if (playerData.getMainPage() > 1) {
+                playerData.setMainPage(playerData.getMainPage() - 1);
+                refresh(clicker);
+            }
+        }));
+        buttons.put(48, prevPageButton);
+
+        // Next Page Button
+        SGButton nextPageButton = new SGButton(
+                MenuItemCache.getButton(player, Material.ARROW, "GUI.NextPage")
+        ).withListener(MenuTemplate.listener(clicker -> {
+            PlayerData playerData = PlayerManager.getPlayerData(clicker.getUniqueId());
+            int maxPage = 1 + HeadUtils.getHeadCategories().size() / 28;
+            if (playerData.getMainPage() < maxPage) {
+                playerData.setMainPage(playerData.getMainPage() + 1);
+                refresh(clicker);
+            }
+        }));
+        buttons.put(50, nextPageButton);
+
+        // Favorites Button
+        SGButton favoriteButton = new SGButton(
+                MenuItemCache.getButton(player, Material.NETHER_STAR, "GUI.Favorites")
+        ).withListener(MenuTemplate.listener(clicker -> {
+            PlayerData data = PlayerManager.getPlayerData(clicker.getUniqueId());
+            close(clicker);
+            data.setHeadsPage(1);
+            data.setSearchCategory(null);
+            data.setFavorite(true);
+            data.setSearch(null);
+            HeadsGUI.open(clicker);
+        }));
+        buttons.put(52, favoriteButton);
+
+        // Search Button
+        SGButton searchButton = new SGButton(
+                MenuItemCache.getButton(player, Material.COMPASS, "GUI.Search")
+        ).withListener(MenuTemplate.listener(clicker -> {
+            PlayerData data = PlayerManager.getPlayerData(clicker.getUniqueId());
+            close(clicker);
+            data.setHeadsPage(1);
+            data.setSearchCategory(null);
+            data.setFavorite(false);
+            data.getSignMenu().open(clicker);
+        }));
+        buttons.put(53, searchButton);
+        return buttons;
+    }
+
+    /**
+     * Builds the buttons of the categories of a catalog in the locale of the specified player.
+     *
+     * @param player The player whose locale is used.
+     * @param catalog The catalog whose categories are shown.
+     * @return The buttons keyed by the index of their category.
+     */
+    private static Map<Integer, SGButton> createCategoryButtons(@NotNull Player player, @NotNull HeadCatalog catalog) {
+        Map<Integer, SGButton> buttons = new HashMap<>();
+        for (int i = 0; i < catalog.Categories.size(); i++) {
+            HeadCategory category = catalog.Categories.get(i);
+            buttons.put(i, new SGButton(category.GetIcon(player)).withListener(MenuTemplate.listener(clicker -> {
+                PlayerData data = PlayerManager.getPlayerData(clicker.getUniqueId());
+                close(clicker);
+                data.setHeadsPage(1);
+                data.setSearchCategory(category);
+                data.setFavorite(false);
+                data.setSearch(null);
+                HeadsGUI.open(clicker);
+            })));
+        }
+        return buttons;
+    }
+
     /**
      * Opens the GUI for the specified player.
      *
@@ -153,6 +194,7 @@ public class MainGUI {
      * @param player The player for whom the GUI is being refreshed.
      */
     public static void refresh(@NotNull Player player) {
+        long start = System.nanoTime();
         try {
             var playerId = player.getUniqueId();
             PlayerData playerData = PlayerManager.getPlayerData(playerId);
@@ -165,7 +207,10 @@ public class MainGUI {
             );
             playerData.getMainMenu().setButton(0, 49, pageButton);
 
-            var heads = HeadUtils.getHeadCategories();
+            // The buttons are shared per catalog snapshot, so they always match the categories being shown
+            HeadCatalog catalog = HeadUtils.getCatalog();
+            var heads = catalog.Categories;
+            var categoryButtons = MenuTemplate.get(catalog, player, p -> createCategoryButtons(p, catalog));
             int page = playerData.getMainPage();
 
             for (int i = 0; i < 28; i++) {
@@ -176,16 +221,7 @@ public class MainGUI {
                     continue;
                 }
 
-                HeadCategory category = heads.get(index);
-                playerData.getMainMenu().setButton(0, slot, new SGButton(category.GetIcon(player)).withListener((InventoryClickEvent event) -> {
-                    PlayerData data = PlayerManager.getPlayerData(playerId);
-                    close(player);
-                    data.setHeadsPage(1);
-                    data.setSearchCategory(category);
-                    data.setFavorite(false);
-                    data.setSearch(null);
-                    HeadsGUI.open(player);
-                }));
+                playerData.getMainMenu().setButton(0, slot, categoryButtons.getButton(index));
             }
             player.openInventory(playerData.getMainMenu().getInventory());
         }
@@ -193,5 +229,6 @@ public class MainGUI {
             _logger.Error("An error occurred while refreshing the main GUI.");
             _logger.Error(ex);
         }
+        Metrics.timer("gui.main.render").recordSince(start);
     }
 }
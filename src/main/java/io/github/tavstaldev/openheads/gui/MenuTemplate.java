@@ -0,0 +1,85 @@
+package io.github.tavstaldev.openheads.gui;
+
+import com.samjakob.spigui.buttons.SGButton;
+import com.samjakob.spigui.buttons.SGButtonListener;
+import com.samjakob.spigui.menu.SGMenu;
+import io.github.tavstaldev.openheads.utils.HeadIconCache;
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Immutable set of menu buttons shared by every player with the same locale.
+ * Every player still has their own SGMenu, because SpiGUI finds the clicked button through the menu holding the inventory,
+ * but the menus only refer to the shared buttons, and only the dynamic slots are built for each player.
+ * The listeners of the shared buttons act on the player who clicked, see {@link #listener(Consumer)}.
+ * The templates are built lazily, and dropped when the translations or the catalog change.
+ */
+public class MenuTemplate {
+    private static final Map<Key, MenuTemplate> _templates = new ConcurrentHashMap<>();
+    private final Map<Integer, SGButton> _buttons;
+
+    /**
+     * The identity of a template: the menu it belongs to and the locale of its buttons.
+     */
+    private record Key(Object Menu, String Locale) {}
+
+    private MenuTemplate(Map<Integer, SGButton> buttons) {
+        _buttons = Map.copyOf(buttons);
+    }
+
+    /**
+     * Gets the template of a menu in the locale of a player, building it first if needed.
+     *
+     * @param menu identifies the menu, compared by equality
+     * @param player the player the menu is shown to
+     * @param builder builds the buttons of the template in the locale of the player, keyed by their position
+     * @return the shared template
+     */
+    public static MenuTemplate get(Object menu, Player player, Function<Player, Map<Integer, SGButton>> builder) {
+        return _templates.computeIfAbsent(new Key(menu, HeadIconCache.getLocale(player)), key -> new MenuTemplate(builder.apply(player)));
+    }
+
+    /**
+     * Creates a button listener which runs an action for the player who clicked the button.
+     *
+     * @param action the action to run
+     * @return the listener
+     */
+    public static SGButtonListener listener(Consumer<Player> action) {
+        return event -> {
+            if (event.getWhoClicked() instanceof Player player)
+                action.accept(player);
+        };
+    }
+
+    /**
+     * Drops every template.
+     */
+    public static void clear() {
+        _templates.clear();
+    }
+
+    /**
+     * Gets a button of the template.
+     *
+     * @param position the position of the button
+     * @return the button, or null if the template has no button at the position
+     */
+    public SGButton getButton(int position) {
+        return _buttons.get(position);
+    }
+
+    /**
+     * Puts every button of the template into the first page of a menu, where the keys of the template are the slots.
+     *
+     * @param menu the menu of a player
+     */
+    public void applyTo(SGMenu menu) {
+        for (var entry : _buttons.entrySet())
+            menu.setButton(0, entry.getKey(), entry.getValue());
+    }
+}
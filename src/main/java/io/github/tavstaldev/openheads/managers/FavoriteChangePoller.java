@@ -0,0 +1,204 @@
+package io.github.tavstaldev.openheads.managers;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.metrics.Metrics;
+import io.github.tavstaldev.openheads.models.FavoriteChange;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the cached favorites in sync with the other servers sharing the database.
+ * Every favorite change is recorded in a change log with a growing sequence number,
+ * this poller periodically reads the changes after the last one it has seen and patches the cached favorites
+ * of the affected players only, see {@link FavoritesCache#applyRemote}.
+ * A sequence number is taken when the change is inserted, but the changes become visible when their transaction commits,
+ * so a missing number might still show up later. The missing numbers are read again for a while before they are given up.
+ */
+public class FavoriteChangePoller {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(FavoriteChangePoller.class);
+    /**
+     * The interval between two polls when the config does not say otherwise, in ticks.
+     */
+    private static final long DEFAULT_POLL_INTERVAL = 20L;
+    /**
+     * The age of the oldest change kept in the log when the config does not say otherwise, in seconds.
+     */
+    private static final int DEFAULT_RETENTION = 3600;
+    /**
+     * The maximum number of changes read by one poll.
+     */
+    private static final int BATCH_SIZE = 500;
+    /**
+     * The time a missing sequence number is waited for, in milliseconds.
+     */
+    private static final long GAP_TIMEOUT = 10_000L;
+    /**
+     * The maximum number of missing sequence numbers waited for, a larger jump is taken as it is.
+     */
+    private static final int MAX_GAPS = 1000;
+    /**
+     * The interval between two prunes of the change log, in milliseconds.
+     */
+    private static final long PRUNE_INTERVAL = 60_000L;
+    /**
+     * The missing sequence numbers, with the time they were first missed.
+     */
+    private static final NavigableMap<Long, Long> _gaps = new ConcurrentSkipListMap<>();
+    private static final AtomicBoolean _polling = new AtomicBoolean();
+    private static final LongAdder _applied = Metrics.counter("favorites.changeLog.applied");
+    private static final LongAdder _skipped = Metrics.counter("favorites.changeLog.skipped");
+    private static final LongAdder _lostGaps = Metrics.counter("favorites.changeLog.lostGaps");
+    private static volatile long _cursor = -1;
+    private static long _lastPrune;
+    private static int _retention = DEFAULT_RETENTION;
+    private static BukkitTask _pollTask;
+
+    /**
+     * Starts following the change log from its current end, if the database keeps one.
+     * The end is read right away, so it has to be called before any favorites are cached:
+     * a change written after the end was read is applied to the favorites cached later, which is harmless,
+     * while a change written between caching the favorites and reading the end would be lost.
+     */
+    public static void init() {
+        shutdown();
+        if (!OpenHeads.Database.HasChangeLog())
+            return;
+        init(OpenHeads.Database.GetLastChangeSequence());
+    }
+
+    /**
+     * Starts following the change log after a sequence number, if the database keeps one.
+     *
+     * @param cursor the sequence number to start after, or -1 to start from the end of the log found by the first poll
+     */
+    public static void init(long cursor) {
+        shutdown();
+        if (!OpenHeads.Database.HasChangeLog())
+            return;
+
+        long interval = Math.max(1L, OpenHeads.GetConfig().getLong("storage.changeLog.pollInterval", DEFAULT_POLL_INTERVAL));
+        _retention = Math.max(60, OpenHeads.GetConfig().getInt("storage.changeLog.retention", DEFAULT_RETENTION));
+        _cursor = cursor;
+        _gaps.clear();
+        _lastPrune = System.currentTimeMillis();
+        Metrics.gauge("favorites.changeLog.sequence", () -> _cursor);
+        Metrics.gauge("favorites.changeLog.gaps", _gaps::size);
+        _pollTask = Bukkit.getScheduler().runTaskTimerAsynchronously(OpenHeads.Instance, FavoriteChangePoller::poll, interval, interval);
+        _logger.Debug(String.format("Polling the favorite change log every %d ticks.", interval));
+    }
+
+    /**
+     * Stops polling the change log.
+     */
+    public static void shutdown() {
+        if (_pollTask != null) {
+            _pollTask.cancel();
+            _pollTask = null;
+        }
+    }
+
+    /**
+     * Reads the new changes of the log and applies the changes of the other servers, unless the previous poll is still running.
+     */
+    private static void poll() {
+        if (!_polling.compareAndSet(false, true))
+            return;
+
+        // The end of the log could not be read on start, the first poll only finds it
+        if (_cursor < 0) {
+            OpenHeads.Database.GetLastChangeSequenceAsync().whenComplete((sequence, ex) -> {
+                if (ex != null)
+                    _logger.Error(ex);
+                else if (sequence != null && sequence >= 0)
+                    _cursor = sequence;
+                _polling.set(false);
+            });
+            return;
+        }
+
+        // The missing sequence numbers are looked up on their own, so the log is always read forward from the cursor,
+        // no matter how many changes follow a gap
+        List<Long> gaps = new ArrayList<>(_gaps.keySet());
+        CompletableFuture<List<FavoriteChange>> gapsFuture = gaps.isEmpty()
+                ? CompletableFuture.completedFuture(List.of())
+                : OpenHeads.Database.GetFavoriteChangesAsync(gaps);
+        OpenHeads.Database.GetFavoriteChangesAsync(_cursor, BATCH_SIZE).thenAcceptBoth(gapsFuture, (changes, filled) -> {
+            if (changes == null || filled == null) {
+                _logger.Warn("Failed to read the favorite change log.");
+                return;
+            }
+            // The filled gaps come before the cursor, so the changes stay in sequence order
+            List<FavoriteChange> all = new ArrayList<>(filled.size() + changes.size());
+            all.addAll(filled);
+            all.addAll(changes);
+            apply(all);
+            prune();
+        }).whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                _logger.Error("Failed to apply the favorite change log.");
+                _logger.Error(ex);
+            }
+            _polling.set(false);
+        });
+    }
+
+    /**
+     * Applies the changes read from the log and moves the cursor past them.
+     * A change before the cursor is only applied if it fills a gap, so a change is never applied twice.
+     *
+     * @param changes the changes, in sequence order
+     */
+    private static void apply(List<FavoriteChange> changes) {
+        long now = System.currentTimeMillis();
+        long cursor = _cursor;
+        for (FavoriteChange change : changes) {
+            long sequence = change.Sequence;
+            if (sequence <= cursor) {
+                if (_gaps.remove(sequence) == null)
+                    continue;
+            } else {
+                if (sequence - cursor - 1 <= MAX_GAPS) {
+                    for (long missing = cursor + 1; missing < sequence; missing++)
+                        _gaps.putIfAbsent(missing, now);
+                }
+                cursor = sequence;
+            }
+
+            if (!change.IsRemote)
+                continue;
+            if (FavoritesCache.applyRemote(change.Favorite, change.IsAdd))
+                _applied.increment();
+            else
+                _skipped.increment();
+        }
+        _cursor = cursor;
+
+        // Rolled back transactions leave gaps which are never filled
+        int before = _gaps.size();
+        _gaps.values().removeIf(firstMissed -> now - firstMissed > GAP_TIMEOUT);
+        _lostGaps.add(before - _gaps.size());
+    }
+
+    /**
+     * Deletes the expired changes from the log, at most once a minute.
+     */
+    private static void prune() {
+        long now = System.currentTimeMillis();
+        if (now - _lastPrune < PRUNE_INTERVAL)
+            return;
+        _lastPrune = now;
+        OpenHeads.Database.PruneFavoriteChangesAsync(_retention).thenAccept(deleted -> {
+            if (deleted > 0)
+                _logger.Debug(String.format("Pruned %d favorite changes.", deleted));
+        });
+    }
+}
@@ -0,0 +1,377 @@
+package io.github.tavstaldev.openheads.managers;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.models.Favorite;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queue of the favorite changes waiting to be written to the database.
+ * Changes of the same head are coalesced: a repeated change is kept once, and an add followed by a remove
+ * (or the other way around) cancels out, because the database still holds the state from before the first one.
+ * The queue is flushed periodically, every flush writes all the queued changes as JDBC batches in one transaction.
+ * Flushes never overlap, so the changes reach the database in the order they were made.
+ * A failed transaction is split in halves until the changes which fail on their own are found, the others are written.
+ * A change failing on its own while other changes could be written is dropped after {@value #MAX_ATTEMPTS} attempts,
+ * so a change the database never accepts does not hold back the queue. After a failed flush, the next ones wait longer and longer.
+ */
+public class FavoriteWriteQueue {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(FavoriteWriteQueue.class);
+    /**
+     * The interval between two background flushes, in ticks.
+     */
+    private static final long FLUSH_INTERVAL = 100L;
+    /**
+     * The number of times a change may fail on its own before it is dropped.
+     */
+    private static final int MAX_ATTEMPTS = 5;
+    /**
+     * The time the first retry after a failed flush waits, in milliseconds. It is doubled after every failed flush.
+     */
+    private static final long MIN_RETRY_DELAY = 5_000L;
+    /**
+     * The longest time a retry waits, in milliseconds.
+     */
+    private static final long MAX_RETRY_DELAY = 300_000L;
+    /**
+     * Changes not yet written to the database. True means add, false means remove.
+     */
+    private static final Map<Favorite, Boolean> _pending = new ConcurrentHashMap<>();
+    /**
+     * Changes taken by the running flush, which are not committed yet.
+     */
+    private static final Map<Favorite, Boolean> _inFlight = new ConcurrentHashMap<>();
+    /**
+     * The number of times the changes failed on their own.
+     */
+    private static final Map<Favorite, Integer> _attempts = new ConcurrentHashMap<>();
+    private static final Object _flushLock = new Object();
+    private static CompletableFuture<Void> _lastFlush = CompletableFuture.completedFuture(null);
+    private static BukkitTask _flushTask;
+    private static volatile long _retryDelay;
+    private static volatile long _retryAt;
+
+    private static final LongAdder _enqueued = new LongAdder();
+    private static final LongAdder _coalesced = new LongAdder();
+    private static final LongAdder _written = new LongAdder();
+    private static final LongAdder _failed = new LongAdder();
+    private static final LongAdder _dropped = new LongAdder();
+    private static final LongAdder _flushCount = new LongAdder();
+    private static final LongAdder _flushNanos = new LongAdder();
+    private static final AtomicLong _lastFlushNanos = new AtomicLong();
+    private static final AtomicLong _maxFlushNanos = new AtomicLong();
+
+    /**
+     * Starts the background task which flushes the queue.
+     */
+    public static void init() {
+        if (_flushTask != null)
+            _flushTask.cancel();
+        _flushTask = Bukkit.getScheduler().runTaskTimerAsynchronously(OpenHeads.Instance, FavoriteWriteQueue::flush, FLUSH_INTERVAL, FLUSH_INTERVAL);
+    }
+
+    /**
+     * Stops the background task and writes every queued change to the database.
+     */
+    public static void shutdown() {
+        if (_flushTask != null) {
+            _flushTask.cancel();
+            _flushTask = null;
+        }
+
+        try {
+            // The last chance to write the changes, so the retry delay is not waited for
+            flush(true).get(10, TimeUnit.SECONDS);
+        } catch (Exception ex) {
+            _logger.Error("Failed to write the pending favorites to the database.");
+            _logger.Error(ex);
+        }
+    }
+
+    /**
+     * Queues a change of a favorite.
+     *
+     * @param favorite the favorite which was changed
+     * @param isAdd true if the favorite was added, false if it was removed
+     */
+    public static void enqueue(Favorite favorite, boolean isAdd) {
+        _enqueued.increment();
+        _pending.compute(favorite, (key, existing) -> {
+            if (existing == null)
+                return isAdd;
+            _coalesced.increment();
+            // The opposite change restores the state the database already has
+            return existing == isAdd ? existing : null;
+        });
+    }
+
+    /**
+     * Gets the changes of a player which are not in the database yet, including the ones being written.
+     *
+     * @param owner the UUID of the player
+     * @return the changes of the player, true means add, false means remove
+     */
+    public static Map<Favorite, Boolean> getPending(UUID owner) {
+        Map<Favorite, Boolean> result = new LinkedHashMap<>();
+        for (var entry : _inFlight.entrySet()) {
+            if (entry.getKey().PlayerId.equals(owner))
+                result.put(entry.getKey(), entry.getValue());
+        }
+        // The queued changes were made after the in-flight ones, so they win
+        for (var entry : _pending.entrySet()) {
+            if (entry.getKey().PlayerId.equals(owner))
+                result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a favorite has a change which is not in the database yet, including the ones being written.
+     *
+     * @param favorite the favorite to check
+     * @return true if the favorite has a pending change, false otherwise
+     */
+    public static boolean isPending(Favorite favorite) {
+        return _pending.containsKey(favorite) || _inFlight.containsKey(favorite);
+    }
+
+    /**
+     * Writes every queued change to the database, once the previous flush is done.
+     * Nothing is written while a failed flush is waiting to be retried.
+     *
+     * @return a future completed once the changes have been written
+     */
+    public static CompletableFuture<Void> flush() {
+        return flush(false);
+    }
+
+    /**
+     * Writes every queued change to the database, once the previous flush is done.
+     *
+     * @param force true to write even if a failed flush is waiting to be retried
+     * @return a future completed once the changes have been written
+     */
+    private static CompletableFuture<Void> flush(boolean force) {
+        synchronized (_flushLock) {
+            _lastFlush = _lastFlush
+                    .thenCompose(ignored -> force || System.currentTimeMillis() >= _retryAt ? write() : CompletableFuture.completedFuture(null))
+                    .exceptionally(ex -> {
+                        _logger.Error("Failed to write the favorite changes to the database.");
+                        _logger.Error(ex);
+                        return null;
+                    });
+            return _lastFlush;
+        }
+    }
+
+    /**
+     * Takes the queued changes and writes them to the database in one transaction, split up if it fails.
+     * The changes which could not be written are queued again, unless they have been changed since.
+     *
+     * @return a future completed once the changes have been written
+     */
+    private static CompletableFuture<Void> write() {
+        List<Favorite> changes = new ArrayList<>();
+        for (Favorite favorite : _pending.keySet()) {
+            Boolean isAdd = _pending.remove(favorite);
+            if (isAdd == null)
+                continue;
+            _inFlight.put(favorite, isAdd);
+            changes.add(favorite);
+        }
+        if (changes.isEmpty())
+            return CompletableFuture.completedFuture(null);
+        // The changes which failed before go last, so the others show whether the database can be written at all
+        changes.sort(Comparator.comparing(_attempts::containsKey));
+
+        long start = System.nanoTime();
+        WriteState state = new WriteState();
+        return write(changes, state).thenRun(() -> {
+            long elapsed = System.nanoTime() - start;
+            _flushCount.increment();
+            _flushNanos.add(elapsed);
+            _lastFlushNanos.set(elapsed);
+            _maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+
+            for (Favorite favorite : state.Failed) {
+                // Without a successful write, the database is probably down, so the change is not to blame
+                int attempts = state.Written ? _attempts.merge(favorite, 1, Integer::sum) : _attempts.getOrDefault(favorite, 0);
+                boolean isAdd = _inFlight.get(favorite);
+                if (attempts >= MAX_ATTEMPTS) {
+                    _attempts.remove(favorite);
+                    _dropped.increment();
+                    _logger.Error(String.format("Dropped the favorite change of %s (%s/%s) after %d failed writes.",
+                            favorite.PlayerId, favorite.CategoryName, favorite.HeadName, attempts));
+                } else {
+                    _pending.putIfAbsent(favorite, isAdd);
+                }
+            }
+            if (state.Failed.isEmpty()) {
+                _retryDelay = 0;
+                _retryAt = 0;
+            } else {
+                _retryDelay = Math.clamp(_retryDelay * 2, MIN_RETRY_DELAY, MAX_RETRY_DELAY);
+                _retryAt = System.currentTimeMillis() + _retryDelay;
+                _logger.Warn(String.format("Failed to write %d favorite changes, they will be retried in %d seconds.",
+                        state.Failed.size(), _retryDelay / 1000));
+            }
+            _inFlight.keySet().removeAll(changes);
+        });
+    }
+
+    /**
+     * Writes some of the taken changes in one transaction. If it fails, the two halves are written on their own.
+     * Once two changes have failed on their own before anything could be written, the rest is not tried either.
+     *
+     * @param changes the changes to write, their values are in {@link #_inFlight}
+     * @param state the outcome of the flush so far
+     * @return a future completed once the changes have been written or given up
+     */
+    private static CompletableFuture<Void> write(List<Favorite> changes, WriteState state) {
+        if (!state.Written && state.Failed.size() >= 2) {
+            state.Failed.addAll(changes);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<Favorite> added = new ArrayList<>();
+        List<Favorite> removed = new ArrayList<>();
+        for (Favorite favorite : changes) {
+            if (_inFlight.get(favorite))
+                added.add(favorite);
+            else
+                removed.add(favorite);
+        }
+        return OpenHeads.Database.ApplyFavoriteChangesAsync(added, removed)
+                .handle((success, ex) -> ex == null && Boolean.TRUE.equals(success))
+                .thenCompose(success -> {
+                    if (success) {
+                        state.Written = true;
+                        _written.add(changes.size());
+                        _attempts.keySet().removeAll(changes);
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    _failed.add(changes.size());
+                    if (changes.size() == 1) {
+                        state.Failed.add(changes.getFirst());
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    int half = changes.size() / 2;
+                    return write(changes.subList(0, half), state)
+                            .thenCompose(ignored -> write(changes.subList(half, changes.size()), state));
+                });
+    }
+
+    /**
+     * Gets the number of changes waiting to be written.
+     *
+     * @return the depth of the queue
+     */
+    public static int getQueueDepth() {
+        return _pending.size();
+    }
+
+    /**
+     * Gets the number of changes which were merged into an already queued change of the same head.
+     *
+     * @return the number of coalesced changes
+     */
+    public static long getCoalescedCount() {
+        return _coalesced.sum();
+    }
+
+    /**
+     * Gets the number of changes queued since the start.
+     *
+     * @return the number of queued changes
+     */
+    public static long getEnqueuedCount() {
+        return _enqueued.sum();
+    }
+
+    /**
+     * Gets the number of changes written to the database.
+     *
+     * @return the number of written changes
+     */
+    public static long getWrittenCount() {
+        return _written.sum();
+    }
+
+    /**
+     * Gets the number of changes whose write failed and had to be retried.
+     *
+     * @return the number of failed writes
+     */
+    public static long getFailedCount() {
+        return _failed.sum();
+    }
+
+    /**
+     * Gets the number of changes dropped, because they failed on their own too many times.
+     *
+     * @return the number of dropped changes
+     */
+    public static long getDroppedCount() {
+        return _dropped.sum();
+    }
+
+    /**
+     * Gets the number of flushes which wrote at least one change.
+     *
+     * @return the number of flushes
+     */
+    public static long getFlushCount() {
+        return _flushCount.sum();
+    }
+
+    /**
+     * Gets the duration of the last flush.
+     *
+     * @return the duration of the last flush, in milliseconds
+     */
+    public static double getLastFlushMillis() {
+        return _lastFlushNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Gets the duration of the slowest flush.
+     *
+     * @return the duration of the slowest flush, in milliseconds
+     */
+    public static double getMaxFlushMillis() {
+        return _maxFlushNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Gets the average duration of the flushes.
+     *
+     * @return the average duration of a flush, in milliseconds, 0 if there was none yet
+     */
+    public static double getAverageFlushMillis() {
+        long count = _flushCount.sum();
+        return count == 0 ? 0 : _flushNanos.sum() / 1_000_000.0 / count;
+    }
+
+    /**
+     * The outcome of a flush, shared by the parts of a split transaction.
+     */
+    private static final class WriteState {
+        /**
+         * Indicates if any of the changes could be written.
+         */
+        public volatile boolean Written;
+        /**
+         * The changes which failed on their own, or were not tried.
+         */
+        public final List<Favorite> Failed = new ArrayList<>();
+    }
+}
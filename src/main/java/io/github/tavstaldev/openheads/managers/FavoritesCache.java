@@ -0,0 +1,414 @@
+package io.github.tavstaldev.openheads.managers;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.models.Favorite;
+import io.github.tavstaldev.openheads.utils.AsyncUtils;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory cache of the players' favorite heads.
+ * The favorites are loaded once per player, lookups are answered from memory and
+ * changes are written back to the database in the background by the {@link FavoriteWriteQueue}.
+ * Players with more favorites than the configured limit are not loaded completely,
+ * only the heads they are shown are checked, with one bulk query per page.
+ * The changes made by the other servers sharing the database are patched in by the {@link FavoriteChangePoller}.
+ */
+public class FavoritesCache {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(FavoritesCache.class);
+    /**
+     * The number of favorites loaded completely when the config does not say otherwise.
+     */
+    private static final int DEFAULT_CACHE_LIMIT = 1000;
+    private static final Map<UUID, PlayerFavorites> _favorites = new ConcurrentHashMap<>();
+    private static final Map<UUID, CompletableFuture<Void>> _loading = new ConcurrentHashMap<>();
+    /**
+     * Changes made by other servers while the favorites of a player were loading, applied once the load completes.
+     */
+    private static final Map<UUID, Map<Favorite, Boolean>> _remoteWhileLoading = new ConcurrentHashMap<>();
+    private static int _cacheLimit = DEFAULT_CACHE_LIMIT;
+
+    /**
+     * The cached favorites of a single player.
+     */
+    private static final class PlayerFavorites {
+        /**
+         * True if every favorite of the player is cached, false if only the checked heads are known.
+         */
+        final boolean IsComplete;
+        /**
+         * The known favorites, in the order they were added.
+         */
+        final Set<Favorite> Favorites;
+        /**
+         * The checked heads which are not favorites. Only used when the favorites are not complete.
+         */
+        final Set<Favorite> NotFavorites = ConcurrentHashMap.newKeySet();
+        /**
+         * The number of favorites, including the ones not cached.
+         */
+        final AtomicInteger Count;
+
+        PlayerFavorites(boolean isComplete, Collection<Favorite> favorites, int count) {
+            IsComplete = isComplete;
+            Favorites = Collections.synchronizedSet(new LinkedHashSet<>(favorites));
+            Count = new AtomicInteger(count);
+        }
+
+        /**
+         * Checks if the state of a head is known.
+         */
+        boolean isKnown(Favorite favorite) {
+            return IsComplete || Favorites.contains(favorite) || NotFavorites.contains(favorite);
+        }
+
+        /**
+         * Records the new state of a head. The count is only adjusted if the previous state was known.
+         *
+         * @param favorite the head
+         * @param isFavorite true if the head is a favorite
+         */
+        void set(Favorite favorite, boolean isFavorite) {
+            boolean wasKnown = isKnown(favorite);
+            if (isFavorite) {
+                NotFavorites.remove(favorite);
+                if (Favorites.add(favorite) && wasKnown)
+                    Count.incrementAndGet();
+            } else {
+                if (!IsComplete)
+                    NotFavorites.add(favorite);
+                if (Favorites.remove(favorite))
+                    Count.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Reads the cache limit from the config and starts the background task which writes the pending changes to the database.
+     */
+    public static void init() {
+        _cacheLimit = Math.max(0, OpenHeads.GetConfig().getInt("favoritesCacheLimit", DEFAULT_CACHE_LIMIT));
+        FavoriteWriteQueue.init();
+    }
+
+    /**
+     * Stops the background task and writes every pending change to the database.
+     */
+    public static void shutdown() {
+        FavoriteWriteQueue.shutdown();
+        _favorites.clear();
+        _loading.clear();
+        _remoteWhileLoading.clear();
+    }
+
+    /**
+     * Loads the favorites of a player from the database, unless they are already cached.
+     * If the player has more favorites than the cache limit, only their number is loaded.
+     * A failed load is not remembered, the next call tries again.
+     *
+     * @param owner the UUID of the player
+     * @return a future completed once the favorites are available, or completed exceptionally if they could not be loaded
+     */
+    public static CompletableFuture<Void> load(UUID owner) {
+        if (_favorites.containsKey(owner))
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CompletableFuture<Void> existing = _loading.putIfAbsent(owner, future);
+        if (existing != null)
+            return existing;
+
+        OpenHeads.Database.CountFavoritesAsync(owner).thenCompose(count -> {
+            if (count < 0)
+                return CompletableFuture.completedFuture((PlayerFavorites) null);
+            if (count > _cacheLimit)
+                return CompletableFuture.completedFuture(new PlayerFavorites(false, List.of(), count));
+            return OpenHeads.Database.GetFavoritesAsync(owner).thenApply(favorites -> favorites == null
+                    ? null
+                    : new PlayerFavorites(true, favorites, favorites.size()));
+        }).whenComplete((favorites, ex) -> {
+            if (ex != null) {
+                _logger.Error(String.format("Failed to load the favorites of %s.", owner));
+                _logger.Error(ex);
+            } else if (favorites == null) {
+                _logger.Warn(String.format("Failed to load the favorites of %s.", owner));
+            } else if (_loading.get(owner) == future) {
+                // Changes made while the favorites were loading are not in the database yet
+                for (var entry : FavoriteWriteQueue.getPending(owner).entrySet()) {
+                    favorites.set(entry.getKey(), entry.getValue());
+                }
+                _favorites.put(owner, favorites);
+            }
+            _loading.remove(owner, future);
+            // The favorites might have been read before the changes of the other servers were committed
+            Map<Favorite, Boolean> remote = _remoteWhileLoading.remove(owner);
+            if (remote != null && favorites != null && _favorites.get(owner) == favorites) {
+                for (var entry : remote.entrySet())
+                    applyRemote(favorites, entry.getKey(), entry.getValue());
+            }
+            // Completing normally would let the callers take the unknown favorites for an empty list
+            if (ex != null || favorites == null)
+                future.completeExceptionally(new IllegalStateException(String.format("Failed to load the favorites of %s.", owner), ex));
+            else
+                future.complete(null);
+        });
+        return future;
+    }
+
+    /**
+     * Flushes the pending changes to the database, so another server can see them, and drops the player's cached favorites.
+     *
+     * @param owner the UUID of the player
+     * @return a future completed once the pending changes have been written
+     */
+    public static CompletableFuture<Void> unload(UUID owner) {
+        _loading.remove(owner);
+        _remoteWhileLoading.remove(owner);
+        var future = FavoriteWriteQueue.flush();
+        _favorites.remove(owner);
+        return future;
+    }
+
+    /**
+     * Applies a favorite change made by another server to the cached favorites of the player.
+     * Changes of players who are not cached are ignored, their favorites are read from the database when they are loaded.
+     *
+     * @param favorite the favorite which was changed
+     * @param isAdd true if the favorite was added, false if it was removed
+     * @return true if the cached favorites of the player have changed, false otherwise
+     */
+    public static boolean applyRemote(Favorite favorite, boolean isAdd) {
+        UUID owner = favorite.PlayerId;
+        // Held back until the load completes, atomically with the end of the load
+        if (_loading.computeIfPresent(owner, (key, loading) -> {
+            _remoteWhileLoading.computeIfAbsent(owner, k -> new ConcurrentHashMap<>()).put(favorite, isAdd);
+            return loading;
+        }) != null)
+            return false;
+
+        PlayerFavorites favorites = _favorites.get(owner);
+        if (favorites == null)
+            return false;
+        return applyRemote(favorites, favorite, isAdd);
+    }
+
+    /**
+     * Applies a favorite change made by another server to the cached favorites of a player.
+     * A head with a pending change keeps its local state, because the local change is written after the remote one.
+     *
+     * @param favorites the cached favorites of the player
+     * @param favorite the favorite which was changed
+     * @param isAdd true if the favorite was added, false if it was removed
+     * @return true if the cached favorites have changed, false otherwise
+     */
+    private static boolean applyRemote(PlayerFavorites favorites, Favorite favorite, boolean isAdd) {
+        if (FavoriteWriteQueue.isPending(favorite))
+            return false;
+        boolean wasFavorite = favorites.Favorites.contains(favorite);
+        favorites.set(favorite, isAdd);
+        return wasFavorite != isAdd;
+    }
+
+    /**
+     * Checks if the favorites of a player are cached.
+     *
+     * @param owner the UUID of the player
+     * @return true if the favorites are cached, false otherwise
+     */
+    public static boolean isLoaded(UUID owner) {
+        return _favorites.containsKey(owner);
+    }
+
+    /**
+     * Checks if every favorite of a player is cached.
+     *
+     * @param owner the UUID of the player
+     * @return true if the favorites are loaded completely, false if they are not loaded or only partially cached
+     */
+    public static boolean isComplete(UUID owner) {
+        PlayerFavorites favorites = _favorites.get(owner);
+        return favorites != null && favorites.IsComplete;
+    }
+
+    /**
+     * Makes sure the favorite state of the given heads is known, checking the unknown ones with a single bulk query.
+     * Completes immediately if the player's favorites are loaded completely.
+     *
+     * @param owner the UUID of the player
+     * @param heads the heads to check, only their category and name are used
+     * @return a future completed once the state of the heads is cached
+     */
+    public static CompletableFuture<Void> resolve(UUID owner, Collection<Favorite> heads) {
+        PlayerFavorites favorites = _favorites.get(owner);
+        if (favorites == null || favorites.IsComplete)
+            return CompletableFuture.completedFuture(null);
+
+        List<Favorite> unknown = new ArrayList<>();
+        for (Favorite head : heads) {
+            Favorite favorite = new Favorite(owner, head.CategoryName, head.HeadName);
+            if (!favorites.isKnown(favorite))
+                unknown.add(favorite);
+        }
+        if (unknown.isEmpty())
+            return CompletableFuture.completedFuture(null);
+
+        return OpenHeads.Database.FilterFavoritesAsync(owner, unknown).thenAccept(found -> {
+            if (found == null) {
+                _logger.Warn(String.format("Failed to check the favorites of %s.", owner));
+                return;
+            }
+            // The heads changed while the query was running already have their new state
+            Map<Favorite, Boolean> pending = FavoriteWriteQueue.getPending(owner);
+            for (Favorite favorite : unknown) {
+                if (pending.containsKey(favorite) || favorites.isKnown(favorite))
+                    continue;
+                if (found.contains(favorite))
+                    favorites.Favorites.add(favorite);
+                else
+                    favorites.NotFavorites.add(favorite);
+            }
+        });
+    }
+
+    /**
+     * Records heads read from the database as favorites, so they do not have to be checked again.
+     * Heads with pending changes keep their new state.
+     *
+     * @param owner the UUID of the player
+     * @param heads the favorites read from the database
+     */
+    public static void remember(UUID owner, Collection<Favorite> heads) {
+        PlayerFavorites favorites = _favorites.get(owner);
+        if (favorites == null || favorites.IsComplete)
+            return;
+
+        Map<Favorite, Boolean> pending = FavoriteWriteQueue.getPending(owner);
+        for (Favorite favorite : heads) {
+            if (pending.containsKey(favorite))
+                continue;
+            favorites.NotFavorites.remove(favorite);
+            favorites.Favorites.add(favorite);
+        }
+    }
+
+    /**
+     * Checks if a head is in the player's favorites.
+     *
+     * @param owner the UUID of the player
+     * @param category the category of the head
+     * @param headName the name of the head
+     * @return true if the head is a cached favorite, false otherwise
+     */
+    public static boolean isFavorite(UUID owner, String category, String headName) {
+        PlayerFavorites favorites = _favorites.get(owner);
+        if (favorites == null)
+            return false;
+        return favorites.Favorites.contains(new Favorite(owner, category, headName));
+    }
+
+    /**
+     * Gets the cached favorites of a player, in the order they were added.
+     * If the favorites are not loaded completely, only the known ones are returned.
+     *
+     * @param owner the UUID of the player
+     * @return a copy of the player's favorites, empty if they are not cached
+     */
+    public static List<Favorite> getFavorites(UUID owner) {
+        PlayerFavorites favorites = _favorites.get(owner);
+        if (favorites == null)
+            return new ArrayList<>();
+        synchronized (favorites.Favorites) {
+            return new ArrayList<>(favorites.Favorites);
+        }
+    }
+
+    /**
+     * Gets the number of favorites of a player, including the ones not cached.
+     *
+     * @param owner the UUID of the player
+     * @return the number of favorites, 0 if they are not cached
+     */
+    public static int getFavoriteCount(UUID owner) {
+        PlayerFavorites favorites = _favorites.get(owner);
+        return favorites == null ? 0 : Math.max(0, favorites.Count.get());
+    }
+
+    /**
+     * Adds a head to the player's favorites and queues the change for the database.
+     *
+     * @param owner the UUID of the player
+     * @param category the category of the head
+     * @param headName the name of the head
+     */
+    public static void addFavorite(UUID owner, String category, String headName) {
+        Favorite favorite = new Favorite(owner, category, headName);
+        PlayerFavorites favorites = _favorites.get(owner);
+        if (favorites != null)
+            favorites.set(favorite, true);
+        FavoriteWriteQueue.enqueue(favorite, true);
+    }
+
+    /**
+     * Removes a head from the player's favorites and queues the change for the database.
+     *
+     * @param owner the UUID of the player
+     * @param category the category of the head
+     * @param headName the name of the head
+     */
+    public static void removeFavorite(UUID owner, String category, String headName) {
+        Favorite favorite = new Favorite(owner, category, headName);
+        PlayerFavorites favorites = _favorites.get(owner);
+        if (favorites != null)
+            favorites.set(favorite, false);
+        FavoriteWriteQueue.enqueue(favorite, false);
+    }
+
+    /**
+     * Toggles the favorite state of a head.
+     * If the state of the head is not cached, the favorites of the player are loaded and the head is checked in the database first,
+     * and the toggle is refused if that fails, so a head whose state is unknown is never taken for a non-favorite.
+     * Must be called on the main thread.
+     *
+     * @param owner the UUID of the player
+     * @param category the category of the head
+     * @param headName the name of the head
+     * @return a future holding true if the head is a favorite after the toggle, false otherwise,
+     * completed on the main thread, or completed exceptionally if the state of the head could not be read
+     */
+    public static CompletableFuture<Boolean> toggleFavorite(UUID owner, String category, String headName) {
+        Favorite favorite = new Favorite(owner, category, headName);
+        PlayerFavorites favorites = _favorites.get(owner);
+        if (favorites != null && favorites.isKnown(favorite))
+            return CompletableFuture.completedFuture(toggleKnown(owner, category, headName));
+
+        return load(owner)
+                .thenCompose(ignored -> resolve(owner, List.of(favorite)))
+                .thenApplyAsync(ignored -> {
+                    PlayerFavorites loaded = _favorites.get(owner);
+                    if (loaded == null || !loaded.isKnown(favorite))
+                        throw new IllegalStateException(String.format("The favorite state of %s is unknown for %s.", headName, owner));
+                    return toggleKnown(owner, category, headName);
+                }, AsyncUtils.getMainThreadExecutor());
+    }
+
+    /**
+     * Toggles the favorite state of a head whose state is cached.
+     *
+     * @param owner the UUID of the player
+     * @param category the category of the head
+     * @param headName the name of the head
+     * @return true if the head is a favorite after the toggle, false otherwise
+     */
+    private static boolean toggleKnown(UUID owner, String category, String headName) {
+        if (isFavorite(owner, category, headName)) {
+            removeFavorite(owner, category, headName);
+            return false;
+        }
+        addFavorite(owner, category, headName);
+        return true;
+    }
+}
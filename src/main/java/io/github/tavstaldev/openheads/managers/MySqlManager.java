@@ -4,37 +4,157 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import io.github.tavstaldev.minecorelib.core.PluginLogger;
 import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.metrics.PoolMetricsTracker;
 import io.github.tavstaldev.openheads.models.Favorite;
+import io.github.tavstaldev.openheads.models.FavoriteChange;
+import io.github.tavstaldev.openheads.models.FavoritePage;
 import io.github.tavstaldev.openheads.models.HeadData;
-import io.github.tavstaldev.openheads.models.IDatabase;
+import io.github.tavstaldev.openheads.models.IAsyncDatabase;
+import io.github.tavstaldev.openheads.models.SchemaMigration;
+import io.github.tavstaldev.openheads.utils.AsyncUtils;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Manages MySQL database operations for the OpenHeads plugin.
- * Implements the IDatabase interface to handle database-related tasks.
+ * Implements the IAsyncDatabase interface to handle database-related tasks,
+ * the asynchronous variants run on the shared database executor.
  */
-public class MySqlManager implements IDatabase {
-    private static HikariDataSource _dataSource;
+public class MySqlManager implements IAsyncDatabase {
     private static FileConfiguration getConfig() { return OpenHeads.Instance.getConfig(); }
     private static final PluginLogger _logger = OpenHeads.Logger().WithModule(MySqlManager.class);
+    /**
+     * The number of rows copied per transaction while migrating the favorites table.
+     */
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+    /**
+     * The number of heads checked by one bulk favorite query.
+     */
+    private static final int FILTER_CHUNK_SIZE = 45;
+    /**
+     * The number of changes read by one query looking up changes by their sequence numbers.
+     */
+    private static final int SEQUENCE_CHUNK_SIZE = 100;
+    /**
+     * The driver properties used when the config does not override them:
+     * client and server side statement caching, and batches sent as multi-row statements.
+     */
+    private static final Map<String, Object> DEFAULT_DRIVER_PROPERTIES = Map.of(
+            "cachePrepStmts", true,
+            "prepStmtCacheSize", 250,
+            "prepStmtCacheSqlLimit", 2048,
+            "useServerPrepStmts", true,
+            "useLocalSessionState", true,
+            "rewriteBatchedStatements", true,
+            "cacheResultSetMetadata", true,
+            "cacheServerConfiguration", true,
+            "elideSetAutoCommits", true,
+            "maintainTimeStats", false
+    );
+    /**
+     * The number of changes deleted by one prune query, so pruning never locks the change log for long.
+     */
+    private static final int PRUNE_BATCH_SIZE = 10000;
+    /**
+     * The time a write to the old favorites table waits while the tables are swapped, in seconds.
+     * The changes are retried by the write queue if the swap takes longer.
+     */
+    private static final int LEGACY_WRITE_LOCK_SECONDS = 5;
+    /**
+     * The time the migration waits for the writes to the old favorites table before swapping the tables, in seconds.
+     */
+    private static final int SWAP_LOCK_SECONDS = 30;
+    /**
+     * The number of attempts the startup makes to get the migration lock, before it leaves the migration to a database thread.
+     */
+    private static final int STARTUP_LOCK_ATTEMPTS = 6;
+    /**
+     * Identifies this server in the change log, so it can tell its own changes from the changes of the other servers.
+     */
+    private final UUID _serverId = UUID.randomUUID();
+    private HikariDataSource _dataSource;
+    private String _table;
+    private String _schemaTable;
+    private String _changesTable;
+    private String _migrationLock;
+    private String _journalTable;
+    private String _swapLock;
+    /**
+     * Indicates if the journal of the writes to the old favorites table has been created by this server.
+     */
+    private volatile boolean _hasJournal;
+    private boolean _hasChangeLog;
+    /**
+     * Indicates if the favorites table is still in the old format, with text player ids and without an id column.
+     * It is used in that format while it is being migrated in the background.
+     */
+    private volatile boolean _legacy;
+    /**
+     * Indicates if the schema is being migrated in the background, because another server held the migration lock on startup.
+     * The change log is not followed until it is done, it might not exist yet.
+     */
+    private volatile boolean _migrating;
+    private String _addFavoriteSql;
+    private String _removeFavoriteSql;
+    private String _isFavoriteSql;
+    private String _getFavoritesSql;
+    private String _getFavoritesPageSql;
+    private String _countFavoritesSql;
+    private String _filterFavoritesSql;
+    private String _logChangeSql;
+    private String _lastChangeSql;
+    private String _getChangesSql;
+    private String _getChangesBySequenceSql;
+    private String _pruneChangesSql;
+    private String _legacyAddFavoriteSql;
+    private String _legacyGetFavoritesSql;
+    private String _legacyGetFavoritesPageSql;
+    private String _legacyJournalSql;
 
     public MySqlManager() {
         Load();
     }
 
     /**
-     * Initializes the database connection pool.
+     * Builds the SQL strings and initializes the database connection pool.
      */
     @Override
     public void Load() {
+        String prefix = getConfig().getString("storage.tablePrefix");
+        String table = String.format("%s_favorites", prefix);
+        _table = table;
+        _schemaTable = String.format("%s_schema", prefix);
+        _changesTable = String.format("%s_favorite_changes", prefix);
+        _migrationLock = String.format("%s_migration", prefix);
+        _journalTable = String.format("%s_journal", table);
+        _swapLock = String.format("%s_swap", table);
+        _hasChangeLog = getConfig().getBoolean("storage.changeLog.enabled", true);
+        // The unique index makes adding an existing favorite a no-op
+        _addFavoriteSql = String.format("INSERT IGNORE INTO %s (PlayerId, Category, HeadName) VALUES (?, ?, ?);", table);
+        _removeFavoriteSql = String.format("DELETE FROM %s WHERE PlayerId=? AND Category=? AND HeadName=?;", table);
+        _isFavoriteSql = String.format("SELECT 1 FROM %s WHERE PlayerId=? AND Category=? AND HeadName=? LIMIT 1;", table);
+        _getFavoritesSql = String.format("SELECT Category, HeadName FROM %s WHERE PlayerId=? ORDER BY Id;", table);
+        _getFavoritesPageSql = String.format("SELECT Id, Category, HeadName FROM %s WHERE PlayerId=? AND Id>? ORDER BY Id LIMIT ?;", table);
+        _countFavoritesSql = String.format("SELECT COUNT(*) FROM %s WHERE PlayerId=?;", table);
+        _filterFavoritesSql = String.format("SELECT Category, HeadName FROM %s WHERE PlayerId=? AND (Category, HeadName) IN (%s);",
+                table, String.join(", ", Collections.nCopies(FILTER_CHUNK_SIZE, "(?, ?)")));
+        _logChangeSql = String.format("INSERT INTO %s (PlayerId, Category, HeadName, IsAdd, ServerId) VALUES (?, ?, ?, ?, ?);", _changesTable);
+        _lastChangeSql = String.format("SELECT COALESCE(MAX(Seq), 0) FROM %s;", _changesTable);
+        _getChangesSql = String.format("SELECT Seq, PlayerId, Category, HeadName, IsAdd, ServerId FROM %s WHERE Seq>? ORDER BY Seq LIMIT ?;", _changesTable);
+        _getChangesBySequenceSql = String.format("SELECT Seq, PlayerId, Category, HeadName, IsAdd, ServerId FROM %s WHERE Seq IN (%s);",
+                _changesTable, String.join(", ", Collections.nCopies(SEQUENCE_CHUNK_SIZE, "?")));
+        _pruneChangesSql = String.format("DELETE FROM %s WHERE CreatedAt < NOW() - INTERVAL ? SECOND LIMIT %d;", _changesTable, PRUNE_BATCH_SIZE);
+        // The old table has no unique index and no id, the favorites are paged by their offset
+        _legacyAddFavoriteSql = String.format("INSERT INTO %s (PlayerId, Category, HeadName) SELECT ?, ?, ? FROM DUAL " +
+                "WHERE NOT EXISTS (SELECT 1 FROM %s WHERE PlayerId=? AND Category=? AND HeadName=?);", table, table);
+        _legacyGetFavoritesSql = String.format("SELECT Category, HeadName FROM %s WHERE PlayerId=?;", table);
+        _legacyGetFavoritesPageSql = String.format("SELECT Category, HeadName FROM %s WHERE PlayerId=? ORDER BY Category, HeadName LIMIT ? OFFSET ?;", table);
+        _legacyJournalSql = String.format("INSERT INTO %s (PlayerId, Category, HeadName, IsAdd, ServerId) VALUES (?, ?, ?, ?, ?);", _journalTable);
         _dataSource = CreateDataSource();
     }
 
@@ -51,19 +171,40 @@ public class MySqlManager implements IDatabase {
 
     /**
      * Creates and configures a HikariCP data source for MySQL connections.
+     * The pool is sized and tuned by the storage.pool section of the config,
+     * and its statistics are fed into the plugin metrics.
      * @return A configured HikariDataSource instance or null if an error occurs.
      */
     public HikariDataSource CreateDataSource() {
         try {
             HikariConfig config = new HikariConfig();
+            config.setPoolName("OpenHeads-MySQL");
             config.setJdbcUrl(String.format("jdbc:mysql://%s:%s/%s",
                     getConfig().getString("storage.host"),
                     getConfig().getString("storage.port"),
                     getConfig().getString("storage.database"))); // Address of your running MySQL database
             config.setUsername(getConfig().getString("storage.username")); // Username
             config.setPassword(getConfig().getString("storage.password")); // Password
-            config.setMaximumPoolSize(10); // Pool size defaults to 10
-            config.setMaxLifetime(30000);
+
+            int maximumPoolSize = Math.max(1, getConfig().getInt("storage.pool.maximumPoolSize", 10));
+            config.setMaximumPoolSize(maximumPoolSize);
+            config.setMinimumIdle(Math.clamp(getConfig().getInt("storage.pool.minimumIdle", 2), 0, maximumPoolSize));
+            config.setConnectionTimeout(getConfig().getLong("storage.pool.connectionTimeout", 5000));
+            config.setIdleTimeout(getConfig().getLong("storage.pool.idleTimeout", 600000));
+            config.setMaxLifetime(getConfig().getLong("storage.pool.maxLifetime", 1800000));
+            config.setKeepaliveTime(getConfig().getLong("storage.pool.keepaliveTime", 300000));
+            config.setLeakDetectionThreshold(getConfig().getLong("storage.pool.leakDetectionThreshold", 0));
+
+            Map<String, Object> properties = new LinkedHashMap<>(DEFAULT_DRIVER_PROPERTIES);
+            ConfigurationSection section = getConfig().getConfigurationSection("storage.pool.properties");
+            if (section != null) {
+                for (String key : section.getKeys(false))
+                    properties.put(key, section.get(key));
+            }
+            for (var property : properties.entrySet())
+                config.addDataSourceProperty(property.getKey(), String.valueOf(property.getValue()));
+
+            config.setMetricsTrackerFactory(PoolMetricsTracker.factory());
             return new HikariDataSource(config);
         } catch (Exception ex) {
             _logger.Error(String.format("Unknown error happened during the creation of database connection...\n%s", ex.getMessage()));
@@ -72,21 +213,309 @@ public class MySqlManager implements IDatabase {
     }
 
     /**
-     * Ensures the database schema is up-to-date by creating necessary tables if they do not exist.
+     * Ensures the database schema is up-to-date by applying the missing migrations.
+     * The servers sharing the database migrate one at a time, see {@link SchemaMigrator#migrate(Connection, String, List, String)}.
+     * A favorites table in the old format is migrated in the background, and it is used as it is until the new table is swapped in.
+     * The startup waits for another server's migration for {@value #STARTUP_LOCK_ATTEMPTS} attempts at most,
+     * then the migration is left to a database thread as well.
      */
     @Override
     public void CheckSchema() {
         try (Connection connection = _dataSource.getConnection()) {
-            String sql = String.format("CREATE TABLE IF NOT EXISTS %s_favorites (" +
-                            "PlayerId VARCHAR(36), " +
-                            "Category VARCHAR(200), " +
-                            "HeadName VARCHAR(200));",
-                    getConfig().getString("storage.tablePrefix"));
-            PreparedStatement statement = connection.prepareStatement(sql);
-            statement.executeUpdate();
+            _legacy = hasColumn(connection, _table, "PlayerId") && !hasColumn(connection, _table, "Id");
+            if (!_legacy) {
+                if (SchemaMigrator.migrate(connection, _schemaTable, getMigrations(), _migrationLock, STARTUP_LOCK_ATTEMPTS)
+                        || !OpenHeads.Instance.isEnabled())
+                    return;
+                _migrating = true;
+            }
         } catch (Exception ex) {
             _logger.Error(String.format("Unknown error happened while creating tables...\n%s", ex.getMessage()));
+            return;
         }
+
+        if (_legacy)
+            _logger.Info("The favorites table is being migrated in the background, the old table is used until it is done.");
+        else
+            _logger.Warn("The database schema is being migrated in the background, the change log is not followed until it is done.");
+        CompletableFuture.runAsync(this::migrateInBackground, AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Applies the missing migrations on a database thread, while the old favorites table stays in use.
+     * Once the new table is swapped in, the favorites are read and written in the new format,
+     * and the change log, which was created together with the new table, is followed from its start.
+     * If the table was already in the new format, the change log is followed from its current end.
+     */
+    private void migrateInBackground() {
+        boolean migrated;
+        try (Connection connection = _dataSource.getConnection()) {
+            migrated = SchemaMigrator.migrate(connection, _schemaTable, getMigrations(), _migrationLock);
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while migrating tables...\n%s", ex.getMessage()));
+            migrated = false;
+        }
+        boolean legacy = _legacy;
+        if (!migrated) {
+            if (legacy)
+                _logger.Warn("The favorites table could not be migrated, the old table is used until the next start.");
+            else
+                _logger.Warn("The database schema could not be migrated, the change log is not followed until the next start.");
+            return;
+        }
+
+        _legacy = false;
+        _migrating = false;
+        if (legacy)
+            _logger.Info("The favorites table has been migrated, the new table is used from now on.");
+        else
+            _logger.Info("The database schema has been migrated.");
+        if (_hasChangeLog && OpenHeads.Instance.isEnabled()) {
+            // The end of the log is read here, the main thread should not wait for the database
+            long sequence = legacy ? 0 : GetLastChangeSequence();
+            AsyncUtils.getMainThreadExecutor().execute(() -> FavoriteChangePoller.init(sequence));
+        }
+    }
+
+    /**
+     * Gets the migrations of the MySQL schema.
+     * @return The migrations, in version order.
+     */
+    private List<SchemaMigration> getMigrations() {
+        return List.of(
+                new SchemaMigration(1, "Create favorites table", connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate(String.format("CREATE TABLE IF NOT EXISTS %s (" +
+                                "PlayerId VARCHAR(36), " +
+                                "Category VARCHAR(200), " +
+                                "HeadName VARCHAR(200));", _table));
+                    }
+                }),
+                new SchemaMigration(2, "Store player ids as BINARY(16) and add unique index", this::migrateCompactFavorites),
+                new SchemaMigration(3, "Create favorite change log table", connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate(String.format("CREATE TABLE IF NOT EXISTS %s (" +
+                                "Seq BIGINT NOT NULL AUTO_INCREMENT, " +
+                                "PlayerId BINARY(16) NOT NULL, " +
+                                "Category VARCHAR(200) NOT NULL, " +
+                                "HeadName VARCHAR(200) NOT NULL, " +
+                                "IsAdd BOOLEAN NOT NULL, " +
+                                "ServerId BINARY(16) NOT NULL, " +
+                                "CreatedAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                                "PRIMARY KEY (Seq), " +
+                                "KEY %s_created (CreatedAt));", _changesTable, _changesTable));
+                    }
+                })
+        );
+    }
+
+    /**
+     * Rebuilds the favorites table with a binary player id, an auto-increment key and a unique index.
+     * The rows are copied into a new table in small batches, each committed on its own, while the old table is read
+     * from a single non-locking snapshot, so the servers sharing the database can keep reading and writing it.
+     * Every write to the old table is also recorded in the {@code <table>_journal} table, in the same transaction.
+     * Once the copy is done, the writes are held back by the swap lock, only while the journal is replayed
+     * onto the new table and the tables are swapped with one atomic rename. The old table is kept as {@code <table>_legacy}.
+     * Replaying the last change of every favorite in the journal makes the new table match the old one,
+     * whether the change was written before or after the snapshot.
+     * Servers running an older version of the plugin do not write the journal, and they must be stopped before the migration.
+     * Duplicate rows are dropped by the unique index.
+     * The migration is cancelled if the plugin is disabled meanwhile, the old table stays in use then.
+     * @param connection The connection the migration runs on.
+     * @throws SQLException If the migration failed.
+     */
+    private void migrateCompactFavorites(Connection connection) throws SQLException {
+        String target = String.format("%s_migrating", _table);
+        String backup = String.format("%s_legacy", _table);
+        // MySQL commits DDL implicitly, so a previous run might have swapped the tables without recording the version
+        if (hasColumn(connection, _table, "Id")) {
+            _logger.Info("The favorites table has already been migrated.");
+            return;
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            // Only the server holding the migration lock gets here, so the table is left over from a failed run
+            statement.executeUpdate(String.format("DROP TABLE IF EXISTS %s;", target));
+            statement.executeUpdate(String.format("CREATE TABLE %s (" +
+                    "Id BIGINT NOT NULL AUTO_INCREMENT, " +
+                    "PlayerId BINARY(16) NOT NULL, " +
+                    "Category VARCHAR(200) NOT NULL, " +
+                    "HeadName VARCHAR(200) NOT NULL, " +
+                    "PRIMARY KEY (Id), " +
+                    "UNIQUE KEY %s_player_head (PlayerId, Category, HeadName));", target, _table));
+        }
+        // The journal has to exist before the snapshot is taken, so no write is missed by both
+        createJournal(connection);
+
+        long copied = 0;
+        long skipped = 0;
+        String insertSql = String.format("INSERT IGNORE INTO %s (PlayerId, Category, HeadName) VALUES (?, ?, ?);", target);
+        // The old rows are streamed, and a connection in streaming mode cannot run other statements
+        try (Connection writeConnection = _dataSource.getConnection();
+             PreparedStatement insert = writeConnection.prepareStatement(insertSql);
+             Statement select = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            writeConnection.setAutoCommit(false);
+            select.setFetchSize(Integer.MIN_VALUE);
+            int batchSize = 0;
+            try (ResultSet result = select.executeQuery(String.format("SELECT PlayerId, Category, HeadName FROM %s;", _table))) {
+                while (result.next()) {
+                    UUID playerId;
+                    String category = result.getString("Category");
+                    String headName = result.getString("HeadName");
+                    try {
+                        playerId = UUID.fromString(result.getString("PlayerId"));
+                    } catch (Exception ex) {
+                        playerId = null;
+                    }
+                    if (playerId == null || category == null || headName == null) {
+                        skipped++;
+                        continue;
+                    }
+
+                    insert.setBytes(1, toBytes(playerId));
+                    insert.setString(2, category);
+                    insert.setString(3, headName);
+                    insert.addBatch();
+                    if (++batchSize == MIGRATION_BATCH_SIZE) {
+                        if (!OpenHeads.Instance.isEnabled())
+                            throw new SQLException("The migration was cancelled, because the plugin is being disabled.");
+                        insert.executeBatch();
+                        writeConnection.commit();
+                        copied += batchSize;
+                        batchSize = 0;
+                    }
+                }
+            }
+            if (batchSize > 0) {
+                insert.executeBatch();
+                writeConnection.commit();
+                copied += batchSize;
+            }
+        }
+        if (skipped > 0)
+            _logger.Warn(String.format("Skipped %d invalid favorites while migrating.", skipped));
+        _logger.Info(String.format("Copied %d favorites.", copied));
+
+        if (!SchemaMigrator.lock(connection, _swapLock, SWAP_LOCK_SECONDS))
+            throw new SQLException("The writes to the old favorites table could not be held back for the swap.");
+        try {
+            // Ends the snapshot of the copy, so the journal is read as it is now
+            connection.commit();
+            int replayed = replayJournal(connection, target);
+            connection.commit();
+            _logger.Info(String.format("Replayed %d favorites written during the copy.", replayed));
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(String.format("DROP TABLE IF EXISTS %s;", backup));
+                statement.executeUpdate(String.format("RENAME TABLE %s TO %s, %s TO %s;", _table, backup, target, _table));
+                statement.executeUpdate(String.format("DROP TABLE IF EXISTS %s;", _journalTable));
+            }
+        } finally {
+            SchemaMigrator.unlock(connection, _swapLock);
+        }
+        _logger.Info(String.format("The old favorites table was kept as '%s', it can be dropped once the migration is verified.", backup));
+    }
+
+    /**
+     * Creates the journal of the writes to the old favorites table, if it does not exist yet.
+     * It has the same columns as the change log, so the changes are recorded the same way.
+     * @param connection The connection to create the table on.
+     * @throws SQLException If the table could not be created.
+     */
+    private void createJournal(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(String.format("CREATE TABLE IF NOT EXISTS %s (" +
+                    "Seq BIGINT NOT NULL AUTO_INCREMENT, " +
+                    "PlayerId BINARY(16) NOT NULL, " +
+                    "Category VARCHAR(200) NOT NULL, " +
+                    "HeadName VARCHAR(200) NOT NULL, " +
+                    "IsAdd BOOLEAN NOT NULL, " +
+                    "ServerId BINARY(16) NOT NULL, " +
+                    "PRIMARY KEY (Seq));", _journalTable));
+        }
+        _hasJournal = true;
+    }
+
+    /**
+     * Applies the last journaled change of every favorite to the new favorites table.
+     * @param connection The connection to replay the journal on, its transaction is left open.
+     * @param target The name of the new favorites table.
+     * @return The number of favorites which were added or removed.
+     * @throws SQLException If the journal could not be replayed.
+     */
+    private int replayJournal(Connection connection, String target) throws SQLException {
+        List<Favorite> added = new ArrayList<>();
+        List<Favorite> removed = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(String.format("SELECT j.PlayerId, j.Category, j.HeadName, j.IsAdd FROM %s j " +
+                     "JOIN (SELECT MAX(Seq) AS Seq FROM %s GROUP BY PlayerId, Category, HeadName) l ON j.Seq=l.Seq;", _journalTable, _journalTable))) {
+            while (result.next()) {
+                Favorite favorite = new Favorite(fromBytes(result.getBytes("PlayerId")), result.getString("Category"), result.getString("HeadName"));
+                if (result.getBoolean("IsAdd"))
+                    added.add(favorite);
+                else
+                    removed.add(favorite);
+            }
+        }
+
+        try (PreparedStatement addStatement = connection.prepareStatement(String.format(
+                "INSERT IGNORE INTO %s (PlayerId, Category, HeadName) VALUES (?, ?, ?);", target));
+             PreparedStatement removeStatement = connection.prepareStatement(String.format(
+                     "DELETE FROM %s WHERE PlayerId=? AND Category=? AND HeadName=?;", target))) {
+            addBatch(addStatement, added);
+            addBatch(removeStatement, removed);
+        }
+        return added.size() + removed.size();
+    }
+
+    /**
+     * Checks if a table has the given column.
+     * @param connection The connection to query.
+     * @param table The name of the table.
+     * @param column The name of the column.
+     * @return True if the column exists, false otherwise.
+     * @throws SQLException If the metadata could not be read.
+     */
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet result = connection.getMetaData().getColumns(connection.getCatalog(), null, table, column)) {
+            return result.next();
+        }
+    }
+
+    /**
+     * Converts a UUID into the 16 bytes stored in the database.
+     * @param id The UUID to convert.
+     * @return The bytes of the UUID.
+     */
+    private static byte[] toBytes(UUID id) {
+        return ByteBuffer.allocate(16)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * Converts the 16 bytes stored in the database back into a UUID.
+     * @param bytes The bytes of the UUID.
+     * @return The UUID.
+     */
+    private static UUID fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Sets a player id parameter, in the format of the favorites table in use.
+     * @param statement The statement to set the parameter of.
+     * @param index The index of the parameter.
+     * @param playerId The UUID of the player.
+     * @param legacy True if the old table, which stores the ids as text, is in use.
+     * @throws SQLException If the parameter could not be set.
+     */
+    private static void setPlayerId(PreparedStatement statement, int index, UUID playerId, boolean legacy) throws SQLException {
+        if (legacy)
+            statement.setString(index, playerId.toString());
+        else
+            statement.setBytes(index, toBytes(playerId));
     }
 
     /**
@@ -97,19 +526,8 @@ public class MySqlManager implements IDatabase {
      */
     @Override
     public void AddFavorite(UUID owner, String category, String headName) {
-        try (Connection connection = _dataSource.getConnection()) {
-            String sql = String.format("INSERT INTO %s_favorites (PlayerId, Category, HeadName) " +
-                            "VALUES (?, ?, ?);",
-                    getConfig().getString("storage.tablePrefix"));
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, owner.toString());
-                statement.setString(2, category);
-                statement.setString(3, headName);
-                statement.executeUpdate();
-            }
-        } catch (Exception ex) {
-            _logger.Error(String.format("Unknown error happened while adding favorite...\n%s", ex.getMessage()));
-        }
+        // Written as a change set, so the change is recorded in the change log as well
+        ApplyFavoriteChanges(List.of(new Favorite(owner, category, headName)), List.of());
     }
 
     /**
@@ -120,18 +538,164 @@ public class MySqlManager implements IDatabase {
      */
     @Override
     public void RemoveFavorite(UUID owner, String category, String headName) {
+        // Written as a change set, so the change is recorded in the change log as well
+        ApplyFavoriteChanges(List.of(), List.of(new Favorite(owner, category, headName)));
+    }
+
+    /**
+     * Adds and removes several favorites in a single transaction, using batched statements.
+     * If the change log is enabled, the changes are recorded in it within the same transaction.
+     * @param added The favorites to add.
+     * @param removed The favorites to remove.
+     * @return True if the transaction was committed, false if it was rolled back.
+     */
+    @Override
+    public boolean ApplyFavoriteChanges(List<Favorite> added, List<Favorite> removed) {
+        // The old table is written while it is in use, once it has been swapped out the changes go to the new one
+        if (_legacy && applyLegacyFavoriteChanges(added, removed))
+            return true;
+        if (_legacy)
+            return false;
+
         try (Connection connection = _dataSource.getConnection()) {
-            String sql = String.format("DELETE FROM %s_favorites WHERE PlayerId=? AND Category=? AND HeadName=?;",
-                    getConfig().getString("storage.tablePrefix"));
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, owner.toString());
-                statement.setString(2, category);
-                statement.setString(3, headName);
-                statement.executeUpdate();
+            connection.setAutoCommit(false);
+            try (PreparedStatement addStatement = connection.prepareStatement(_addFavoriteSql);
+                 PreparedStatement removeStatement = connection.prepareStatement(_removeFavoriteSql)) {
+                addBatch(addStatement, added);
+                addBatch(removeStatement, removed);
+                if (_hasChangeLog) {
+                    try (PreparedStatement logStatement = connection.prepareStatement(_logChangeSql)) {
+                        logChanges(logStatement, added, removed);
+                    }
+                }
+                connection.commit();
+                return true;
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while writing favorite changes...\n%s", ex.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Adds and removes several favorites in the old favorites table, in a single transaction,
+     * and records them in the journal the migration replays onto the new table.
+     * The write takes the swap lock, so it only waits while the tables are being swapped, and it never lands
+     * in the old table after the journal has been replayed. If the table has been migrated meanwhile, nothing is written here.
+     * @param added The favorites to add.
+     * @param removed The favorites to remove.
+     * @return True if the changes were written to the old table, false otherwise.
+     */
+    private boolean applyLegacyFavoriteChanges(List<Favorite> added, List<Favorite> removed) {
+        try (Connection connection = _dataSource.getConnection()) {
+            if (!SchemaMigrator.lock(connection, _swapLock, LEGACY_WRITE_LOCK_SECONDS))
+                return false;
+            try {
+                if (hasColumn(connection, _table, "Id")) {
+                    // Another server has swapped in the new table while this one was waiting
+                    _legacy = false;
+                    return false;
+                }
+                // Creating a table commits implicitly, so it is done before the transaction
+                if (!_hasJournal)
+                    createJournal(connection);
+
+                connection.setAutoCommit(false);
+                try (PreparedStatement addStatement = connection.prepareStatement(_legacyAddFavoriteSql);
+                     PreparedStatement removeStatement = connection.prepareStatement(_removeFavoriteSql);
+                     PreparedStatement journalStatement = connection.prepareStatement(_legacyJournalSql)) {
+                    for (Favorite favorite : added) {
+                        for (int offset = 0; offset <= 3; offset += 3) {
+                            addStatement.setString(1 + offset, favorite.PlayerId.toString());
+                            addStatement.setString(2 + offset, favorite.CategoryName);
+                            addStatement.setString(3 + offset, favorite.HeadName);
+                        }
+                        addStatement.addBatch();
+                    }
+                    for (Favorite favorite : removed) {
+                        removeStatement.setString(1, favorite.PlayerId.toString());
+                        removeStatement.setString(2, favorite.CategoryName);
+                        removeStatement.setString(3, favorite.HeadName);
+                        removeStatement.addBatch();
+                    }
+                    if (!added.isEmpty())
+                        addStatement.executeBatch();
+                    if (!removed.isEmpty())
+                        removeStatement.executeBatch();
+                    logChanges(journalStatement, added, removed);
+                    connection.commit();
+                    return true;
+                } catch (SQLException ex) {
+                    connection.rollback();
+                    throw ex;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                SchemaMigrator.unlock(connection, _swapLock);
             }
         } catch (Exception ex) {
-            _logger.Error(String.format("Unknown error happened during the deletion of tables...\n%s", ex.getMessage()));
+            _logger.Error(String.format("Unknown error happened while writing favorite changes...\n%s", ex.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Runs a statement taking a player, a category and a head name for every favorite, as one batch.
+     * @param statement The statement to run.
+     * @param favorites The favorites to run the statement for.
+     * @throws SQLException If the batch failed.
+     */
+    private static void addBatch(PreparedStatement statement, List<Favorite> favorites) throws SQLException {
+        if (favorites.isEmpty())
+            return;
+        for (Favorite favorite : favorites) {
+            statement.setBytes(1, toBytes(favorite.PlayerId));
+            statement.setString(2, favorite.CategoryName);
+            statement.setString(3, favorite.HeadName);
+            statement.addBatch();
         }
+        statement.executeBatch();
+    }
+
+    /**
+     * Records the added and removed favorites in the change log, as one batch.
+     * @param statement The statement inserting a change.
+     * @param added The added favorites.
+     * @param removed The removed favorites.
+     * @throws SQLException If the batch failed.
+     */
+    private void logChanges(PreparedStatement statement, List<Favorite> added, List<Favorite> removed) throws SQLException {
+        if (added.isEmpty() && removed.isEmpty())
+            return;
+        byte[] serverId = toBytes(_serverId);
+        for (Favorite favorite : added)
+            addChange(statement, favorite, true, serverId);
+        for (Favorite favorite : removed)
+            addChange(statement, favorite, false, serverId);
+        statement.executeBatch();
+    }
+
+    /**
+     * Adds a change to the batch of the change log statement.
+     * @param statement The statement inserting a change.
+     * @param favorite The favorite which was changed.
+     * @param isAdd True if the favorite was added, false if it was removed.
+     * @param serverId The id of this server.
+     * @throws SQLException If the parameters could not be set.
+     */
+    private static void addChange(PreparedStatement statement, Favorite favorite, boolean isAdd, byte[] serverId) throws SQLException {
+        statement.setBytes(1, toBytes(favorite.PlayerId));
+        statement.setString(2, favorite.CategoryName);
+        statement.setString(3, favorite.HeadName);
+        statement.setBoolean(4, isAdd);
+        statement.setBytes(5, serverId);
+        statement.addBatch();
     }
 
     /**
@@ -143,25 +707,18 @@ public class MySqlManager implements IDatabase {
      */
     @Override
     public boolean IsFavorite(UUID owner, String category, String headName) {
-        boolean data = false;
-        try (Connection connection = _dataSource.getConnection()) {
-            String sql = String.format("SELECT * FROM %s_favorites WHERE PlayerId=? AND Category=? AND HeadName=? LIMIT 1;",
-                    getConfig().getString("storage.tablePrefix"));
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, owner.toString());
-                statement.setString(2, category);
-                statement.setString(3, headName);
-                try (ResultSet result = statement.executeQuery()) {
-                    if (result.next()) {
-                        data = true;
-                    }
-                }
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_isFavoriteSql)) {
+            setPlayerId(statement, 1, owner, _legacy);
+            statement.setString(2, category);
+            statement.setString(3, headName);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next();
             }
         } catch (Exception ex) {
             _logger.Error(String.format("Unknown error happened while finding favorite data...\n%s", ex.getMessage()));
             return false;
         }
-        return data;
     }
 
     /**
@@ -183,25 +740,258 @@ public class MySqlManager implements IDatabase {
     @Override
     public List<Favorite> GetFavorites(UUID owner) {
         List<Favorite> data = new ArrayList<>();
-        try (Connection connection = _dataSource.getConnection()) {
-            String sql = String.format("SELECT * FROM %s_favorites WHERE PlayerId=?;",
-                    getConfig().getString("storage.tablePrefix"));
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, owner.toString());
+        boolean legacy = _legacy;
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(legacy ? _legacyGetFavoritesSql : _getFavoritesSql)) {
+            setPlayerId(statement, 1, owner, legacy);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    data.add(new Favorite(
+                            owner,
+                            result.getString("Category"),
+                            result.getString("HeadName")
+                    ));
+                }
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while getting favorite data...\n%s", ex.getMessage()));
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Retrieves a page of the favorite entries of a specific player, using the id as the cursor.
+     * While the old table is in use, the cursor is the offset of the page instead.
+     * @param owner The UUID of the player.
+     * @param cursor The cursor returned with the previous page, 0 for the first page.
+     * @param limit The maximum number of favorites on the page.
+     * @return The page of favorites, or null if an error occurs.
+     */
+    @Override
+    public FavoritePage GetFavoritesPage(UUID owner, long cursor, int limit) {
+        if (_legacy)
+            return getLegacyFavoritesPage(owner, cursor, limit);
+
+        List<Favorite> data = new ArrayList<>();
+        long nextCursor = cursor;
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_getFavoritesPageSql)) {
+            statement.setBytes(1, toBytes(owner));
+            statement.setLong(2, cursor);
+            statement.setInt(3, limit);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    nextCursor = result.getLong("Id");
+                    data.add(new Favorite(owner, result.getString("Category"), result.getString("HeadName")));
+                }
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while getting favorite data...\n%s", ex.getMessage()));
+            return null;
+        }
+        return new FavoritePage(data, nextCursor, data.size() == limit);
+    }
+
+    /**
+     * Retrieves a page of the favorite entries of a specific player from the old table, using the offset as the cursor.
+     * @param owner The UUID of the player.
+     * @param cursor The offset of the page, 0 for the first page.
+     * @param limit The maximum number of favorites on the page.
+     * @return The page of favorites, or null if an error occurs.
+     */
+    private FavoritePage getLegacyFavoritesPage(UUID owner, long cursor, int limit) {
+        List<Favorite> data = new ArrayList<>();
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_legacyGetFavoritesPageSql)) {
+            statement.setString(1, owner.toString());
+            statement.setInt(2, limit);
+            statement.setLong(3, cursor);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    data.add(new Favorite(owner, result.getString("Category"), result.getString("HeadName")));
+                }
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while getting favorite data...\n%s", ex.getMessage()));
+            return null;
+        }
+        return new FavoritePage(data, cursor + data.size(), data.size() == limit);
+    }
+
+    /**
+     * Counts the favorite entries of a specific player.
+     * @param owner The UUID of the player.
+     * @return The number of favorites, or -1 if an error occurs.
+     */
+    @Override
+    public int CountFavorites(UUID owner) {
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_countFavoritesSql)) {
+            setPlayerId(statement, 1, owner, _legacy);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? result.getInt(1) : 0;
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while counting favorite data...\n%s", ex.getMessage()));
+            return -1;
+        }
+    }
+
+    /**
+     * Checks which of the given heads are marked as favorites by a player.
+     * The heads are checked in fixed size chunks, so the server can reuse the statement for every chunk.
+     * @param owner The UUID of the player.
+     * @param heads The heads to check.
+     * @return The heads which are favorites, or null if an error occurs.
+     */
+    @Override
+    public Set<Favorite> FilterFavorites(UUID owner, Collection<Favorite> heads) {
+        Set<Favorite> data = new HashSet<>();
+        List<Favorite> list = new ArrayList<>(heads);
+        if (list.isEmpty())
+            return data;
+
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_filterFavoritesSql)) {
+            boolean legacy = _legacy;
+            for (int start = 0; start < list.size(); start += FILTER_CHUNK_SIZE) {
+                setPlayerId(statement, 1, owner, legacy);
+                for (int i = 0; i < FILTER_CHUNK_SIZE; i++) {
+                    // The last chunk is padded with its last head
+                    Favorite head = list.get(Math.min(start + i, list.size() - 1));
+                    statement.setString(2 + i * 2, head.CategoryName);
+                    statement.setString(3 + i * 2, head.HeadName);
+                }
                 try (ResultSet result = statement.executeQuery()) {
                     while (result.next()) {
-                        data.add(new Favorite(
-                                UUID.fromString(result.getString("PlayerId")),
-                                result.getString("Category"),
-                                result.getString("HeadName")
-                        ));
+                        data.add(new Favorite(owner, result.getString("Category"), result.getString("HeadName")));
                     }
                 }
             }
         } catch (Exception ex) {
-            _logger.Error(String.format("Unknown error happened while getting favorite data...\n%s", ex.getMessage()));
+            _logger.Error(String.format("Unknown error happened while finding favorite data...\n%s", ex.getMessage()));
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Checks if the favorite changes are recorded in the change log, which is set in the config.
+     * The change log is created together with the new favorites table, so it is not kept while the old table is in use,
+     * and it is not followed while the schema is being migrated in the background.
+     * @return True if the change log is enabled, false otherwise.
+     */
+    @Override
+    public boolean HasChangeLog() {
+        return _hasChangeLog && !_legacy && !_migrating;
+    }
+
+    /**
+     * Gets the sequence number of the latest change in the change log.
+     * @return The latest sequence number, 0 if the log is empty, or -1 if an error occurs.
+     */
+    @Override
+    public long GetLastChangeSequence() {
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_lastChangeSql);
+             ResultSet result = statement.executeQuery()) {
+            return result.next() ? result.getLong(1) : 0;
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while reading the change log...\n%s", ex.getMessage()));
+            return -1;
+        }
+    }
+
+    /**
+     * Retrieves the changes recorded in the change log after a sequence number.
+     * The changes made by this server are included, so the caller can follow the sequence, but they are not marked remote.
+     * @param after The sequence number to start after.
+     * @param limit The maximum number of changes to read.
+     * @return The changes in sequence order, or null if an error occurs.
+     */
+    @Override
+    public List<FavoriteChange> GetFavoriteChanges(long after, int limit) {
+        List<FavoriteChange> data = new ArrayList<>();
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_getChangesSql)) {
+            statement.setLong(1, after);
+            statement.setInt(2, limit);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next())
+                    data.add(readChange(result));
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while reading the change log...\n%s", ex.getMessage()));
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Retrieves the changes recorded in the change log with the given sequence numbers.
+     * The sequence numbers are looked up in fixed size chunks, so the server can reuse the statement for every chunk.
+     * @param sequences The sequence numbers of the changes.
+     * @return The changes in sequence order, or null if an error occurs.
+     */
+    @Override
+    public List<FavoriteChange> GetFavoriteChanges(Collection<Long> sequences) {
+        List<FavoriteChange> data = new ArrayList<>();
+        List<Long> list = new ArrayList<>(sequences);
+        if (list.isEmpty())
+            return data;
+
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_getChangesBySequenceSql)) {
+            for (int start = 0; start < list.size(); start += SEQUENCE_CHUNK_SIZE) {
+                for (int i = 0; i < SEQUENCE_CHUNK_SIZE; i++) {
+                    // The last chunk is padded with its last sequence number
+                    statement.setLong(1 + i, list.get(Math.min(start + i, list.size() - 1)));
+                }
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next())
+                        data.add(readChange(result));
+                }
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while reading the change log...\n%s", ex.getMessage()));
             return null;
         }
+        data.sort(Comparator.comparingLong(change -> change.Sequence));
         return data;
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads a change from the current row of a change log query.
+     * The changes made by this server are not marked remote.
+     * @param result The result positioned at the row.
+     * @return The change.
+     * @throws SQLException If the row could not be read.
+     */
+    private FavoriteChange readChange(ResultSet result) throws SQLException {
+        Favorite favorite = new Favorite(
+                fromBytes(result.getBytes("PlayerId")),
+                result.getString("Category"),
+                result.getString("HeadName")
+        );
+        boolean isRemote = !_serverId.equals(fromBytes(result.getBytes("ServerId")));
+        return new FavoriteChange(result.getLong("Seq"), favorite, result.getBoolean("IsAdd"), isRemote);
+    }
+
+    /**
+     * Deletes the old changes from the change log, at most a limited number of them per call.
+     * @param maxAgeSeconds The age of the oldest change kept, in seconds.
+     * @return The number of deleted changes, or -1 if an error occurs.
+     */
+    @Override
+    public int PruneFavoriteChanges(int maxAgeSeconds) {
+        try (Connection connection = _dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_pruneChangesSql)) {
+            statement.setInt(1, maxAgeSeconds);
+            return statement.executeUpdate();
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while pruning the change log...\n%s", ex.getMessage()));
+            return -1;
+        }
+    }
+}
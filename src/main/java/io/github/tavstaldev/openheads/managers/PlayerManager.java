@@ -1,13 +1,64 @@
 package io.github.tavstaldev.openheads.managers;
 
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
 import io.github.tavstaldev.openheads.models.PlayerData;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Registry of the sessions of the online players.
+ * A session is created on join and removed on quit or kick, and it can be read from any thread,
+ * so database callbacks can look up the player's data safely.
+ * The menus cached by a session are dropped once the player has not used them for a while.
+ */
 public class PlayerManager {
-    private static final Map<UUID, PlayerData> _playerData = new HashMap<>();
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(PlayerManager.class);
+    /**
+     * The interval between two idle checks, in ticks.
+     */
+    private static final long EVICTION_INTERVAL = 1200L;
+    /**
+     * The number of seconds after which unused menus are dropped, when the config does not say otherwise.
+     */
+    private static final long DEFAULT_MENU_IDLE_TIMEOUT = 300L;
+    private static final Map<UUID, PlayerData> _playerData = new ConcurrentHashMap<>();
+    private static BukkitTask _evictionTask;
+    private static long _menuIdleTimeout = TimeUnit.SECONDS.toMillis(DEFAULT_MENU_IDLE_TIMEOUT);
+
+    /**
+     * Creates the sessions of the players who are already online, for example after a reload,
+     * and starts the task which drops the unused menus.
+     */
+    public static void init() {
+        _menuIdleTimeout = TimeUnit.SECONDS.toMillis(Math.max(0L, OpenHeads.GetConfig().getLong("menuIdleTimeout", DEFAULT_MENU_IDLE_TIMEOUT)));
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            _playerData.computeIfAbsent(player.getUniqueId(), k -> new PlayerData(player));
+            FavoritesCache.load(player.getUniqueId());
+        }
+
+        if (_evictionTask != null)
+            _evictionTask.cancel();
+        // The menus are Bukkit objects, so they are dropped on the main thread
+        _evictionTask = Bukkit.getScheduler().runTaskTimer(OpenHeads.Instance, PlayerManager::evictIdleMenus, EVICTION_INTERVAL, EVICTION_INTERVAL);
+    }
+
+    /**
+     * Stops the idle check and drops every session.
+     */
+    public static void shutdown() {
+        if (_evictionTask != null) {
+            _evictionTask.cancel();
+            _evictionTask = null;
+        }
+        _playerData.clear();
+    }
 
     /**
      * Adds player data to the manager.
@@ -25,7 +76,10 @@ public class PlayerManager {
      * @param playerId the UUID of the player
      */
     public static void removePlayerData(UUID playerId) {
-        _playerData.remove(playerId);
+        PlayerData playerData = _playerData.remove(playerId);
+        SearchManager.cancel(playerId);
+        if (playerData != null)
+            playerData.evictMenus();
     }
 
     /**
@@ -37,4 +91,56 @@ public class PlayerManager {
     public static PlayerData getPlayerData(UUID playerId) {
         return _playerData.get(playerId);
     }
+
+    /**
+     * Drops the cached menus of the players who have not used them for longer than the idle timeout.
+     * The menus of players with an open GUI are kept.
+     */
+    private static void evictIdleMenus() {
+        long threshold = System.currentTimeMillis() - _menuIdleTimeout;
+        int evicted = 0;
+        for (PlayerData playerData : _playerData.values()) {
+            if (playerData.isGUIOpened() || playerData.getLastActivity() > threshold)
+                continue;
+            if (playerData.evictMenus())
+                evicted++;
+        }
+        if (evicted > 0)
+            _logger.Debug(String.format("Dropped the idle menus of %d players.", evicted));
+    }
+
+    /**
+     * Gets the number of live sessions.
+     *
+     * @return the number of sessions
+     */
+    public static int getSessionCount() {
+        return _playerData.size();
+    }
+
+    /**
+     * Gets the number of menus retained by the sessions, including the sign menus.
+     *
+     * @return the number of cached menus
+     */
+    public static int getCachedMenuCount() {
+        int count = 0;
+        for (PlayerData playerData : _playerData.values())
+            count += playerData.getCachedMenuCount();
+        return count;
+    }
+
+    /**
+     * Gets the number of sessions holding a loaded head list.
+     *
+     * @return the number of loaded head lists
+     */
+    public static int getLoadedHeadListCount() {
+        int count = 0;
+        for (PlayerData playerData : _playerData.values()) {
+            if (playerData.getHeads() != null)
+                count++;
+        }
+        return count;
+    }
 }
@@ -0,0 +1,184 @@
+package io.github.tavstaldev.openheads.managers;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.metrics.Metrics;
+import io.github.tavstaldev.openheads.metrics.Timer;
+import io.github.tavstaldev.openheads.models.HeadCategory;
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.utils.AsyncUtils;
+import io.github.tavstaldev.openheads.utils.EconomyUtils;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Handles the purchases of heads.
+ * A purchase is a single economy call: the withdrawal itself tells if the player could afford the heads,
+ * so the balance is never checked separately, and any number of copies is paid for at once.
+ * The economy call can run off the main thread, the heads are always delivered on the main thread afterwards.
+ */
+public class PurchaseManager {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(PurchaseManager.class);
+    /**
+     * The number of copies bought in bulk when the config does not say otherwise.
+     */
+    private static final int DEFAULT_BULK_AMOUNT = 16;
+    /**
+     * The players whose paid purchase is still running.
+     */
+    private static final Set<UUID> _pending = ConcurrentHashMap.newKeySet();
+    private static final LongAdder _paid = Metrics.counter("purchase.paid");
+    private static final LongAdder _free = Metrics.counter("purchase.free");
+    private static final LongAdder _declined = Metrics.counter("purchase.declined");
+    private static final LongAdder _busy = Metrics.counter("purchase.busy");
+    private static final LongAdder _refunded = Metrics.counter("purchase.refunded");
+    private static final Timer _latency = Metrics.timer("purchase.latency");
+    private static final Timer _economyTimer = Metrics.timer("purchase.economy");
+    private static boolean _asyncEconomy;
+    private static int _bulkAmount = DEFAULT_BULK_AMOUNT;
+
+    /**
+     * Reads the purchase settings from the config.
+     */
+    public static void init() {
+        _asyncEconomy = OpenHeads.GetConfig().getBoolean("asyncEconomy", false);
+        _bulkAmount = Math.max(1, OpenHeads.GetConfig().getInt("bulkPurchaseAmount", DEFAULT_BULK_AMOUNT));
+        _logger.Debug(String.format("Economy calls run %s the main thread.", _asyncEconomy ? "off" : "on"));
+    }
+
+    /**
+     * Gets the number of copies bought with a bulk purchase.
+     *
+     * @return the number of copies
+     */
+    public static int getBulkAmount() {
+        return _bulkAmount;
+    }
+
+    /**
+     * Sells copies of a head to a player, for the price of its category.
+     * Free heads are delivered right away. For paid heads, the total price is withdrawn with a single economy call,
+     * and the heads are delivered on the main thread once it succeeded.
+     * A purchase started while the previous paid purchase of the player is still running is ignored.
+     * Must be called on the main thread.
+     *
+     * @param player the player buying the heads
+     * @param category the category of the head
+     * @param head the head to buy
+     * @param amount the number of copies to buy
+     */
+    public static void purchase(@NotNull Player player, @NotNull HeadCategory category, @NotNull HeadData head, int amount) {
+        long start = System.nanoTime();
+        double price = category.Price == null ? 0 : category.Price * amount;
+        if (price <= 0) {
+            deliver(player, category, head, amount);
+            _free.increment();
+            _latency.recordSince(start);
+            sendReceived(player, head, amount);
+            return;
+        }
+
+        // A second click while the economy call is running would charge the player twice
+        UUID playerId = player.getUniqueId();
+        if (!_pending.add(playerId)) {
+            _busy.increment();
+            return;
+        }
+
+        Executor executor = _asyncEconomy ? AsyncUtils.getDatabaseExecutor() : Runnable::run;
+        CompletableFuture.supplyAsync(() -> {
+            long economyStart = System.nanoTime();
+            try {
+                return EconomyUtils.withdraw(player, price);
+            } finally {
+                _economyTimer.recordSince(economyStart);
+            }
+        }, executor).whenCompleteAsync((success, ex) -> {
+            _pending.remove(playerId);
+            if (ex != null) {
+                _logger.Error(String.format("Failed to withdraw the price of the %s head from %s.", head.Name, player.getName()));
+                _logger.Error(ex);
+                if (player.isOnline())
+                    OpenHeads.Instance.sendLocalizedMsg(player, "Commands.UnknownError");
+                return;
+            }
+            if (!success) {
+                _declined.increment();
+                if (player.isOnline())
+                    OpenHeads.Instance.sendLocalizedMsg(player, "General.NotEnoughMoney");
+                return;
+            }
+            // The player left while the economy call was running
+            if (!player.isOnline()) {
+                if (!EconomyUtils.deposit(player, price))
+                    _logger.Warn(String.format("Failed to refund %.2f to %s, who left during a purchase.", price, player.getName()));
+                _refunded.increment();
+                return;
+            }
+
+            deliver(player, category, head, amount);
+            _paid.increment();
+            _latency.recordSince(start);
+            sendBought(player, head, amount, price);
+        }, AsyncUtils.getMainThreadExecutor());
+    }
+
+    /**
+     * Puts copies of a head into the inventory of a player, in full stacks.
+     * The copies which do not fit are dropped at the feet of the player, so a paid head is never lost.
+     *
+     * @param player the player receiving the heads
+     * @param category the category of the head
+     * @param head the head to deliver
+     * @param amount the number of copies
+     */
+    private static void deliver(Player player, HeadCategory category, HeadData head, int amount) {
+        ItemStack item = head.GetItem(player, category.DisplayNameKey);
+        int maxStackSize = Math.max(1, item.getMaxStackSize());
+        for (int remaining = amount; remaining > 0; remaining -= maxStackSize) {
+            ItemStack stack = item.clone();
+            stack.setAmount(Math.min(remaining, maxStackSize));
+            for (ItemStack leftover : player.getInventory().addItem(stack).values())
+                player.getWorld().dropItemNaturally(player.getLocation(), leftover);
+        }
+    }
+
+    /**
+     * Tells a player which heads they have bought.
+     *
+     * @param player the player
+     * @param head the head bought
+     * @param amount the number of copies
+     * @param price the total price paid
+     */
+    private static void sendBought(Player player, HeadData head, int amount, double price) {
+        OpenHeads.Instance.sendLocalizedMsg(player, amount == 1 ? "General.BoughtHead" : "General.BoughtHeads", Map.of(
+                "price", String.format("%.2f", price), // Format the price to two decimal places
+                "head", head.Name,
+                "amount", String.valueOf(amount)
+        ));
+    }
+
+    /**
+     * Tells a player which free heads they have received.
+     *
+     * @param player the player
+     * @param head the head received
+     * @param amount the number of copies
+     */
+    private static void sendReceived(Player player, HeadData head, int amount) {
+        OpenHeads.Instance.sendLocalizedMsg(player, amount == 1 ? "General.ReceivedHead" : "General.ReceivedHeads", Map.of(
+                "head", head.Name,
+                "amount", String.valueOf(amount)
+        ));
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.tavstaldev.openheads.managers;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.models.SchemaMigration;
+
+import java.sql.*;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date by applying the missing versioned migrations.
+ * The applied versions are recorded in the {@code <prefix>_schema} table.
+ * Every migration runs in its own transaction, and the version is only recorded once the migration is done,
+ * so a failed migration is retried on the next start.
+ * When several servers share the database, the migrations are run while holding a MySQL named lock,
+ * so only one server migrates at a time, and the others find the schema up to date once they get the lock.
+ */
+public class SchemaMigrator {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(SchemaMigrator.class);
+    /**
+     * The time a single attempt to get the migration lock waits, in seconds.
+     */
+    private static final int LOCK_ATTEMPT_SECONDS = 5;
+
+    /**
+     * Applies every migration newer than the current schema version, in order.
+     *
+     * @param connection the connection to migrate
+     * @param schemaTable the name of the table holding the applied versions
+     * @param migrations the known migrations
+     * @return true if the schema is up to date, false if a migration failed
+     */
+    public static boolean migrate(Connection connection, String schemaTable, List<SchemaMigration> migrations) {
+        return migrate(connection, schemaTable, migrations, null);
+    }
+
+    /**
+     * Applies every migration newer than the current schema version, in order, while holding a named lock.
+     * Waits for the lock as long as the plugin is enabled, the schema version is read once the lock is held.
+     *
+     * @param connection the connection to migrate
+     * @param schemaTable the name of the table holding the applied versions
+     * @param migrations the known migrations
+     * @param lockName the name of the MySQL named lock, or null if the database is not shared
+     * @return true if the schema is up to date, false if a migration failed
+     */
+    public static boolean migrate(Connection connection, String schemaTable, List<SchemaMigration> migrations, String lockName) {
+        return migrate(connection, schemaTable, migrations, lockName, 0);
+    }
+
+    /**
+     * Applies every migration newer than the current schema version, in order, while holding a named lock.
+     * Waits for the lock as long as the plugin is enabled, but at most for the given number of attempts,
+     * the schema version is read once the lock is held.
+     *
+     * @param connection the connection to migrate
+     * @param schemaTable the name of the table holding the applied versions
+     * @param migrations the known migrations
+     * @param lockName the name of the MySQL named lock, or null if the database is not shared
+     * @param lockAttempts the number of attempts to get the lock, each waiting {@value #LOCK_ATTEMPT_SECONDS} seconds, or 0 for no limit
+     * @return true if the schema is up to date, false if a migration failed or the lock could not be acquired
+     */
+    public static boolean migrate(Connection connection, String schemaTable, List<SchemaMigration> migrations, String lockName, int lockAttempts) {
+        boolean autoCommit = true;
+        boolean locked = false;
+        try {
+            autoCommit = connection.getAutoCommit();
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(String.format("CREATE TABLE IF NOT EXISTS %s (" +
+                        "Version INT NOT NULL PRIMARY KEY, " +
+                        "Description VARCHAR(200), " +
+                        "AppliedAt BIGINT);", schemaTable));
+            }
+
+            if (lockName != null) {
+                boolean waiting = false;
+                int attempts = 0;
+                while (!(locked = lock(connection, lockName, LOCK_ATTEMPT_SECONDS))) {
+                    if (!OpenHeads.Instance.isEnabled())
+                        return false;
+                    if (lockAttempts > 0 && ++attempts >= lockAttempts) {
+                        _logger.Warn(String.format("Another server has been migrating the database schema for over %d seconds.",
+                                attempts * LOCK_ATTEMPT_SECONDS));
+                        return false;
+                    }
+                    if (!waiting) {
+                        _logger.Info("Waiting for another server to finish migrating the database schema...");
+                        waiting = true;
+                    }
+                }
+            }
+
+            // Another server might have migrated the schema while this one was waiting for the lock
+            int currentVersion = getVersion(connection, schemaTable);
+            List<SchemaMigration> pending = migrations.stream()
+                    .filter(migration -> migration.Version > currentVersion)
+                    .sorted(Comparator.comparingInt(migration -> migration.Version))
+                    .toList();
+            if (pending.isEmpty()) {
+                _logger.Debug(String.format("Database schema is up to date at version %d.", currentVersion));
+                return true;
+            }
+
+            connection.setAutoCommit(false);
+            for (SchemaMigration migration : pending) {
+                _logger.Info(String.format("Migrating database schema to version %d: %s...", migration.Version, migration.Description));
+                long start = System.nanoTime();
+                try {
+                    migration.Apply(connection);
+                    try (PreparedStatement statement = connection.prepareStatement(String.format(
+                            "INSERT INTO %s (Version, Description, AppliedAt) VALUES (?, ?, ?);", schemaTable))) {
+                        statement.setInt(1, migration.Version);
+                        statement.setString(2, migration.Description);
+                        statement.setLong(3, System.currentTimeMillis());
+                        statement.executeUpdate();
+                    }
+                    connection.commit();
+                } catch (SQLException ex) {
+                    connection.rollback();
+                    _logger.Error(String.format("Failed to migrate the database schema to version %d...\n%s", migration.Version, ex.getMessage()));
+                    return false;
+                }
+                _logger.Info(String.format("Database schema migrated to version %d in %d ms.", migration.Version, (System.nanoTime() - start) / 1_000_000));
+            }
+            return true;
+        } catch (SQLException ex) {
+            _logger.Error(String.format("Unknown error happened while migrating the database schema...\n%s", ex.getMessage()));
+            return false;
+        } finally {
+            try {
+                connection.setAutoCommit(autoCommit);
+            } catch (SQLException ignored) {
+            }
+            if (locked) {
+                try {
+                    unlock(connection, lockName);
+                } catch (SQLException ex) {
+                    _logger.Warn(String.format("Failed to release the migration lock...\n%s", ex.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tries to get a MySQL named lock for the session of a connection.
+     * The name is qualified with the current database, named locks are shared by the whole server.
+     *
+     * @param connection the connection holding the lock
+     * @param lockName the name of the lock
+     * @param timeoutSeconds the time to wait for the lock, in seconds
+     * @return true if the lock was acquired, false if it is held by another session
+     * @throws SQLException if the query failed
+     */
+    public static boolean lock(Connection connection, String lockName, int timeoutSeconds) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT GET_LOCK(CONCAT(DATABASE(), '.', ?), ?);")) {
+            statement.setString(1, lockName);
+            statement.setInt(2, timeoutSeconds);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() && result.getInt(1) == 1;
+            }
+        }
+    }
+
+    /**
+     * Releases a MySQL named lock held by the session of a connection.
+     *
+     * @param connection the connection holding the lock
+     * @param lockName the name of the lock
+     * @throws SQLException if the query failed
+     */
+    public static void unlock(Connection connection, String lockName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT RELEASE_LOCK(CONCAT(DATABASE(), '.', ?));")) {
+            statement.setString(1, lockName);
+            statement.executeQuery().close();
+        }
+    }
+
+    /**
+     * Gets the current version of the schema.
+     *
+     * @param connection the connection to query
+     * @param schemaTable the name of the table holding the applied versions
+     * @return the highest applied version, 0 if none was applied yet
+     * @throws SQLException if the query failed
+     */
+    private static int getVersion(Connection connection, String schemaTable) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(String.format("SELECT MAX(Version) FROM %s;", schemaTable))) {
+            return result.next() ? result.getInt(1) : 0;
+        }
+    }
+}
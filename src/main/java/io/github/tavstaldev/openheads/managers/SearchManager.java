@@ -0,0 +1,211 @@
+package io.github.tavstaldev.openheads.managers;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.metrics.Metrics;
+import io.github.tavstaldev.openheads.metrics.Timer;
+import io.github.tavstaldev.openheads.models.HeadView;
+import io.github.tavstaldev.openheads.utils.HeadSearchIndex;
+import io.github.tavstaldev.openheads.utils.HeadUtils;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the head searches of the players off the main thread.
+ * The results of the recent queries are kept in a bounded cache keyed by the normalized query,
+ * so a popular search is only run once for every player looking for it.
+ * A player only waits for their latest search: starting a new one cancels the previous one if it is still pending.
+ */
+public class SearchManager {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(SearchManager.class);
+    /**
+     * The number of results kept when the config does not say otherwise.
+     */
+    private static final int DEFAULT_CACHE_SIZE = 256;
+    private static final LongAdder _hits = Metrics.counter("search.cache.hits");
+    private static final LongAdder _misses = Metrics.counter("search.cache.misses");
+    private static final LongAdder _superseded = Metrics.counter("search.superseded");
+    private static final Timer _queryTimer = Metrics.timer("search.query");
+    private static final Map<UUID, PendingSearch> _pending = new ConcurrentHashMap<>();
+    private static int _cacheSize = DEFAULT_CACHE_SIZE;
+    private static int _resultLimit = HeadSearchIndex.DEFAULT_RESULT_LIMIT;
+    private static final LinkedHashMap<Key, HeadView> _results = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, HeadView> eldest) {
+            return size() > _cacheSize;
+        }
+    };
+
+    /**
+     * The identity of a cached result. The index is compared by identity, so a result never outlives the catalog it was found in.
+     */
+    private record Key(HeadSearchIndex Index, String Query) {}
+
+    /**
+     * The latest search of a player which has not finished yet.
+     */
+    private record PendingSearch(Key Key, CompletableFuture<HeadView> Future) {}
+
+    /**
+     * Reads the size of the cache and the result limit from the config and drops every cached result.
+     */
+    public static void init() {
+        int cacheSize = OpenHeads.GetConfig().getInt("searchCacheSize", DEFAULT_CACHE_SIZE);
+        int resultLimit = OpenHeads.GetConfig().getInt("searchResultLimit", HeadSearchIndex.DEFAULT_RESULT_LIMIT);
+        synchronized (_results) {
+            _cacheSize = Math.max(0, cacheSize);
+            _resultLimit = Math.max(1, resultLimit);
+            _results.clear();
+        }
+        _logger.Debug(String.format("Search cache size set to %d.", _cacheSize));
+    }
+
+    /**
+     * Searches the current catalog for a player.
+     * A cached result is returned right away, otherwise the query runs in the background.
+     * If the player already has a pending search for the same query, its future is returned,
+     * a pending search for another query is cancelled.
+     *
+     * @param playerId the UUID of the player searching
+     * @param query the text to search for
+     * @return a future completed with the ranked heads, or cancelled if the player starts another search before it finishes
+     */
+    public static CompletableFuture<HeadView> search(UUID playerId, String query) {
+        Key key = new Key(HeadUtils.getCatalog().SearchIndex, normalize(query));
+        HeadView cached;
+        synchronized (_results) {
+            cached = _results.get(key);
+        }
+        if (cached != null) {
+            _hits.increment();
+            cancel(playerId);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        PendingSearch pending = _pending.get(playerId);
+        if (pending != null && pending.Key().equals(key) && !pending.Future().isDone())
+            return pending.Future();
+
+        _misses.increment();
+        CompletableFuture<HeadView> future = new CompletableFuture<>();
+        PendingSearch search = new PendingSearch(key, future);
+        PendingSearch previous = _pending.put(playerId, search);
+        if (previous != null && previous.Future().cancel(false))
+            _superseded.increment();
+
+        ForkJoinPool.commonPool().execute(() -> {
+            // The player might have started another search before this one got its turn
+            if (future.isDone()) {
+                _pending.remove(playerId, search);
+                return;
+            }
+            try {
+                long start = System.nanoTime();
+                HeadView result = key.Index().search(key.Query(), _resultLimit);
+                _queryTimer.recordSince(start);
+                synchronized (_results) {
+                    _results.put(key, result);
+                }
+                future.complete(result);
+            } catch (Exception ex) {
+                future.completeExceptionally(ex);
+            } finally {
+                _pending.remove(playerId, search);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Cancels the pending search of a player, for example when the player leaves.
+     *
+     * @param playerId the UUID of the player
+     */
+    public static void cancel(UUID playerId) {
+        PendingSearch pending = _pending.remove(playerId);
+        if (pending != null && pending.Future().cancel(false))
+            _superseded.increment();
+    }
+
+    /**
+     * Drops every cached result, for example after the catalog has changed. The counters are kept.
+     */
+    public static void clear() {
+        synchronized (_results) {
+            _results.clear();
+        }
+    }
+
+    /**
+     * Normalizes a query, so queries differing only in case and spacing share a cached result.
+     *
+     * @param query the query typed by the player
+     * @return the trimmed, lower-cased query with single spaces
+     */
+    private static String normalize(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the number of cached results.
+     *
+     * @return the number of cached results
+     */
+    public static int size() {
+        synchronized (_results) {
+            return _results.size();
+        }
+    }
+
+    /**
+     * Gets the number of searches answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public static long getHits() {
+        return _hits.sum();
+    }
+
+    /**
+     * Gets the number of searches which had to query the index.
+     *
+     * @return the number of misses
+     */
+    public static long getMisses() {
+        return _misses.sum();
+    }
+
+    /**
+     * Gets the number of searches cancelled because the player started another one.
+     *
+     * @return the number of superseded searches
+     */
+    public static long getSuperseded() {
+        return _superseded.sum();
+    }
+
+    /**
+     * Gets the share of the searches answered from the cache.
+     *
+     * @return the hit rate between 0 and 1, 0 if there were no searches yet
+     */
+    public static double getHitRate() {
+        long hits = _hits.sum();
+        long total = hits + _misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Gets a percentile of the time of the queries which were not answered from the cache.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the query time at the percentile in milliseconds, 0 if no query has run yet
+     */
+    public static double getLatencyPercentile(double percentile) {
+        return _queryTimer.getPercentileMillis(percentile);
+    }
+}
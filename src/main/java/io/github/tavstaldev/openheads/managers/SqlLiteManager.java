@@ -3,24 +3,25 @@ package io.github.tavstaldev.openheads.managers;
 import io.github.tavstaldev.minecorelib.core.PluginLogger;
 import io.github.tavstaldev.openheads.OpenHeads;
 import io.github.tavstaldev.openheads.models.Favorite;
+import io.github.tavstaldev.openheads.models.FavoriteChange;
+import io.github.tavstaldev.openheads.models.FavoritePage;
 import io.github.tavstaldev.openheads.models.HeadData;
-import io.github.tavstaldev.openheads.models.IDatabase;
+import io.github.tavstaldev.openheads.models.IAsyncDatabase;
+import io.github.tavstaldev.openheads.models.SchemaMigration;
 import org.bukkit.configuration.file.FileConfiguration;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Manages SQLite database operations for the OpenHeads plugin.
- * Implements the IDatabase interface to handle database-related tasks.
+ * Implements the IAsyncDatabase interface to handle database-related tasks,
+ * the asynchronous variants run on the shared database executor.
+ * A single connection is kept open in WAL mode and every statement is prepared only once.
+ * SQLite allows one writer at a time anyway, so the operations are serialized with a lock.
  */
-public class SqlLiteManager implements IDatabase {
+public class SqlLiteManager implements IAsyncDatabase {
     /**
      * Retrieves the plugin configuration.
      * @return The FileConfiguration instance for the plugin.
@@ -33,25 +34,89 @@ public class SqlLiteManager implements IDatabase {
     private static final PluginLogger _logger = OpenHeads.Logger().WithModule(SqlLiteManager.class);
 
     /**
-     * Loads the database manager. No operation is performed for SQLite.
+     * Guards the connection and the cached statements.
+     * A ReentrantLock is used instead of synchronized, so waiting virtual threads do not pin their carrier.
+     */
+    private final ReentrantLock _lock = new ReentrantLock();
+    /**
+     * The number of heads checked by one bulk favorite query.
+     */
+    private static final int FILTER_CHUNK_SIZE = 45;
+    private final Map<String, PreparedStatement> _statements = new HashMap<>();
+    private Connection _connection;
+    private String _url;
+    private String _table;
+    private String _schemaTable;
+    private String _addFavoriteSql;
+    private String _removeFavoriteSql;
+    private String _isFavoriteSql;
+    private String _getFavoritesSql;
+    private String _getFavoritesPageSql;
+    private String _countFavoritesSql;
+    private String _filterFavoritesSql;
+
+    public SqlLiteManager() {
+        Load();
+    }
+
+    /**
+     * Builds the SQL strings and opens the connection.
      */
     @Override
-    public void Load() {}
+    public void Load() {
+        String prefix = getConfig().getString("storage.tablePrefix");
+        String table = String.format("%s_favorites", prefix);
+        _table = table;
+        _schemaTable = String.format("%s_schema", prefix);
+        _url = String.format("jdbc:sqlite:plugins/OpenHeads/%s.db", getConfig().getString("storage.filename"));
+        // The unique index makes adding an existing favorite a no-op
+        _addFavoriteSql = String.format("INSERT OR IGNORE INTO %s (PlayerId, Category, HeadName) VALUES (?, ?, ?);", table);
+        _removeFavoriteSql = String.format("DELETE FROM %s WHERE PlayerId=? AND Category=? AND HeadName=?;", table);
+        _isFavoriteSql = String.format("SELECT 1 FROM %s WHERE PlayerId=? AND Category=? AND HeadName=? LIMIT 1;", table);
+        _getFavoritesSql = String.format("SELECT PlayerId, Category, HeadName FROM %s WHERE PlayerId=? ORDER BY rowid;", table);
+        _getFavoritesPageSql = String.format("SELECT rowid, Category, HeadName FROM %s WHERE PlayerId=? AND rowid>? ORDER BY rowid LIMIT ?;", table);
+        _countFavoritesSql = String.format("SELECT COUNT(*) FROM %s WHERE PlayerId=?;", table);
+        _filterFavoritesSql = String.format("SELECT Category, HeadName FROM %s WHERE PlayerId=? AND (Category, HeadName) IN (%s);",
+                table, String.join(", ", Collections.nCopies(FILTER_CHUNK_SIZE, "(?, ?)")));
+
+        _lock.lock();
+        try {
+            getConnection();
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while creating db connection...\n%s", ex.getMessage()));
+        } finally {
+            _lock.unlock();
+        }
+    }
 
     /**
-     * Unloads the database manager. No operation is performed for SQLite.
+     * Closes the cached statements and the connection.
      */
     @Override
-    public void Unload() {}
+    public void Unload() {
+        _lock.lock();
+        try {
+            closeConnection();
+        } finally {
+            _lock.unlock();
+        }
+    }
 
     /**
-     * Creates a connection to the SQLite database.
+     * Creates a connection to the SQLite database, with WAL journaling and relaxed syncing.
      * @return A Connection instance to the SQLite database, or null if an error occurs.
      */
     public Connection CreateConnection() {
         try {
             Class.forName("org.sqlite.JDBC");
-            return DriverManager.getConnection(String.format("jdbc:sqlite:plugins/OpenHeads/%s.db", getConfig().getString("storage.filename")));
+            Connection connection = DriverManager.getConnection(_url);
+            try (Statement statement = connection.createStatement()) {
+                // Readers do not block the writer and commits do not wait for a full fsync
+                statement.execute("PRAGMA journal_mode=WAL;");
+                statement.execute("PRAGMA synchronous=NORMAL;");
+                statement.execute("PRAGMA busy_timeout=5000;");
+            }
+            return connection;
         } catch (Exception ex) {
             _logger.Error(String.format("Unknown error happened while creating db connection...\n%s", ex.getMessage()));
             return null;
@@ -59,25 +124,102 @@ public class SqlLiteManager implements IDatabase {
     }
 
     /**
-     * Ensures the database schema is up-to-date by creating necessary tables if they do not exist.
+     * Gets the open connection, reopening it if it was closed. The lock must be held.
+     * @return The open connection.
+     * @throws SQLException If the connection could not be opened.
+     */
+    private Connection getConnection() throws SQLException {
+        if (_connection != null && !_connection.isClosed())
+            return _connection;
+
+        closeConnection();
+        _connection = CreateConnection();
+        if (_connection == null)
+            throw new SQLException("Failed to open the SQLite database.");
+        return _connection;
+    }
+
+    /**
+     * Gets the cached prepared statement of the given SQL, preparing it on first use. The lock must be held.
+     * @param sql The SQL of the statement.
+     * @return The prepared statement.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    private PreparedStatement prepare(String sql) throws SQLException {
+        Connection connection = getConnection();
+        PreparedStatement statement = _statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            _statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Closes the cached statements and the connection. The lock must be held.
+     */
+    private void closeConnection() {
+        for (PreparedStatement statement : _statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        _statements.clear();
+
+        if (_connection != null) {
+            try {
+                _connection.close();
+            } catch (SQLException ex) {
+                _logger.Warn(String.format("Failed to close the db connection...\n%s", ex.getMessage()));
+            }
+            _connection = null;
+        }
+    }
+
+    /**
+     * Ensures the database schema is up-to-date by applying the missing migrations.
      */
     @Override
     public void CheckSchema() {
-        try (Connection connection = CreateConnection()) {
-            // Favorites table
-            String sql = String.format("CREATE TABLE IF NOT EXISTS %s_favorites (" +
-                            "PlayerId VARCHAR(36), " +
-                            "Category VARCHAR(200), " +
-                            "HeadName VARCHAR(200));",
-                    getConfig().getString("storage.tablePrefix")
-            );
-            PreparedStatement statement = connection.prepareStatement(sql);
-            statement.executeUpdate();
+        _lock.lock();
+        try {
+            SchemaMigrator.migrate(getConnection(), _schemaTable, getMigrations());
         } catch (Exception ex) {
             _logger.Error(String.format("Unknown error happened while creating tables...\n%s", ex.getMessage()));
+        } finally {
+            _lock.unlock();
         }
     }
 
+    /**
+     * Gets the migrations of the SQLite schema.
+     * @return The migrations, in version order.
+     */
+    private List<SchemaMigration> getMigrations() {
+        return List.of(
+                new SchemaMigration(1, "Create favorites table", connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate(String.format("CREATE TABLE IF NOT EXISTS %s (" +
+                                "PlayerId VARCHAR(36), " +
+                                "Category VARCHAR(200), " +
+                                "HeadName VARCHAR(200));", _table));
+                    }
+                }),
+                new SchemaMigration(2, "Remove duplicate favorites and add unique index", connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        int removed = statement.executeUpdate(String.format("DELETE FROM %1$s WHERE rowid NOT IN (" +
+                                "SELECT MIN(rowid) FROM %1$s GROUP BY PlayerId, Category, HeadName);", _table));
+                        if (removed > 0)
+                            _logger.Info(String.format("Removed %d duplicate favorites.", removed));
+                        // The player comes first, so the index also serves the lookups of a single player
+                        statement.executeUpdate(String.format("CREATE UNIQUE INDEX IF NOT EXISTS %1$s_player_head " +
+                                "ON %1$s (PlayerId, Category, HeadName);", _table));
+                    }
+                })
+        );
+    }
+
     /**
      * Adds a favorite entry to the database.
      * @param owner The UUID of the player.
@@ -86,18 +228,17 @@ public class SqlLiteManager implements IDatabase {
      */
     @Override
     public void AddFavorite(UUID owner, String category, String headName) {
-        try (Connection connection = CreateConnection()) {
-            String sql = String.format("INSERT INTO %s_favorites (PlayerId, Category, HeadName) " +
-                            "VALUES (?, ?, ?);",
-                    getConfig().getString("storage.tablePrefix"));
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, owner.toString());
-                statement.setString(2, category);
-                statement.setString(3, headName);
-                statement.executeUpdate();
-            }
+        _lock.lock();
+        try {
+            PreparedStatement statement = prepare(_addFavoriteSql);
+            statement.setString(1, owner.toString());
+            statement.setString(2, category);
+            statement.setString(3, headName);
+            statement.executeUpdate();
         } catch (Exception ex) {
             _logger.Error(String.format("Unknown error happened while adding favorite...\n%s", ex.getMessage()));
+        } finally {
+            _lock.unlock();
         }
     }
 
@@ -109,20 +250,75 @@ public class SqlLiteManager implements IDatabase {
      */
     @Override
     public void RemoveFavorite(UUID owner, String category, String headName) {
-        try (Connection connection = CreateConnection()) {
-            String sql = String.format("DELETE FROM %s_favorites WHERE PlayerId=? AND Category=? AND HeadName=?;",
-                    getConfig().getString("storage.tablePrefix"));
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, owner.toString());
-                statement.setString(2, category);
-                statement.setString(3, headName);
-                statement.executeUpdate();
-            }
+        _lock.lock();
+        try {
+            PreparedStatement statement = prepare(_removeFavoriteSql);
+            statement.setString(1, owner.toString());
+            statement.setString(2, category);
+            statement.setString(3, headName);
+            statement.executeUpdate();
         } catch (Exception ex) {
             _logger.Error(String.format("Unknown error happened during the deletion of tables...\n%s", ex.getMessage()));
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Adds and removes several favorites in a single transaction, using batched statements.
+     * @param added The favorites to add.
+     * @param removed The favorites to remove.
+     * @return True if the transaction was committed, false if it was rolled back.
+     */
+    @Override
+    public boolean ApplyFavoriteChanges(List<Favorite> added, List<Favorite> removed) {
+        _lock.lock();
+        Connection connection = null;
+        try {
+            connection = getConnection();
+            connection.setAutoCommit(false);
+            addBatch(prepare(_addFavoriteSql), added);
+            addBatch(prepare(_removeFavoriteSql), removed);
+            connection.commit();
+            return true;
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while writing favorite changes...\n%s", ex.getMessage()));
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException ignored) {
+                }
+            }
+            return false;
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+            _lock.unlock();
         }
     }
 
+    /**
+     * Runs a statement taking a player, a category and a head name for every favorite, as one batch.
+     * @param statement The statement to run.
+     * @param favorites The favorites to run the statement for.
+     * @throws SQLException If the batch failed.
+     */
+    private static void addBatch(PreparedStatement statement, List<Favorite> favorites) throws SQLException {
+        if (favorites.isEmpty())
+            return;
+        for (Favorite favorite : favorites) {
+            statement.setString(1, favorite.PlayerId.toString());
+            statement.setString(2, favorite.CategoryName);
+            statement.setString(3, favorite.HeadName);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
     /**
      * Checks if a specific head is marked as a favorite by a player.
      * @param owner The UUID of the player.
@@ -132,26 +328,21 @@ public class SqlLiteManager implements IDatabase {
      */
     @Override
     public boolean IsFavorite(UUID owner, String category, String headName) {
-        boolean data = false;
-        try (Connection connection = CreateConnection()) {
-            String sql = String.format("SELECT * FROM %s_favorites WHERE PlayerId=? AND Category=? AND HeadName=? LIMIT 1;",
-                    getConfig().getString("storage.tablePrefix"));
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, owner.toString());
-                statement.setString(2, category);
-                statement.setString(3, headName);
-                try (ResultSet result = statement.executeQuery()) {
-                    if (result.next()) {
-                        data = true;
-                    }
-                }
+        _lock.lock();
+        try {
+            PreparedStatement statement = prepare(_isFavoriteSql);
+            statement.setString(1, owner.toString());
+            statement.setString(2, category);
+            statement.setString(3, headName);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next();
             }
         } catch (Exception ex) {
             _logger.Error(String.format("Unknown error happened while finding favorite data...\n%s", ex.getMessage()));
             return false;
+        } finally {
+            _lock.unlock();
         }
-
-        return data;
     }
 
     /**
@@ -173,25 +364,168 @@ public class SqlLiteManager implements IDatabase {
     @Override
     public List<Favorite> GetFavorites(UUID owner) {
         List<Favorite> data = new ArrayList<>();
-        try (Connection connection = CreateConnection()) {
-            String sql = String.format("SELECT * FROM %s_favorites WHERE PlayerId=?;",
-                    getConfig().getString("storage.tablePrefix"));
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        _lock.lock();
+        try {
+            PreparedStatement statement = prepare(_getFavoritesSql);
+            statement.setString(1, owner.toString());
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    data.add(new Favorite(
+                            UUID.fromString(result.getString("PlayerId")),
+                            result.getString("Category"),
+                            result.getString("HeadName")
+                    ));
+                }
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while getting favorite data...\n%s", ex.getMessage()));
+            return null;
+        } finally {
+            _lock.unlock();
+        }
+        return data;
+    }
+
+    /**
+     * Retrieves a page of the favorite entries of a specific player, using the row id as the cursor.
+     * @param owner The UUID of the player.
+     * @param cursor The cursor returned with the previous page, 0 for the first page.
+     * @param limit The maximum number of favorites on the page.
+     * @return The page of favorites, or null if an error occurs.
+     */
+    @Override
+    public FavoritePage GetFavoritesPage(UUID owner, long cursor, int limit) {
+        List<Favorite> data = new ArrayList<>();
+        long nextCursor = cursor;
+        _lock.lock();
+        try {
+            PreparedStatement statement = prepare(_getFavoritesPageSql);
+            statement.setString(1, owner.toString());
+            statement.setLong(2, cursor);
+            statement.setInt(3, limit);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    nextCursor = result.getLong(1);
+                    data.add(new Favorite(owner, result.getString("Category"), result.getString("HeadName")));
+                }
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while getting favorite data...\n%s", ex.getMessage()));
+            return null;
+        } finally {
+            _lock.unlock();
+        }
+        return new FavoritePage(data, nextCursor, data.size() == limit);
+    }
+
+    /**
+     * Counts the favorite entries of a specific player.
+     * @param owner The UUID of the player.
+     * @return The number of favorites, or -1 if an error occurs.
+     */
+    @Override
+    public int CountFavorites(UUID owner) {
+        _lock.lock();
+        try {
+            PreparedStatement statement = prepare(_countFavoritesSql);
+            statement.setString(1, owner.toString());
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? result.getInt(1) : 0;
+            }
+        } catch (Exception ex) {
+            _logger.Error(String.format("Unknown error happened while counting favorite data...\n%s", ex.getMessage()));
+            return -1;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Checks which of the given heads are marked as favorites by a player.
+     * The heads are checked in fixed size chunks, so a single cached statement serves every call.
+     * @param owner The UUID of the player.
+     * @param heads The heads to check.
+     * @return The heads which are favorites, or null if an error occurs.
+     */
+    @Override
+    public Set<Favorite> FilterFavorites(UUID owner, Collection<Favorite> heads) {
+        Set<Favorite> data = new HashSet<>();
+        List<Favorite> list = new ArrayList<>(heads);
+        if (list.isEmpty())
+            return data;
+
+        _lock.lock();
+        try {
+            PreparedStatement statement = prepare(_filterFavoritesSql);
+            for (int start = 0; start < list.size(); start += FILTER_CHUNK_SIZE) {
                 statement.setString(1, owner.toString());
+                for (int i = 0; i < FILTER_CHUNK_SIZE; i++) {
+                    // The last chunk is padded with its last head
+                    Favorite head = list.get(Math.min(start + i, list.size() - 1));
+                    statement.setString(2 + i * 2, head.CategoryName);
+                    statement.setString(3 + i * 2, head.HeadName);
+                }
                 try (ResultSet result = statement.executeQuery()) {
                     while (result.next()) {
-                        data.add(new Favorite(
-                                UUID.fromString(result.getString("PlayerId")),
-                                result.getString("Category"),
-                                result.getString("HeadName")
-                        ));
+                        data.add(new Favorite(owner, result.getString("Category"), result.getString("HeadName")));
                     }
                 }
             }
         } catch (Exception ex) {
-            _logger.Error(String.format("Unknown error happened while getting favorite data...\n%s", ex.getMessage()));
+            _logger.Error(String.format("Unknown error happened while finding favorite data...\n%s", ex.getMessage()));
             return null;
+        } finally {
+            _lock.unlock();
         }
         return data;
     }
-}
\ No newline at end of file
+
+    /**
+     * A local SQLite database is never shared between servers, so it keeps no change log.
+     * @return Always false.
+     */
+    @Override
+    public boolean HasChangeLog() {
+        return false;
+    }
+
+    /**
+     * A local SQLite database keeps no change log.
+     * @return Always 0.
+     */
+    @Override
+    public long GetLastChangeSequence() {
+        return 0;
+    }
+
+    /**
+     * A local SQLite database keeps no change log.
+     * @param after The sequence number to start after.
+     * @param limit The maximum number of changes to read.
+     * @return Always an empty list.
+     */
+    @Override
+    public List<FavoriteChange> GetFavoriteChanges(long after, int limit) {
+        return new ArrayList<>();
+    }
+
+    /**
+     * A local SQLite database keeps no change log.
+     * @param sequences The sequence numbers of the changes.
+     * @return Always an empty list.
+     */
+    @Override
+    public List<FavoriteChange> GetFavoriteChanges(Collection<Long> sequences) {
+        return new ArrayList<>();
+    }
+
+    /**
+     * A local SQLite database keeps no change log.
+     * @param maxAgeSeconds The age of the oldest change kept, in seconds.
+     * @return Always 0.
+     */
+    @Override
+    public int PruneFavoriteChanges(int maxAgeSeconds) {
+        return 0;
+    }
+}
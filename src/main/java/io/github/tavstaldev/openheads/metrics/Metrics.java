@@ -0,0 +1,181 @@
+package io.github.tavstaldev.openheads.metrics;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.managers.FavoriteWriteQueue;
+import io.github.tavstaldev.openheads.managers.PlayerManager;
+import io.github.tavstaldev.openheads.managers.SearchManager;
+import io.github.tavstaldev.openheads.utils.HeadIconCache;
+import io.github.tavstaldev.openheads.utils.HeadUtils;
+import io.github.tavstaldev.openheads.utils.MenuItemCache;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Plugin-wide registry of the counters, timers and gauges of OpenHeads.
+ * Counters and timers are created on first use and are cheap enough to be updated on the main thread,
+ * gauges read the state of the other modules only when the metrics are read.
+ * The metrics are shown by the stats command and exported as a JMX MBean, see {@link MetricsExporter}.
+ */
+public class Metrics {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(Metrics.class);
+    /**
+     * The name the metrics are exported under in JMX.
+     */
+    public static final String OBJECT_NAME = "io.github.tavstaldev.openheads:type=Metrics";
+    private static final Map<String, LongAdder> _counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Timer> _timers = new ConcurrentSkipListMap<>();
+    private static final Map<String, Supplier<Number>> _gauges = new ConcurrentSkipListMap<>();
+    private static ObjectName _objectName;
+
+    /**
+     * Registers the gauges of the plugin and exports the metrics to JMX.
+     */
+    public static synchronized void init() {
+        gauge("catalog.heads", () -> HeadUtils.getCatalog().HeadCount);
+        gauge("catalog.categories", () -> HeadUtils.getCatalog().Categories.size());
+        gauge("catalog.loadMillis", () -> HeadUtils.getCatalog().LoadMillis);
+        gauge("players.sessions", PlayerManager::getSessionCount);
+        gauge("players.cachedMenus", PlayerManager::getCachedMenuCount);
+        gauge("players.loadedHeadLists", PlayerManager::getLoadedHeadListCount);
+        gauge("cache.icons.size", HeadIconCache::size);
+        gauge("cache.icons.hitRate", HeadIconCache::getHitRate);
+        gauge("cache.icons.evictions", HeadIconCache::getEvictions);
+        gauge("cache.menuItems.size", MenuItemCache::size);
+        gauge("cache.search.size", SearchManager::size);
+        gauge("cache.search.hitRate", SearchManager::getHitRate);
+        gauge("favorites.queue.depth", FavoriteWriteQueue::getQueueDepth);
+        gauge("favorites.queue.written", FavoriteWriteQueue::getWrittenCount);
+        gauge("favorites.queue.failed", FavoriteWriteQueue::getFailedCount);
+        gauge("favorites.queue.dropped", FavoriteWriteQueue::getDroppedCount);
+        gauge("favorites.queue.coalesced", FavoriteWriteQueue::getCoalescedCount);
+        gauge("favorites.queue.flushMillis", FavoriteWriteQueue::getAverageFlushMillis);
+
+        if (_objectName != null)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            // A previous instance of the plugin might have been left registered by a plugin manager reload
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(new MetricsExporter(), objectName);
+            _objectName = objectName;
+            _logger.Debug(String.format("Metrics exported to JMX as %s.", OBJECT_NAME));
+        } catch (Exception ex) {
+            _logger.Warn("Failed to export the metrics to JMX.");
+            _logger.Error(ex.getMessage());
+        }
+    }
+
+    /**
+     * Removes the metrics from JMX.
+     */
+    public static synchronized void shutdown() {
+        if (_objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+        } catch (Exception ex) {
+            _logger.Error(ex.getMessage());
+        }
+        _objectName = null;
+    }
+
+    /**
+     * Gets a counter, creating it if needed.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public static LongAdder counter(String name) {
+        return _counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * Gets a timer, creating it if needed.
+     *
+     * @param name the name of the timer
+     * @return the timer
+     */
+    public static Timer timer(String name) {
+        return _timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Registers a gauge, replacing the previous one with the same name.
+     *
+     * @param name the name of the gauge
+     * @param value reads the current value of the gauge
+     */
+    public static void gauge(String name, Supplier<Number> value) {
+        _gauges.put(name, value);
+    }
+
+    /**
+     * Gets the counters.
+     *
+     * @return the live counters, sorted by name
+     */
+    public static Map<String, LongAdder> getCounters() {
+        return _counters;
+    }
+
+    /**
+     * Gets the timers.
+     *
+     * @return the live timers, sorted by name
+     */
+    public static Map<String, Timer> getTimers() {
+        return _timers;
+    }
+
+    /**
+     * Reads the current value of every gauge.
+     * A gauge which fails to read is left out.
+     *
+     * @return the values of the gauges, sorted by name
+     */
+    public static SortedMap<String, Number> readGauges() {
+        SortedMap<String, Number> result = new TreeMap<>();
+        for (var entry : _gauges.entrySet()) {
+            try {
+                result.put(entry.getKey(), entry.getValue().get());
+            } catch (Exception ex) {
+                _logger.Debug(String.format("Failed to read the gauge %s: %s", entry.getKey(), ex.getMessage()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads every metric as flat values: the counters and gauges by their names,
+     * and the count, mean, percentiles and maximum of every timer with a suffix.
+     *
+     * @return the values of the metrics, sorted by name
+     */
+    public static SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> result = readGauges();
+        for (var entry : _counters.entrySet())
+            result.put(entry.getKey(), entry.getValue().sum());
+        for (var entry : _timers.entrySet()) {
+            String name = entry.getKey();
+            Timer timer = entry.getValue();
+            result.put(name + ".count", timer.getCount());
+            result.put(name + ".meanMillis", timer.getMeanMillis());
+            result.put(name + ".p50Millis", timer.getPercentileMillis(50));
+            result.put(name + ".p95Millis", timer.getPercentileMillis(95));
+            result.put(name + ".p99Millis", timer.getPercentileMillis(99));
+            result.put(name + ".maxMillis", timer.getMaxMillis());
+        }
+        return result;
+    }
+}
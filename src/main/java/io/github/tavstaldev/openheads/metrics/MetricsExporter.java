@@ -0,0 +1,94 @@
+package io.github.tavstaldev.openheads.metrics;
+
+import javax.management.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only JMX view of the metrics registry.
+ * Every value of {@link Metrics#snapshot()} is an attribute, so JVM monitoring tools can scrape them without knowing the plugin.
+ * The attributes are read from the registry on every request, so metrics created later show up too.
+ */
+public class MetricsExporter implements DynamicMBean {
+    /**
+     * Reads a single metric.
+     *
+     * @param attribute the name of the metric
+     * @return the current value of the metric
+     * @throws AttributeNotFoundException if there is no such metric
+     */
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = Metrics.snapshot().get(attribute);
+        if (value == null)
+            throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    /**
+     * The metrics are read-only, so this always fails.
+     *
+     * @param attribute the attribute to set
+     * @throws AttributeNotFoundException always
+     */
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(String.format("The metric %s is read-only.", attribute.getName()));
+    }
+
+    /**
+     * Reads several metrics at once, from the same snapshot.
+     *
+     * @param attributes the names of the metrics
+     * @return the values of the metrics which exist
+     */
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> snapshot = Metrics.snapshot();
+        AttributeList result = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = snapshot.get(attribute);
+            if (value != null)
+                result.add(new Attribute(attribute, value));
+        }
+        return result;
+    }
+
+    /**
+     * The metrics are read-only, so nothing is set.
+     *
+     * @param attributes the attributes to set
+     * @return an empty list
+     */
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    /**
+     * The metrics have no operations, so this always fails.
+     *
+     * @throws ReflectionException always
+     */
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    /**
+     * Describes the metrics which exist right now, every one of them as a read-only attribute.
+     *
+     * @return the description of the MBean
+     */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (var entry : Metrics.snapshot().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    entry.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "OpenHeads metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.tavstaldev.openheads.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Feeds the statistics of a HikariCP connection pool into the plugin metrics.
+ * The time spent waiting for and holding a connection are recorded as timers,
+ * the connection counts of the pool are registered as gauges when the pool starts.
+ */
+public class PoolMetricsTracker implements IMetricsTracker {
+    private final Timer _acquire = Metrics.timer("db.pool.acquire");
+    private final Timer _usage = Metrics.timer("db.pool.usage");
+    private final Timer _create = Metrics.timer("db.pool.create");
+    private final LongAdder _timeouts = Metrics.counter("db.pool.timeouts");
+
+    /**
+     * Creates the factory HikariCP uses to create the tracker of a pool.
+     *
+     * @return the factory
+     */
+    public static MetricsTrackerFactory factory() {
+        return (poolName, poolStats) -> {
+            registerGauges(poolStats);
+            return new PoolMetricsTracker();
+        };
+    }
+
+    /**
+     * Registers the connection counts of a pool as gauges.
+     * The statistics are refreshed by HikariCP at most once a second, so reading them is cheap.
+     *
+     * @param poolStats the statistics of the pool
+     */
+    private static void registerGauges(PoolStats poolStats) {
+        Metrics.gauge("db.pool.active", poolStats::getActiveConnections);
+        Metrics.gauge("db.pool.idle", poolStats::getIdleConnections);
+        Metrics.gauge("db.pool.total", poolStats::getTotalConnections);
+        Metrics.gauge("db.pool.waiting", poolStats::getPendingThreads);
+    }
+
+    /**
+     * Records the time it took to open a new physical connection.
+     *
+     * @param connectionCreatedMillis the time in milliseconds
+     */
+    @Override
+    public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+        _create.record(connectionCreatedMillis * 1_000_000);
+    }
+
+    /**
+     * Records the time a caller waited for a connection from the pool.
+     *
+     * @param elapsedAcquiredNanos the time in nanoseconds
+     */
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+        _acquire.record(elapsedAcquiredNanos);
+    }
+
+    /**
+     * Records the time a connection was held before it was returned to the pool.
+     *
+     * @param elapsedBorrowedMillis the time in milliseconds
+     */
+    @Override
+    public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+        _usage.record(elapsedBorrowedMillis * 1_000_000);
+    }
+
+    /**
+     * Counts a caller which gave up waiting for a connection.
+     */
+    @Override
+    public void recordConnectionTimeout() {
+        _timeouts.increment();
+    }
+}
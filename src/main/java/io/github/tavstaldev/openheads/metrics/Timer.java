@@ -0,0 +1,129 @@
+package io.github.tavstaldev.openheads.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low-overhead latency histogram.
+ * Every power of two of nanoseconds is split into four buckets, so recording is a couple of atomic increments
+ * and a percentile is off by at most a quarter of its value, whatever the range of the recorded times.
+ * The histogram covers the whole uptime of the plugin, it is never reset.
+ */
+public class Timer {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder _count = new LongAdder();
+    private final LongAdder _total = new LongAdder();
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * Records a measured time.
+     *
+     * @param nanos the time, in nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0L, nanos);
+        _buckets.incrementAndGet(bucket(nanos));
+        _count.increment();
+        _total.add(nanos);
+        _max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Records the time elapsed since the given start.
+     *
+     * @param startNanos the start, as returned by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Gets the number of recorded times.
+     *
+     * @return the number of recorded times
+     */
+    public long getCount() {
+        return _count.sum();
+    }
+
+    /**
+     * Gets the mean of the recorded times.
+     *
+     * @return the mean in milliseconds, 0 if nothing has been recorded
+     */
+    public double getMeanMillis() {
+        long count = _count.sum();
+        return count == 0 ? 0 : _total.sum() / (double) count / 1_000_000.0;
+    }
+
+    /**
+     * Gets the longest recorded time.
+     *
+     * @return the longest time in milliseconds
+     */
+    public double getMaxMillis() {
+        return _max.get() / 1_000_000.0;
+    }
+
+    /**
+     * Gets a percentile of the recorded times.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the estimated time at the percentile in milliseconds, 0 if nothing has been recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _buckets.get(i);
+            count += counts[i];
+        }
+        if (count == 0)
+            return 0;
+
+        long target = Math.max(1L, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                // The middle of the bucket, but never above the longest recorded time
+                long middle = lowerBound(i) + (width(i) - 1) / 2;
+                return Math.min(middle, _max.get()) / 1_000_000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Gets the bucket of a time: the times below four have their own buckets,
+     * the rest are placed by their highest bit and the two bits after it.
+     */
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the smallest time of a bucket.
+     */
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Gets the number of distinct times of a bucket.
+     */
+    private static long width(int bucket) {
+        return bucket < SUB_BUCKETS ? 1L : 1L << (bucket / SUB_BUCKETS - 1);
+    }
+}
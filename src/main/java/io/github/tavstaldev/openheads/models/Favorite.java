@@ -1,5 +1,6 @@
 package io.github.tavstaldev.openheads.models;
 
+import java.util.Objects;
 import java.util.UUID;
 
 public class Favorite {
@@ -30,4 +31,20 @@ public class Favorite {
         CategoryName = category;
         HeadName = headName;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof Favorite other))
+            return false;
+        return Objects.equals(PlayerId, other.PlayerId)
+                && Objects.equals(CategoryName, other.CategoryName)
+                && Objects.equals(HeadName, other.HeadName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(PlayerId, CategoryName, HeadName);
+    }
 }
@@ -0,0 +1,41 @@
+package io.github.tavstaldev.openheads.models;
+
+/**
+ * A favorite change read from the change log shared by the servers using the same database.
+ */
+public class FavoriteChange {
+    /**
+     * The position of the change in the log. Grows with every change, but might have gaps.
+     */
+    public final long Sequence;
+
+    /**
+     * The favorite which was changed.
+     */
+    public final Favorite Favorite;
+
+    /**
+     * Indicates if the favorite was added, false if it was removed.
+     */
+    public final boolean IsAdd;
+
+    /**
+     * Indicates if the change was made by another server.
+     */
+    public final boolean IsRemote;
+
+    /**
+     * Constructs a new FavoriteChange object with the specified parameters.
+     *
+     * @param sequence The position of the change in the log.
+     * @param favorite The favorite which was changed.
+     * @param isAdd Indicates if the favorite was added, false if it was removed.
+     * @param isRemote Indicates if the change was made by another server.
+     */
+    public FavoriteChange(long sequence, Favorite favorite, boolean isAdd, boolean isRemote) {
+        Sequence = sequence;
+        Favorite = favorite;
+        IsAdd = isAdd;
+        IsRemote = isRemote;
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.tavstaldev.openheads.models;
+
+import java.util.List;
+
+/**
+ * A page of a player's favorites, read with keyset pagination.
+ */
+public class FavoritePage {
+    /**
+     * The favorites on the page, in the order they were added.
+     */
+    public final List<Favorite> Favorites;
+
+    /**
+     * The cursor to pass to get the next page.
+     */
+    public final long NextCursor;
+
+    /**
+     * Indicates if there might be more favorites after this page.
+     */
+    public final boolean HasMore;
+
+    /**
+     * Constructs a new FavoritePage object with the specified parameters.
+     *
+     * @param favorites The favorites on the page.
+     * @param nextCursor The cursor to pass to get the next page.
+     * @param hasMore Indicates if there might be more favorites after this page.
+     */
+    public FavoritePage(List<Favorite> favorites, long nextCursor, boolean hasMore) {
+        Favorites = favorites;
+        NextCursor = nextCursor;
+        HasMore = hasMore;
+    }
+}
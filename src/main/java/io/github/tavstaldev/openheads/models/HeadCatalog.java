@@ -0,0 +1,207 @@
+package io.github.tavstaldev.openheads.models;
+
+import io.github.tavstaldev.openheads.utils.HeadSearchIndex;
+import io.github.tavstaldev.openheads.utils.HeadStringPool;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of the whole head catalog: the categories, their heads and every index built over them.
+ * A snapshot is built completely before it is published, and it is never changed afterwards,
+ * so readers holding an older snapshot keep working while a new one is being loaded.
+ */
+public class HeadCatalog {
+    /**
+     * The catalog used before the first snapshot is loaded.
+     */
+    public static final HeadCatalog EMPTY = new HeadCatalog(List.of(), 0L, new HeadStringPool());
+
+    /**
+     * The categories of the catalog, in the order of the categories file.
+     */
+    public final List<HeadCategory> Categories;
+
+    /**
+     * The pool of the names and tags of the heads. A patched snapshot shares the pool of the snapshot it was built from.
+     */
+    public final HeadStringPool Strings;
+
+    /**
+     * The search index built over every head of the catalog.
+     */
+    public final HeadSearchIndex SearchIndex;
+
+    /**
+     * The number of heads in the catalog.
+     */
+    public final int HeadCount;
+
+    /**
+     * The time it took to load the catalog, in milliseconds.
+     */
+    public final long LoadMillis;
+
+    private final Map<String, HeadCategory> _categoriesByName;
+    private final Map<String, HeadNameIndex> _headsByCategory;
+
+    /**
+     * Builds a snapshot over categories whose heads are already loaded.
+     *
+     * @param categories the loaded categories
+     * @param loadMillis the time it took to load the categories, in milliseconds
+     * @param strings the pool the heads of the categories were loaded into
+     */
+    public HeadCatalog(List<HeadCategory> categories, long loadMillis, HeadStringPool strings) {
+        this(categories, loadMillis, strings, null);
+    }
+
+    /**
+     * Builds a snapshot over categories whose heads are already loaded,
+     * reusing the indexes of a previous snapshot for the categories which are shared with it.
+     * The changed categories must have been loaded into the pool of the previous snapshot.
+     *
+     * @param categories the loaded categories
+     * @param loadMillis the time it took to load the changed categories, in milliseconds
+     * @param previous the previous snapshot
+     */
+    public HeadCatalog(List<HeadCategory> categories, long loadMillis, HeadCatalog previous) {
+        this(categories, loadMillis, previous.Strings, previous);
+    }
+
+    /**
+     * Builds a snapshot over categories whose heads are already loaded.
+     *
+     * @param categories the loaded categories
+     * @param loadMillis the time it took to load the categories, in milliseconds
+     * @param strings the pool the heads of the categories were loaded into
+     * @param previous the previous snapshot, or null to index every category
+     */
+    private HeadCatalog(List<HeadCategory> categories, long loadMillis, HeadStringPool strings, HeadCatalog previous) {
+        Categories = List.copyOf(categories);
+        Strings = strings;
+        SearchIndex = HeadSearchIndex.build(Categories, previous == null ? null : previous.SearchIndex);
+        HeadCount = SearchIndex.size();
+        LoadMillis = loadMillis;
+        _categoriesByName = buildCategoryIndex(Categories);
+        _headsByCategory = buildHeadIndex(Categories, previous);
+    }
+
+    /**
+     * Retrieves a head category by its name.
+     *
+     * @param categoryName the name of the category to search for
+     * @return the HeadCategory object if found, null otherwise
+     */
+    public HeadCategory getCategory(String categoryName) {
+        return _categoriesByName.get(categoryName);
+    }
+
+    /**
+     * Retrieves the head data for a specific head within a specified category.
+     *
+     * @param categoryName the name of the category to search in
+     * @param headName the name of the head to retrieve
+     * @return the HeadData object if found, null otherwise
+     */
+    public HeadData getHead(String categoryName, String headName) {
+        HeadNameIndex heads = _headsByCategory.get(categoryName);
+        return heads == null ? null : heads.get(headName);
+    }
+
+    /**
+     * Builds the lookup map of the categories, keyed by their names.
+     * If two categories share a name, the first one wins, like it did with the linear search.
+     *
+     * @param categories the categories to index
+     * @return the immutable map of the categories
+     */
+    private static Map<String, HeadCategory> buildCategoryIndex(List<HeadCategory> categories) {
+        Map<String, HeadCategory> result = new HashMap<>(categories.size() * 4 / 3 + 1);
+        for (var cat : categories) {
+            result.putIfAbsent(cat.Name, cat);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Builds the lookup indexes of the heads, keyed by the category name and then by the head name.
+     * If two heads of a category share a name, the first one wins.
+     * The indexes of the categories shared with the previous snapshot are reused.
+     *
+     * @param categories the loaded categories to index
+     * @param previous the previous snapshot, or null
+     * @return the immutable map of the head indexes
+     */
+    private static Map<String, HeadNameIndex> buildHeadIndex(List<HeadCategory> categories, HeadCatalog previous) {
+        Map<String, HeadNameIndex> result = new HashMap<>(categories.size() * 4 / 3 + 1);
+        for (var cat : categories) {
+            List<HeadData> heads = cat.getHeads();
+            if (heads == null || result.containsKey(cat.Name))
+                continue;
+            if (previous != null && previous.getCategory(cat.Name) == cat) {
+                HeadNameIndex previousHeads = previous._headsByCategory.get(cat.Name);
+                if (previousHeads != null) {
+                    result.put(cat.Name, previousHeads);
+                    continue;
+                }
+            }
+            result.put(cat.Name, new HeadNameIndex(heads));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Open-addressing hash table from the names of the heads of a category to their positions in the category's list.
+     * Only the positions are stored and the names are read from the list while probing,
+     * so the heads of a mapped catalog are not decoded to build the table, only the head which is looked up.
+     */
+    private static final class HeadNameIndex {
+        private final List<HeadData> _heads;
+        /**
+         * The position of a head plus one in every used slot, 0 in the free ones.
+         */
+        private final int[] _slots;
+        private final int _mask;
+
+        HeadNameIndex(List<HeadData> heads) {
+            _heads = heads;
+            int capacity = 2;
+            while (capacity < heads.size() * 2)
+                capacity <<= 1;
+            _slots = new int[capacity];
+            _mask = capacity - 1;
+            for (int i = 0; i < heads.size(); i++) {
+                String name = IHeadList.nameOf(heads, i);
+                if (name == null)
+                    continue;
+                int slot = find(name);
+                if (_slots[slot] == 0)
+                    _slots[slot] = i + 1;
+            }
+        }
+
+        /**
+         * Finds the slot holding a name, or the free slot where it would be stored.
+         */
+        private int find(String name) {
+            int hash = name.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & _mask;
+            while (_slots[slot] != 0 && !name.equals(IHeadList.nameOf(_heads, _slots[slot] - 1)))
+                slot = (slot + 1) & _mask;
+            return slot;
+        }
+
+        /**
+         * Gets the head with a name.
+         *
+         * @param name the name of the head
+         * @return the head, or null if the category has no head with the name
+         */
+        HeadData get(String name) {
+            if (name == null)
+                return null;
+            int position = _slots[find(name)];
+            return position == 0 ? null : _heads.get(position - 1);
+        }
+    }
+}
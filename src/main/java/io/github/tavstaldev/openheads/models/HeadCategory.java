@@ -2,13 +2,15 @@ package io.github.tavstaldev.openheads.models;
 
 import com.destroystokyo.paper.profile.PlayerProfile;
 import com.destroystokyo.paper.profile.ProfileProperty;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import io.github.tavstaldev.minecorelib.core.PluginLogger;
 import io.github.tavstaldev.minecorelib.utils.ChatUtils;
 import io.github.tavstaldev.minecorelib.utils.GuiUtils;
 import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.metrics.Metrics;
 import io.github.tavstaldev.openheads.utils.EconomyUtils;
+import io.github.tavstaldev.openheads.utils.HeadCatalogCodec;
+import io.github.tavstaldev.openheads.utils.HeadStringPool;
+import io.github.tavstaldev.openheads.utils.MenuItemCache;
 import net.kyori.adventure.text.Component;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
@@ -16,7 +18,6 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.SkullMeta;
 
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -24,6 +25,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 public class HeadCategory {
@@ -70,7 +72,7 @@ public class HeadCategory {
     /**
      * A list of head data associated with the head category.
      */
-    private List<HeadData> _heads;
+    private volatile List<HeadData> _heads;
 
     /**
      * Gets the list of head data associated with the head category.
@@ -86,11 +88,6 @@ public class HeadCategory {
      */
     private final PluginLogger _logger;
 
-    /**
-     * The icon representing the head category.
-     */
-    private ItemStack _icon;
-
     /**
      * Constructs a new HeadCategory object with the specified parameters.
      *
@@ -116,8 +113,56 @@ public class HeadCategory {
         _logger = OpenHeads.Instance.getCustomLogger().WithModule(String.format("%s Category", Name));
     }
 
+    /**
+     * Gets the name of the head data file associated with the head category.
+     *
+     * @return the name of the JSON head file
+     */
+    public String getFile() {
+        return _file;
+    }
+
+    /**
+     * Checks if a file in the heads directory belongs to the head category, either as its JSON file or as its binary catalog.
+     *
+     * @param fileName the name of the file
+     * @return true if the file belongs to the category, false otherwise
+     */
+    public boolean usesFile(String fileName) {
+        return _file != null && (_file.equals(fileName) || HeadCatalogCodec.toBinaryFileName(_file).equals(fileName));
+    }
+
+    /**
+     * Checks if another head category was created from the same entry of the categories file.
+     *
+     * @param other the other head category
+     * @return true if every property of the categories is the same, false otherwise
+     */
+    public boolean hasSameDefinition(HeadCategory other) {
+        return other != null
+                && Objects.equals(Name, other.Name)
+                && Objects.equals(DisplayNameKey, other.DisplayNameKey)
+                && Objects.equals(DescriptionKey, other.DescriptionKey)
+                && RequirePermission == other.RequirePermission
+                && Objects.equals(Permission, other.Permission)
+                && Objects.equals(Price, other.Price)
+                && Objects.equals(_file, other._file)
+                && Objects.equals(Texture, other.Texture);
+    }
+
+    /**
+     * Creates a new head category with the same definition, whose heads are not loaded yet.
+     * Used to reload a category without changing the one in use.
+     *
+     * @return the new head category
+     */
+    public HeadCategory copy() {
+        return new HeadCategory(Name, DisplayNameKey, DescriptionKey, RequirePermission, Permission, Price, _file, Texture);
+    }
+
     /**
      * Copies the head data file from the plugin's resources to the plugin's data folder.
+     * If the resources only contain the compiled binary catalog of the file, the binary catalog is copied instead.
      *
      * @return true if the file was successfully copied or already exists, false otherwise
      */
@@ -125,10 +170,12 @@ public class HeadCategory {
         InputStream inputStream;
         Path dirPath = Paths.get(OpenHeads.Instance.getDataFolder().getPath(), "heads");
         Path filePath = Paths.get(dirPath.toString(), _file);
+        Path binaryPath = Paths.get(dirPath.toString(), HeadCatalogCodec.toBinaryFileName(_file));
         if (!Files.exists(dirPath)) {
             try {
                 _logger.Debug("Creating heads directory...");
-                Files.createDirectory(dirPath);
+                // The categories are copied in parallel, so another one might have created it already
+                Files.createDirectories(dirPath);
             } catch (IOException ex) {
                 _logger.Warn("Failed to create heads directory.");
                 _logger.Error(ex.getMessage());
@@ -136,14 +183,20 @@ public class HeadCategory {
             }
         }
 
-        if (!Files.exists(filePath)) {
+        if (!Files.exists(filePath) && !Files.exists(binaryPath)) {
             _logger.Debug(String.format("Copying %s head file...", Name));
             try {
                 inputStream = OpenHeads.Instance.getResource("heads/" + _file);
+                if (inputStream != null) {
+                    Files.copy(inputStream, filePath);
+                    return true;
+                }
+
+                inputStream = OpenHeads.Instance.getResource("heads/" + binaryPath.getFileName());
                 if (inputStream == null) {
                     _logger.Debug(String.format("Failed to get head data file for category '%s'.", Name));
                 } else
-                    Files.copy(inputStream, filePath);
+                    Files.copy(inputStream, binaryPath);
             } catch (IOException ex) {
                 _logger.Warn(String.format("Failed to copy head data file for category '%s'.", Name));
                 _logger.Error(ex.getMessage());
@@ -155,37 +208,57 @@ public class HeadCategory {
 
     /**
      * Loads the head data from the file associated with the head category.
+     * The JSON file is preferred, so it can be edited by hand, otherwise the compiled binary catalog is memory-mapped.
+     * It is safe to call this method from a worker thread, the heads are published once the whole file is read.
      *
+     * @param strings the pool of the catalog the heads are loaded into
      * @return true if the data was successfully loaded, false otherwise
      */
-    public boolean Load() {
+    public boolean Load(HeadStringPool strings) {
         Path dirPath = Paths.get(OpenHeads.Instance.getDataFolder().getPath(), "heads");
         Path filePath = Paths.get(dirPath.toString(), _file);
-        if (!Files.exists(filePath))
-            return false;
+        Path binaryPath = Paths.get(dirPath.toString(), HeadCatalogCodec.toBinaryFileName(_file));
+        boolean isBinary = !Files.exists(filePath);
+        if (isBinary) {
+            if (!Files.exists(binaryPath))
+                return false;
+            filePath = binaryPath;
+        }
 
         _logger.Debug(String.format("Reading %s head file...", Name));
-        Gson gson = new Gson();
-        try (FileReader fileReader = new FileReader(filePath.toFile())) {
-            _heads = gson.fromJson(fileReader, new TypeToken<List<HeadData>>() {}.getType());
+        long start = System.nanoTime();
+        List<HeadData> heads;
+        try {
+            heads = isBinary ? HeadCatalogCodec.readBinary(filePath, strings) : HeadCatalogCodec.readJson(filePath, strings);
         } catch (IOException ex) {
             _logger.Error(String.format("Failed to read or parse the file. Path: %s", filePath));
             _logger.Error(ex.getMessage());
             return false;
         }
+        _heads = heads;
+        Metrics.timer("catalog.category.load").recordSince(start);
+        _logger.Debug(String.format("Loaded %d heads from %s in %d ms.", heads.size(), filePath.getFileName(), (System.nanoTime() - start) / 1_000_000));
         return true;
     }
 
     /**
      * Gets the icon representing the head category for the specified player.
+     * The icon is built once for every locale, see {@link MenuItemCache}.
      *
      * @param player the player for whom the icon is being retrieved
      * @return the ItemStack representing the icon
      */
     public ItemStack GetIcon(Player player) {
-        if (_icon != null)
-            return _icon;
+        return MenuItemCache.get(player, this, () -> createIcon(player));
+    }
 
+    /**
+     * Builds the icon representing the head category in the locale of the specified player.
+     *
+     * @param player the player for whom the icon is being built
+     * @return the ItemStack representing the icon
+     */
+    private ItemStack createIcon(Player player) {
         List<Component> loreList = new ArrayList<>();
         String displayName = OpenHeads.Instance.Localize(player, "GUI.CategoryName").replace("%category%", OpenHeads.Instance.Localize(player, DisplayNameKey));
         String description = OpenHeads.Instance.Localize(player, DescriptionKey);
@@ -219,7 +292,6 @@ public class HeadCategory {
                 skullMeta.setPlayerProfile(profile);
                 result.setItemMeta(meta);
             }
-            _icon = result;
             return result;
         }
         catch (Exception ex) {
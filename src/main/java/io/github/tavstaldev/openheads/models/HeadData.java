@@ -5,6 +5,9 @@ import com.destroystokyo.paper.profile.ProfileProperty;
 import io.github.tavstaldev.minecorelib.utils.ChatUtils;
 import io.github.tavstaldev.minecorelib.utils.GuiUtils;
 import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.utils.HeadCatalogCodec;
+import io.github.tavstaldev.openheads.utils.HeadIconCache;
+import io.github.tavstaldev.openheads.utils.HeadStringPool;
 import net.kyori.adventure.text.Component;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
@@ -14,45 +17,183 @@ import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.inventory.meta.SkullMeta;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
+/**
+ * A head of the catalog, stored in a compact form.
+ * The name is shared through the {@link HeadStringPool} of the catalog, the tags are kept as ids of that pool,
+ * and standard skin textures are kept as the packed hex digits of their hash, the full base64 value is rebuilt on demand.
+ */
 public class HeadData {
+    private static final int[] NO_TAGS = new int[0];
+
     /**
      * The name of the head data.
      */
-    public String Name;
+    public final String Name;
+
+    /**
+     * The pool the tag ids belong to.
+     */
+    private final HeadStringPool _strings;
+
+    /**
+     * The pool ids of the tags, null if the head has no tags at all.
+     */
+    private final int[] _tagIds;
 
     /**
-     * The tags associated with the head data.
+     * The packed hex digits of the skin hash, two per byte, or null if the texture is not a standard skin URL.
      */
-    public String Tags;
+    private final byte[] _textureHash;
 
     /**
-     * The texture associated with the head data.
+     * The number of hex digits in the skin hash.
      */
-    public String Texture;
+    private final byte _textureHashDigits;
+
+    /**
+     * The texture value, only kept if it could not be stored as a skin hash.
+     */
+    private final String _rawTexture;
 
     /**
      * Constructs a new HeadData object with the specified parameters.
      *
+     * @param strings The pool the name and the tags are added to.
      * @param name The name of the head data.
-     * @param tags The tags associated with the head data.
+     * @param tags The tags associated with the head data, separated by commas.
      * @param texture The texture associated with the head data.
      */
-    public HeadData(String name, String tags, String texture) {
+    public HeadData(HeadStringPool strings, String name, String tags, String texture) {
+        _strings = strings;
+        Name = strings.canonicalize(name);
+        if (tags == null) {
+            _tagIds = null;
+        } else {
+            String[] values = tags.split(",", -1);
+            int[] tagIds = new int[values.length];
+            for (int i = 0; i < values.length; i++)
+                tagIds[i] = strings.intern(values[i]);
+            _tagIds = tagIds;
+        }
+
+        String hash = texture == null ? null : HeadCatalogCodec.extractHash(texture);
+        if (hash == null) {
+            _textureHash = null;
+            _textureHashDigits = 0;
+            _rawTexture = texture;
+        } else {
+            _textureHash = HeadCatalogCodec.packHash(hash);
+            _textureHashDigits = (byte) hash.length();
+            _rawTexture = null;
+        }
+    }
+
+    /**
+     * Constructs a new HeadData object from its compact form, used by the binary catalog.
+     *
+     * @param strings The pool the tag ids belong to.
+     * @param name The pooled name of the head data.
+     * @param tagIds The pool ids of the tags, or null if the head has no tags.
+     * @param textureHash The packed hex digits of the skin hash, or null if the texture is not a standard skin URL.
+     * @param textureHashDigits The number of hex digits in the skin hash.
+     * @param rawTexture The texture value, if it is not stored as a skin hash.
+     */
+    public HeadData(HeadStringPool strings, String name, int[] tagIds, byte[] textureHash, int textureHashDigits, String rawTexture) {
+        _strings = strings;
         Name = name;
-        Tags = tags;
-        Texture = texture;
+        _tagIds = tagIds;
+        _textureHash = textureHash;
+        _textureHashDigits = (byte) textureHashDigits;
+        _rawTexture = textureHash == null ? rawTexture : null;
     }
 
     /**
      * Splits the tags associated with the head data into an array of individual tags.
      *
-     * @return an array of strings, each representing a tag
+     * @return an array of strings, each representing a tag, trailing empty tags are left out
      */
     public String[] GetTags() {
-        return Tags.split(",");
+        int[] tagIds = _tagIds == null ? NO_TAGS : _tagIds;
+        int count = tagIds.length;
+        while (count > 0 && _strings.get(tagIds[count - 1]).isEmpty())
+            count--;
+        String[] tags = new String[count];
+        for (int i = 0; i < count; i++)
+            tags[i] = _strings.get(tagIds[i]);
+        return tags;
+    }
+
+    /**
+     * Gets the tags associated with the head data, as they are written in the head file.
+     *
+     * @return the tags separated by commas, or null if the head has no tags
+     */
+    public String GetTagText() {
+        if (_tagIds == null)
+            return null;
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < _tagIds.length; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(_strings.get(_tagIds[i]));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gets the texture associated with the head data. Standard skin textures are rebuilt from their hash on every call.
+     *
+     * @return the base64 texture value, or null if the head has no texture
+     */
+    public String GetTexture() {
+        if (_textureHash == null)
+            return _rawTexture;
+        return HeadCatalogCodec.textureFromPackedHash(_textureHash, _textureHashDigits);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof HeadData other))
+            return false;
+        return _textureHashDigits == other._textureHashDigits
+                && Objects.equals(Name, other.Name)
+                && Arrays.equals(_textureHash, other._textureHash)
+                && Objects.equals(_rawTexture, other._rawTexture)
+                && (_strings == other._strings ? Arrays.equals(_tagIds, other._tagIds) : Objects.equals(GetTagText(), other.GetTagText()));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(Name, _rawTexture);
+        result = 31 * result + Arrays.hashCode(_textureHash);
+        // The ids differ between the pools of two catalogs, the tags themselves do not
+        if (_tagIds == null)
+            return 31 * result;
+        for (int tagId : _tagIds)
+            result = 31 * result + _strings.get(tagId).hashCode();
+        return result;
+    }
+
+    /**
+     * Gets an ItemStack representing the head icon for the player.
+     * The icon is taken from the {@link HeadIconCache}, so it is only built once per locale and favorite state.
+     *
+     * @param player the player for whom the icon is being created
+     * @param categoryDisplayNameKey the key for the category display name localization
+     * @param isFavorite whether the head is one of the player's favorites
+     * @return a copy of the ItemStack representing the head icon
+     */
+    public ItemStack GetIcon(Player player, String categoryDisplayNameKey, boolean isFavorite) {
+        return HeadIconCache.get(player, this, categoryDisplayNameKey,
+                isFavorite ? HeadIconCache.Variant.FAVORITE_ICON : HeadIconCache.Variant.ICON,
+                () -> createIcon(player, categoryDisplayNameKey, isFavorite));
     }
 
     /**
@@ -60,11 +201,11 @@ public class HeadData {
      *
      * @param player the player for whom the icon is being created
      * @param categoryDisplayNameKey the key for the category display name localization
+     * @param isFavorite whether the head is one of the player's favorites
      * @return the ItemStack representing the head icon
      */
-    public ItemStack GetIcon(Player player, String category, String categoryDisplayNameKey) {
+    private ItemStack createIcon(Player player, String categoryDisplayNameKey, boolean isFavorite) {
         List<Component> loreList = new ArrayList<>();
-        boolean isFavorite = OpenHeads.Database.IsFavorite(player.getUniqueId(), category, Name);
         String favoriteTxt = OpenHeads.Instance.Localize(player, isFavorite ? "GUI.Favorite.Remove" : "GUI.Favorite.Add");
         String categoryTxt = OpenHeads.Instance.Localize(player, categoryDisplayNameKey);
         for (String lore : OpenHeads.Instance.LocalizeList(player, "GUI.HeadLore"))
@@ -80,13 +221,14 @@ public class HeadData {
 
         try
         {
-            if (Texture == null)
+            String texture = GetTexture();
+            if (texture == null)
                 return GuiUtils.createItem(OpenHeads.Instance, Material.ZOMBIE_HEAD, displayName, loreList);
             var result = GuiUtils.createItem(OpenHeads.Instance, Material.PLAYER_HEAD, displayName, loreList);
             var meta = result.getItemMeta();
             if (meta instanceof SkullMeta skullMeta) {
                 PlayerProfile profile = Bukkit.createProfile(UUID.fromString("bbde04e7-ccb9-49a8-8ad8-08d11b6540d4"));
-                profile.setProperty(new ProfileProperty("textures", Texture));
+                profile.setProperty(new ProfileProperty("textures", texture));
                 skullMeta.setPlayerProfile(profile);
                 result.setItemMeta(meta);
             }
@@ -99,6 +241,19 @@ public class HeadData {
         }
     }
 
+    /**
+     * Gets an ItemStack representing the head item for the player.
+     * The item is taken from the {@link HeadIconCache}, so it is only built once per locale.
+     *
+     * @param player the player for whom the item is being created
+     * @param categoryDisplayNameKey the key for the category display name localization
+     * @return a copy of the ItemStack representing the head item
+     */
+    public ItemStack GetItem(Player player, String categoryDisplayNameKey) {
+        return HeadIconCache.get(player, this, categoryDisplayNameKey, HeadIconCache.Variant.ITEM,
+                () -> createItem(player, categoryDisplayNameKey));
+    }
+
     /**
      * Creates an ItemStack representing the head item for the player.
      *
@@ -106,7 +261,7 @@ public class HeadData {
      * @param categoryDisplayNameKey the key for the category display name localization
      * @return the ItemStack representing the head item
      */
-    public ItemStack GetItem(Player player, String categoryDisplayNameKey) {
+    private ItemStack createItem(Player player, String categoryDisplayNameKey) {
         List<Component> loreList = new ArrayList<>() {{
             add(ChatUtils.translateColors(String.format("&8%s", OpenHeads.Instance.Localize(player, categoryDisplayNameKey)), true));
         }};
@@ -116,7 +271,8 @@ public class HeadData {
 
         try
         {
-            if (Texture == null) {
+            String texture = GetTexture();
+            if (texture == null) {
                 ItemStack item = new ItemStack(Material.ZOMBIE_HEAD, 1);
                 ItemMeta meta = item.getItemMeta();
                 // Set display name
@@ -134,7 +290,7 @@ public class HeadData {
             meta.lore(loreList);
             if (meta instanceof SkullMeta skullMeta) {
                 PlayerProfile profile = Bukkit.createProfile(UUID.fromString("bbde04e7-ccb9-49a8-8ad8-08d11b6540d4"));
-                profile.setProperty(new ProfileProperty("textures", Texture));
+                profile.setProperty(new ProfileProperty("textures", texture));
                 skullMeta.setPlayerProfile(profile);
                 item.setItemMeta(skullMeta);
             }
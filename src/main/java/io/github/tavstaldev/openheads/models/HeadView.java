@@ -0,0 +1,113 @@
+package io.github.tavstaldev.openheads.models;
+
+import java.util.*;
+
+/**
+ * Read-only, lazily evaluated list of heads keyed by their category name, used for paging the heads GUI.
+ * The views do not copy the heads they show, the entries are only created for the indexes which are actually read,
+ * so a page of the GUI touches 45 entries no matter how large the view is.
+ */
+public abstract class HeadView extends AbstractList<Map.Entry<String, HeadData>> implements RandomAccess {
+    /**
+     * An empty view.
+     */
+    public static final HeadView EMPTY = new HeadView() {
+        @Override
+        public Map.Entry<String, HeadData> get(int index) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+    };
+
+    /**
+     * Creates a view over the heads of a category. The view is a window over the category's own list,
+     * so it keeps showing the heads the category had when the view was created, even if the category is reloaded.
+     *
+     * @param category the category
+     * @return the view of the category's heads
+     */
+    public static HeadView ofCategory(HeadCategory category) {
+        List<HeadData> heads = category.getHeads();
+        if (heads == null || heads.isEmpty())
+            return EMPTY;
+        return new CategoryView(category.Name, heads);
+    }
+
+    /**
+     * Creates a view which shows the given views one after the other.
+     *
+     * @param views the views to join
+     * @return the joined view
+     */
+    public static HeadView concat(List<? extends List<Map.Entry<String, HeadData>>> views) {
+        List<List<Map.Entry<String, HeadData>>> parts = new ArrayList<>(views.size());
+        for (var view : views) {
+            if (!view.isEmpty())
+                parts.add(view);
+        }
+        if (parts.isEmpty())
+            return EMPTY;
+        return new ConcatView(parts);
+    }
+
+    /**
+     * A window over the heads of a single category.
+     */
+    private static final class CategoryView extends HeadView {
+        private final String _categoryName;
+        private final List<HeadData> _heads;
+
+        CategoryView(String categoryName, List<HeadData> heads) {
+            _categoryName = categoryName;
+            _heads = heads;
+        }
+
+        @Override
+        public Map.Entry<String, HeadData> get(int index) {
+            return new AbstractMap.SimpleImmutableEntry<>(_categoryName, _heads.get(index));
+        }
+
+        @Override
+        public int size() {
+            return _heads.size();
+        }
+    }
+
+    /**
+     * Several views shown one after the other.
+     */
+    private static final class ConcatView extends HeadView {
+        private final List<List<Map.Entry<String, HeadData>>> _parts;
+        /**
+         * The index of the first entry of every part, followed by the total size.
+         */
+        private final int[] _offsets;
+
+        ConcatView(List<List<Map.Entry<String, HeadData>>> parts) {
+            _parts = parts;
+            _offsets = new int[parts.size() + 1];
+            for (int i = 0; i < parts.size(); i++)
+                _offsets[i + 1] = _offsets[i] + parts.get(i).size();
+        }
+
+        @Override
+        public Map.Entry<String, HeadData> get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException(index);
+            int part = Arrays.binarySearch(_offsets, index);
+            // Empty parts are skipped when the view is created, so an exact match is always the start of a part
+            if (part < 0)
+                part = -part - 2;
+            return _parts.get(part).get(index - _offsets[part]);
+        }
+
+        @Override
+        public int size() {
+            return _offsets[_offsets.length - 1];
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package io.github.tavstaldev.openheads.models;
+
+import io.github.tavstaldev.openheads.metrics.Metrics;
+import io.github.tavstaldev.openheads.utils.AsyncUtils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous variant of {@link IDatabase}.
+ * Every call is executed on the database executor, so it never blocks the server main thread.
+ * The returned futures complete on a database thread, use
+ * {@link AsyncUtils#getMainThreadExecutor()} before touching players or inventories.
+ * The time of every call is recorded in the metrics, under the name of the call.
+ */
+public interface IAsyncDatabase extends IDatabase {
+
+    /**
+     * Adds a head to the user's favorites asynchronously.
+     *
+     * @param owner the UUID of the owner
+     * @param category the category of the head
+     * @param headName the name of the head
+     * @return a future completed once the head has been added
+     */
+    default CompletableFuture<Void> AddFavoriteAsync(UUID owner, String category, String headName) {
+        return CompletableFuture.runAsync(timedRun("db.addFavorite", () -> AddFavorite(owner, category, headName)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Removes a head from the user's favorites asynchronously.
+     *
+     * @param owner the UUID of the owner
+     * @param category the category of the head
+     * @param headName the name of the head
+     * @return a future completed once the head has been removed
+     */
+    default CompletableFuture<Void> RemoveFavoriteAsync(UUID owner, String category, String headName) {
+        return CompletableFuture.runAsync(timedRun("db.removeFavorite", () -> RemoveFavorite(owner, category, headName)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Adds and removes several favorites in a single transaction asynchronously.
+     *
+     * @param added the favorites to add
+     * @param removed the favorites to remove
+     * @return a future holding true if the transaction was committed, false if it was rolled back
+     */
+    default CompletableFuture<Boolean> ApplyFavoriteChangesAsync(List<Favorite> added, List<Favorite> removed) {
+        return CompletableFuture.supplyAsync(timed("db.applyFavoriteChanges", () -> ApplyFavoriteChanges(added, removed)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Checks if a head is in the user's favorites asynchronously.
+     *
+     * @param owner the UUID of the owner
+     * @param category the category of the head
+     * @param headName the name of the head
+     * @return a future holding true if the head is a favorite, false otherwise
+     */
+    default CompletableFuture<Boolean> IsFavoriteAsync(UUID owner, String category, String headName) {
+        return CompletableFuture.supplyAsync(timed("db.isFavorite", () -> IsFavorite(owner, category, headName)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Gets the list of the user's favorite heads asynchronously.
+     *
+     * @param owner the UUID of the owner
+     * @return a future holding the list of the user's favorite heads, or null if the query failed
+     */
+    default CompletableFuture<List<Favorite>> GetFavoritesAsync(UUID owner) {
+        return CompletableFuture.supplyAsync(timed("db.getFavorites", () -> GetFavorites(owner)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Gets a page of the user's favorite heads asynchronously.
+     *
+     * @param owner the UUID of the owner
+     * @param cursor the cursor returned with the previous page, 0 for the first page
+     * @param limit the maximum number of favorites on the page
+     * @return a future holding the page of favorites, or null if the query failed
+     */
+    default CompletableFuture<FavoritePage> GetFavoritesPageAsync(UUID owner, long cursor, int limit) {
+        return CompletableFuture.supplyAsync(timed("db.getFavoritesPage", () -> GetFavoritesPage(owner, cursor, limit)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Counts the user's favorite heads asynchronously.
+     *
+     * @param owner the UUID of the owner
+     * @return a future holding the number of favorites, or -1 if the query failed
+     */
+    default CompletableFuture<Integer> CountFavoritesAsync(UUID owner) {
+        return CompletableFuture.supplyAsync(timed("db.countFavorites", () -> CountFavorites(owner)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Checks which of the given heads are in the user's favorites asynchronously.
+     *
+     * @param owner the UUID of the owner
+     * @param heads the heads to check
+     * @return a future holding the heads which are favorites, or null if the query failed
+     */
+    default CompletableFuture<Set<Favorite>> FilterFavoritesAsync(UUID owner, Collection<Favorite> heads) {
+        return CompletableFuture.supplyAsync(timed("db.filterFavorites", () -> FilterFavorites(owner, heads)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Gets the sequence number of the latest recorded favorite change asynchronously.
+     *
+     * @return a future holding the latest sequence number, 0 if the log is empty, or -1 if the query failed
+     */
+    default CompletableFuture<Long> GetLastChangeSequenceAsync() {
+        return CompletableFuture.supplyAsync(timed("db.getLastChangeSequence", this::GetLastChangeSequence), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Gets the favorite changes recorded after the given sequence number asynchronously.
+     *
+     * @param after the sequence number to start after
+     * @param limit the maximum number of changes to read
+     * @return a future holding the changes, or null if the query failed
+     */
+    default CompletableFuture<List<FavoriteChange>> GetFavoriteChangesAsync(long after, int limit) {
+        return CompletableFuture.supplyAsync(timed("db.getFavoriteChanges", () -> GetFavoriteChanges(after, limit)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Gets the favorite changes with the given sequence numbers asynchronously.
+     *
+     * @param sequences the sequence numbers of the changes
+     * @return a future holding the changes, or null if the query failed
+     */
+    default CompletableFuture<List<FavoriteChange>> GetFavoriteChangesAsync(Collection<Long> sequences) {
+        return CompletableFuture.supplyAsync(timed("db.getFavoriteChangesBySequence", () -> GetFavoriteChanges(sequences)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Deletes the old favorite changes from the change log asynchronously.
+     *
+     * @param maxAgeSeconds the age of the oldest change kept, in seconds
+     * @return a future holding the number of deleted changes, or -1 if the query failed
+     */
+    default CompletableFuture<Integer> PruneFavoriteChangesAsync(int maxAgeSeconds) {
+        return CompletableFuture.supplyAsync(timed("db.pruneFavoriteChanges", () -> PruneFavoriteChanges(maxAgeSeconds)), AsyncUtils.getDatabaseExecutor());
+    }
+
+    /**
+     * Wraps a database call, so its time is recorded in a timer of the metrics.
+     *
+     * @param name the name of the timer
+     * @param call the database call
+     * @return the wrapped call
+     */
+    private static <T> Supplier<T> timed(String name, Supplier<T> call) {
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                return call.get();
+            } finally {
+                Metrics.timer(name).recordSince(start);
+            }
+        };
+    }
+
+    /**
+     * Wraps a database call without a result, so its time is recorded in a timer of the metrics.
+     *
+     * @param name the name of the timer
+     * @param call the database call
+     * @return the wrapped call
+     */
+    private static Runnable timedRun(String name, Runnable call) {
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                call.run();
+            } finally {
+                Metrics.timer(name).recordSince(start);
+            }
+        };
+    }
+}
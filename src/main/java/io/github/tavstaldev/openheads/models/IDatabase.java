@@ -1,7 +1,9 @@
 package io.github.tavstaldev.openheads.models;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -42,6 +44,15 @@ public interface IDatabase {
      */
     void RemoveFavorite(UUID owner, String category, String headName);
 
+    /**
+     * Adds and removes several favorites in a single transaction, using batched statements.
+     *
+     * @param added the favorites to add
+     * @param removed the favorites to remove
+     * @return true if the transaction was committed, false if it was rolled back
+     */
+    boolean ApplyFavoriteChanges(List<Favorite> added, List<Favorite> removed);
+
     /**
      * Checks if a head is in the user's favorites.
      *
@@ -68,4 +79,71 @@ public interface IDatabase {
      * @return a list of the user's favorite heads
      */
     List<Favorite> GetFavorites(UUID owner);
+
+    /**
+     * Gets a page of the user's favorite heads, in the order they were added.
+     *
+     * @param owner the UUID of the owner
+     * @param cursor the cursor returned with the previous page, 0 for the first page
+     * @param limit the maximum number of favorites on the page
+     * @return the page of favorites, or null if the query failed
+     */
+    FavoritePage GetFavoritesPage(UUID owner, long cursor, int limit);
+
+    /**
+     * Counts the user's favorite heads.
+     *
+     * @param owner the UUID of the owner
+     * @return the number of favorites, or -1 if the query failed
+     */
+    int CountFavorites(UUID owner);
+
+    /**
+     * Checks which of the given heads are in the user's favorites, in as few round trips as possible.
+     *
+     * @param owner the UUID of the owner
+     * @param heads the heads to check, the player of the favorites is ignored
+     * @return the heads which are favorites, or null if the query failed
+     */
+    Set<Favorite> FilterFavorites(UUID owner, Collection<Favorite> heads);
+
+    /**
+     * Checks if the favorite changes are recorded in a change log, so the servers sharing the database can follow them.
+     *
+     * @return true if the database keeps a change log, false otherwise
+     */
+    boolean HasChangeLog();
+
+    /**
+     * Gets the sequence number of the latest recorded favorite change.
+     *
+     * @return the latest sequence number, 0 if the log is empty, or -1 if the query failed
+     */
+    long GetLastChangeSequence();
+
+    /**
+     * Gets the favorite changes recorded after the given sequence number, in sequence order.
+     *
+     * @param after the sequence number to start after
+     * @param limit the maximum number of changes to read
+     * @return the changes, or null if the query failed
+     */
+    List<FavoriteChange> GetFavoriteChanges(long after, int limit);
+
+    /**
+     * Gets the favorite changes with the given sequence numbers, in sequence order.
+     * The sequence numbers which are not in the log are left out.
+     *
+     * @param sequences the sequence numbers of the changes
+     * @return the changes, or null if the query failed
+     */
+    List<FavoriteChange> GetFavoriteChanges(Collection<Long> sequences);
+
+    /**
+     * Deletes the favorite changes older than the given age from the change log.
+     *
+     * @param maxAgeSeconds the age of the oldest change kept, in seconds
+     * @return the number of deleted changes, or -1 if the query failed
+     */
+    int PruneFavoriteChanges(int maxAgeSeconds);
 }
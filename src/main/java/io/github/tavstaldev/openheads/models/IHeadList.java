@@ -0,0 +1,48 @@
+package io.github.tavstaldev.openheads.models;
+
+import java.util.List;
+
+/**
+ * A list of heads which can read the name and the tags of a head without creating its {@link HeadData}.
+ * Implemented by the lists decoding their heads on access, so the indexes of a catalog can be built
+ * without decoding every head.
+ */
+public interface IHeadList extends List<HeadData> {
+    /**
+     * Gets the name of a head.
+     *
+     * @param index the index of the head
+     * @return the pooled name of the head, can be null
+     */
+    String getName(int index);
+
+    /**
+     * Gets the tags of a head, as they are written in the head file.
+     *
+     * @param index the index of the head
+     * @return the tags separated by commas, or null if the head has no tags
+     */
+    String getTagText(int index);
+
+    /**
+     * Gets the name of a head of any list, without decoding the head if the list supports it.
+     *
+     * @param heads the list of heads
+     * @param index the index of the head
+     * @return the name of the head, can be null
+     */
+    static String nameOf(List<HeadData> heads, int index) {
+        return heads instanceof IHeadList list ? list.getName(index) : heads.get(index).Name;
+    }
+
+    /**
+     * Gets the tags of a head of any list, without decoding the head if the list supports it.
+     *
+     * @param heads the list of heads
+     * @param index the index of the head
+     * @return the tags separated by commas, or null if the head has no tags
+     */
+    static String tagTextOf(List<HeadData> heads, int index) {
+        return heads instanceof IHeadList list ? list.getTagText(index) : heads.get(index).GetTagText();
+    }
+}
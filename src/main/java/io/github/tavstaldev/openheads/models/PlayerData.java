@@ -7,6 +7,11 @@ import de.rapha149.signgui.exception.SignGUIVersionException;
 import io.github.tavstaldev.openheads.OpenHeads;
 import io.github.tavstaldev.openheads.gui.HeadsGUI;
 import io.github.tavstaldev.openheads.gui.MainGUI;
+import io.github.tavstaldev.openheads.managers.FavoriteWriteQueue;
+import io.github.tavstaldev.openheads.managers.FavoritesCache;
+import io.github.tavstaldev.openheads.managers.SearchManager;
+import io.github.tavstaldev.openheads.metrics.Metrics;
+import io.github.tavstaldev.openheads.utils.AsyncUtils;
 import io.github.tavstaldev.openheads.utils.HeadUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.DyeColor;
@@ -14,8 +19,13 @@ import org.bukkit.Material;
 import org.bukkit.entity.Player;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class PlayerData {
+    /**
+     * The number of heads shown on a single page of the heads GUI.
+     */
+    public static final int PAGE_SIZE = 45;
     private final Player _player;
     private boolean _isGUIOpened;
     private SGMenu _mainMenu;
@@ -27,6 +37,11 @@ public class PlayerData {
     private boolean _isFavorite;
     private SignGUI _signMenu;
     private List<Map.Entry<String, HeadData>> _heads;
+    private boolean _pagedFavorites;
+    private int _headCount;
+    private int _headsOffset;
+    private List<Long> _favoriteCursors;
+    private volatile long _lastActivity;
 
     /**
      * Constructs a new PlayerData object for the specified player.
@@ -40,6 +55,7 @@ public class PlayerData {
         _mainPage = 0;
         _headsMenu = null;
         _headsPage = 0;
+        _lastActivity = System.currentTimeMillis();
     }
 
     /**
@@ -58,6 +74,55 @@ public class PlayerData {
      */
     public void setGUIOpened(boolean isGUIOpened) {
         _isGUIOpened = isGUIOpened;
+        touch();
+    }
+
+    /**
+     * Gets the time the player last used one of the menus.
+     *
+     * @return the time of the last activity, in milliseconds since the epoch
+     */
+    public long getLastActivity() {
+        return _lastActivity;
+    }
+
+    /**
+     * Marks the player as active, so the cached menus are kept.
+     */
+    public void touch() {
+        _lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the number of menus cached for the player, including the sign menu.
+     *
+     * @return the number of cached menus
+     */
+    public int getCachedMenuCount() {
+        int count = 0;
+        if (_mainMenu != null)
+            count++;
+        if (_headsMenu != null)
+            count++;
+        if (_signMenu != null)
+            count++;
+        return count;
+    }
+
+    /**
+     * Drops the cached menus and the loaded heads, they are created again when they are needed.
+     * Nothing is dropped while the GUI is opened.
+     *
+     * @return true if anything was dropped, false otherwise
+     */
+    public boolean evictMenus() {
+        if (_isGUIOpened || (getCachedMenuCount() == 0 && _heads == null))
+            return false;
+        _mainMenu = null;
+        _headsMenu = null;
+        _signMenu = null;
+        freeHeads();
+        return true;
     }
 
     /**
@@ -66,6 +131,7 @@ public class PlayerData {
      * @return the main menu for the player
      */
     public SGMenu getMainMenu() {
+        touch();
         if (_mainMenu == null) {
             _mainMenu = MainGUI.create(_player);
         }
@@ -78,6 +144,7 @@ public class PlayerData {
      * @return the heads menu for the player
      */
     public SGMenu getHeadsMenu() {
+        touch();
         if (_headsMenu == null) {
             _headsMenu = HeadsGUI.create(_player);
         }
@@ -180,6 +247,7 @@ public class PlayerData {
      * @return the sign menu for the player
      */
     public SignGUI getSignMenu() {
+        touch();
         if (_signMenu == null) {
             try {
             _signMenu = SignGUI.builder()
@@ -209,6 +277,8 @@ public class PlayerData {
                             ));
                         }
                         _search = line;
+                        // Start the search right away, it is usually done by the time the GUI opens on the next tick
+                        SearchManager.search(_player.getUniqueId(), line);
                         Bukkit.getScheduler().runTask(OpenHeads.Instance, () -> HeadsGUI.open(_player));
 
                         // Just close the sign by not returning any actions
@@ -224,48 +294,157 @@ public class PlayerData {
     }
 
     /**
-     * Gets the map of heads for the player.
+     * Gets the loaded heads for the player.
+     * When the favorites are read page by page, only the heads of the last loaded page are returned.
      *
-     * @return a map where the key is the category name and the value is a list of HeadData objects
+     * @return the list of heads keyed by category name, or null if the heads are not loaded
      */
     public List<Map.Entry<String, HeadData>> getHeads() {
         return _heads;
     }
 
+    /**
+     * Gets the number of heads in the current view, including the ones on pages which are not loaded.
+     *
+     * @return the number of heads
+     */
+    public int getHeadCount() {
+        if (_pagedFavorites)
+            return _headCount;
+        return _heads == null ? 0 : _heads.size();
+    }
+
+    /**
+     * Gets a head of the current view.
+     *
+     * @param index the index of the head in the view
+     * @return the head keyed by its category name, or null if the index is out of range or its page is not loaded
+     */
+    public Map.Entry<String, HeadData> getHead(int index) {
+        if (_heads == null)
+            return null;
+        int localIndex = index - _headsOffset;
+        if (localIndex < 0 || localIndex >= _heads.size())
+            return null;
+        return _heads.get(localIndex);
+    }
+
     /**
      * Refreshes the heads for the player based on the current search and favorite status.
+     * The favorites are taken from the favorites cache once it is loaded and the search runs in the background,
+     * the result is published on the main thread.
+     * If the player has too many favorites to cache, the favorites are read from the database page by page in {@link #loadPage(int)}.
+     *
+     * @return a future completed on the main thread once the heads have been refreshed, or cancelled if the player started another search
      */
-    public void refreshHeads() {
-        _heads = new ArrayList<>();
-        if (isFavorite()) {
-            List<Favorite> favorites = OpenHeads.Database.GetFavorites(_player.getUniqueId());
-            for (Favorite favorite : favorites) {
-                HeadData head = HeadUtils.getHead(favorite.CategoryName, favorite.HeadName);
-                if (head == null)
-                    continue;
-
-                _heads.add(new AbstractMap.SimpleEntry<>(favorite.CategoryName, head));
+    public CompletableFuture<Void> refreshHeads() {
+        long start = System.nanoTime();
+        var playerId = _player.getUniqueId();
+        CompletableFuture<List<Favorite>> favoritesFuture = isFavorite()
+                ? FavoritesCache.load(playerId).thenApply(ignored -> FavoritesCache.isComplete(playerId) ? FavoritesCache.getFavorites(playerId) : null)
+                : CompletableFuture.completedFuture(null);
+
+        CompletableFuture<HeadView> searchFuture = _search != null && !_search.isBlank()
+                ? SearchManager.search(playerId, _search)
+                : CompletableFuture.completedFuture(null);
+
+        return favoritesFuture.thenAcceptBothAsync(searchFuture, (favorites, searchResult) -> {
+            _headsOffset = 0;
+            _pagedFavorites = isFavorite() && favorites == null && FavoritesCache.isLoaded(playerId);
+            if (_pagedFavorites) {
+                _heads = new ArrayList<>();
+                _headCount = FavoritesCache.getFavoriteCount(playerId);
+                _favoriteCursors = new ArrayList<>(List.of(0L));
+                return;
             }
-        }
-        if (_search != null && !_search.isBlank()) {
-            for (var category : HeadUtils.getHeadCategories()) {
-                for (var head : category.getHeads()) {
-                    if (head.Name.toLowerCase().contains(_search.toLowerCase())) {
-                        _heads.add(new AbstractMap.SimpleEntry<>(category.Name, head));
+
+            // The views are lazy, only the heads of the shown page are ever read
+            List<List<Map.Entry<String, HeadData>>> views = new ArrayList<>();
+            if (favorites != null) {
+                List<Map.Entry<String, HeadData>> heads = new ArrayList<>(favorites.size());
+                for (Favorite favorite : favorites) {
+                    HeadData head = HeadUtils.getHead(favorite.CategoryName, favorite.HeadName);
+                    if (head == null)
                         continue;
-                    }
 
-                    if (head.Tags.toLowerCase().contains(_search.toLowerCase())) {
-                        _heads.add(new AbstractMap.SimpleEntry<>(category.Name, head));
-                    }
+                    heads.add(new AbstractMap.SimpleImmutableEntry<>(favorite.CategoryName, head));
                 }
+                views.add(heads);
             }
-        }
-        if (_searchCategory != null) {
-            for (var headData : _searchCategory.getHeads()) {
-                _heads.add(new AbstractMap.SimpleEntry<>(_searchCategory.Name, headData));
+            // Refreshing moves the view over to the current catalog, in case it has been reloaded
+            HeadCatalog catalog = HeadUtils.getCatalog();
+            if (searchResult != null) {
+                views.add(searchResult);
+            }
+            if (_searchCategory != null) {
+                HeadCategory category = catalog.getCategory(_searchCategory.Name);
+                if (category != null)
+                    _searchCategory = category;
+                views.add(HeadView.ofCategory(_searchCategory));
             }
+            List<Map.Entry<String, HeadData>> heads = views.size() == 1 ? views.get(0) : HeadView.concat(views);
+            _heads = heads;
+        }, AsyncUtils.getMainThreadExecutor()).whenComplete((ignored, ex) -> Metrics.timer("heads.refresh").recordSince(start));
+    }
+
+    /**
+     * Prepares a page of the heads GUI.
+     * When the favorites are read page by page, the page is fetched from the database after the pending favorite changes are written.
+     * The favorite state of the heads on the page is resolved with a single bulk query if the player's favorites are not cached completely.
+     *
+     * @param page the page number, starting from 1
+     * @return a future completed on the main thread once the heads of the page can be drawn
+     */
+    public CompletableFuture<Void> loadPage(int page) {
+        var playerId = _player.getUniqueId();
+        if (!_pagedFavorites)
+            return FavoritesCache.resolve(playerId, getPageFavorites(page))
+                    .thenRunAsync(() -> {}, AsyncUtils.getMainThreadExecutor());
+
+        // Pages are reached one by one, so the cursor of the previous page is always known
+        int cursorIndex = Math.min(page - 1, _favoriteCursors.size() - 1);
+        long cursor = _favoriteCursors.get(cursorIndex);
+        return FavoriteWriteQueue.flush()
+                .thenCompose(ignored -> OpenHeads.Database.GetFavoritesPageAsync(playerId, cursor, PAGE_SIZE))
+                .thenAcceptAsync(favoritePage -> {
+                    if (favoritePage == null || !_pagedFavorites)
+                        return;
+
+                    FavoritesCache.remember(playerId, favoritePage.Favorites);
+                    List<Map.Entry<String, HeadData>> heads = new ArrayList<>(favoritePage.Favorites.size());
+                    for (Favorite favorite : favoritePage.Favorites) {
+                        HeadData head = HeadUtils.getHead(favorite.CategoryName, favorite.HeadName);
+                        if (head == null)
+                            continue;
+
+                        heads.add(new AbstractMap.SimpleImmutableEntry<>(favorite.CategoryName, head));
+                    }
+                    int pageIndex = cursorIndex + 1;
+                    if (favoritePage.HasMore && _favoriteCursors.size() == pageIndex)
+                        _favoriteCursors.add(favoritePage.NextCursor);
+
+                    _heads = heads;
+                    _headsOffset = (pageIndex - 1) * PAGE_SIZE;
+                    _headCount = favoritePage.HasMore
+                            ? Math.max(FavoritesCache.getFavoriteCount(playerId), pageIndex * PAGE_SIZE + 1)
+                            : _headsOffset + heads.size();
+                }, AsyncUtils.getMainThreadExecutor());
+    }
+
+    /**
+     * Gets the heads of a page as favorites of the player, so their state can be resolved in one query.
+     */
+    private List<Favorite> getPageFavorites(int page) {
+        List<Favorite> favorites = new ArrayList<>(PAGE_SIZE);
+        var playerId = _player.getUniqueId();
+        int start = (page - 1) * PAGE_SIZE;
+        for (int i = start; i < start + PAGE_SIZE; i++) {
+            var head = getHead(i);
+            if (head == null)
+                break;
+            favorites.add(new Favorite(playerId, head.getKey(), head.getValue().Name));
         }
+        return favorites;
     }
 
     /**
@@ -273,5 +452,9 @@ public class PlayerData {
      */
     public void freeHeads() {
         _heads = null;
+        _pagedFavorites = false;
+        _headCount = 0;
+        _headsOffset = 0;
+        _favoriteCursors = null;
     }
 }
@@ -0,0 +1,61 @@
+package io.github.tavstaldev.openheads.models;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A single versioned change of the database schema.
+ */
+public class SchemaMigration {
+    /**
+     * The version the schema has after this migration. Versions start at 1 and grow by one.
+     */
+    public final int Version;
+
+    /**
+     * A short description of the change, stored next to the version.
+     */
+    public final String Description;
+
+    /**
+     * The work done by the migration.
+     */
+    private final Step _step;
+
+    /**
+     * The work done by a migration.
+     */
+    @FunctionalInterface
+    public interface Step {
+        /**
+         * Applies the change.
+         *
+         * @param connection the connection the migration runs on, with auto-commit disabled
+         * @throws SQLException if the change failed
+         */
+        void apply(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Constructs a new SchemaMigration object with the specified parameters.
+     *
+     * @param version The version the schema has after this migration.
+     * @param description A short description of the change.
+     * @param step The work done by the migration.
+     */
+    public SchemaMigration(int version, String description, Step step) {
+        Version = version;
+        Description = description;
+        _step = step;
+    }
+
+    /**
+     * Applies the migration.
+     *
+     * @param connection the connection the migration runs on, with auto-commit disabled
+     * @throws SQLException if the change failed
+     */
+    public void Apply(Connection connection) throws SQLException {
+        _step.apply(connection);
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.tavstaldev.openheads.utils;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import org.bukkit.Bukkit;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility class for running work off the server main thread and handing results back to it.
+ */
+public class AsyncUtils {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(AsyncUtils.class);
+    private static ExecutorService _databaseExecutor;
+
+    /**
+     * Executor that hands tasks over to the Bukkit scheduler, so they run on the next server tick.
+     */
+    private static final Executor _mainThreadExecutor = task -> {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+            return;
+        }
+        Bukkit.getScheduler().runTask(OpenHeads.Instance, task);
+    };
+
+    /**
+     * Creates the executor used for database operations.
+     * Every task gets its own virtual thread, so a slow query never holds up the others.
+     */
+    public static void init() {
+        if (_databaseExecutor != null && !_databaseExecutor.isShutdown())
+            return;
+
+        _logger.Debug("Creating database executor...");
+        _databaseExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual()
+                .name("OpenHeads-Database-", 0)
+                .factory());
+    }
+
+    /**
+     * Gets the executor used for database operations.
+     *
+     * @return the database executor
+     */
+    public static Executor getDatabaseExecutor() {
+        if (_databaseExecutor == null)
+            init();
+        return _databaseExecutor;
+    }
+
+    /**
+     * Gets an executor which runs tasks on the server main thread.
+     * Tasks submitted from the main thread are run immediately.
+     *
+     * @return the main thread executor
+     */
+    public static Executor getMainThreadExecutor() {
+        return _mainThreadExecutor;
+    }
+
+    /**
+     * Stops accepting new database tasks and waits for the pending ones to finish.
+     */
+    public static void shutdown() {
+        if (_databaseExecutor == null)
+            return;
+
+        _databaseExecutor.shutdown();
+        try {
+            if (!_databaseExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                _logger.Warn("Database tasks did not finish in time, forcing shutdown.");
+                _databaseExecutor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            _databaseExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        _databaseExecutor = null;
+    }
+}
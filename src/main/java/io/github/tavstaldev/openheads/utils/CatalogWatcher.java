@@ -0,0 +1,179 @@
+package io.github.tavstaldev.openheads.utils;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the categories file and the heads directory, and patches the changes into the catalog while the server runs.
+ * A changed head file only reloads the categories using it, a changed categories file only loads the new and changed categories,
+ * see {@link HeadUtils#reloadHeadFile(String)} and {@link HeadUtils#reloadCategoriesFile()}.
+ * The changes are applied once the folder has been quiet for a moment, and every changed file has stopped growing,
+ * so a file being copied or written is never read halfway.
+ */
+public class CatalogWatcher {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(CatalogWatcher.class);
+    /**
+     * The time without new events to wait before the changes are applied, in milliseconds.
+     */
+    private static final long DEBOUNCE_MILLIS = 500L;
+    /**
+     * The interval between two checks of the size and modification time of a changed file, in milliseconds.
+     */
+    private static final long SETTLE_CHECK_MILLIS = 250L;
+    /**
+     * The maximum time to wait for a changed file to settle, in milliseconds.
+     */
+    private static final long SETTLE_TIMEOUT_MILLIS = 10_000L;
+    private static final String CATEGORIES_FILE = "categories.yml";
+    private static WatchService _watchService;
+    private static Thread _thread;
+
+    /**
+     * Starts watching the data folder, unless it is disabled in the config.
+     */
+    public static synchronized void init() {
+        shutdown();
+        if (!OpenHeads.GetConfig().getBoolean("watchCatalog", true))
+            return;
+
+        Path dataFolder = OpenHeads.Instance.getDataFolder().toPath();
+        Path headsFolder = dataFolder.resolve("heads");
+        try {
+            Files.createDirectories(headsFolder);
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            dataFolder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            headsFolder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            _watchService = watchService;
+        } catch (IOException ex) {
+            _logger.Warn("Failed to watch the heads directory, changed head files will need a reload.");
+            _logger.Error(ex.getMessage());
+            return;
+        }
+
+        WatchService watchService = _watchService;
+        _thread = Thread.ofPlatform().daemon().name("OpenHeads-CatalogWatcher").start(() -> run(watchService, dataFolder, headsFolder));
+        _logger.Debug("Watching the heads directory for changes.");
+    }
+
+    /**
+     * Stops watching the data folder.
+     */
+    public static synchronized void shutdown() {
+        if (_watchService == null)
+            return;
+        try {
+            // Closing the service wakes up the watcher thread, which then exits
+            _watchService.close();
+        } catch (IOException ex) {
+            _logger.Error(ex.getMessage());
+        }
+        _watchService = null;
+        _thread = null;
+    }
+
+    /**
+     * Waits for changes and applies them, until the watch service is closed.
+     */
+    private static void run(WatchService watchService, Path dataFolder, Path headsFolder) {
+        try {
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                collect(watchService.take(), changed);
+                // Editors and copies fire several events for one file, wait until the folder is quiet
+                WatchKey key;
+                while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                    collect(key, changed);
+                apply(changed, dataFolder, headsFolder);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ex) {
+            _logger.Debug("Stopped watching the heads directory.");
+        }
+    }
+
+    /**
+     * Adds the files of the events of a key to the changed files and resets the key.
+     */
+    private static void collect(WatchKey key, Set<Path> changed) {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Some events were lost, so every file might have changed
+                changed.add(directory.resolve(CATEGORIES_FILE));
+                continue;
+            }
+            changed.add(directory.resolve((Path) event.context()));
+        }
+        key.reset();
+    }
+
+    /**
+     * Patches the changed files into the catalog. The categories file goes first, so the head files are matched against the new categories.
+     * A file which is still being written when the folder goes quiet is waited for, and skipped if it does not settle in time.
+     */
+    private static void apply(Set<Path> changed, Path dataFolder, Path headsFolder) throws InterruptedException {
+        try {
+            Path categoriesFile = dataFolder.resolve(CATEGORIES_FILE);
+            if (changed.contains(categoriesFile) && awaitSettled(categoriesFile))
+                HeadUtils.reloadCategoriesFile();
+
+            Set<String> headFiles = new LinkedHashSet<>();
+            for (Path path : changed) {
+                String fileName = path.getFileName().toString();
+                if (path.getParent().equals(headsFolder) && (fileName.endsWith(".json") || fileName.endsWith(HeadCatalogCodec.BINARY_EXTENSION))
+                        && awaitSettled(path))
+                    headFiles.add(fileName);
+            }
+            for (String fileName : headFiles)
+                HeadUtils.reloadHeadFile(fileName);
+        } catch (InterruptedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            _logger.Error("Failed to apply the changes of the heads directory.");
+            _logger.Error(ex);
+        }
+    }
+
+    /**
+     * Waits until the size and the modification time of a changed file stop changing.
+     * A file which has been deleted counts as settled, the categories using it keep their loaded heads.
+     *
+     * @param path the changed file
+     * @return true if the file has settled, false if it was still changing when the timeout passed
+     */
+    private static boolean awaitSettled(Path path) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MILLIS;
+        String previous = fingerprint(path);
+        while (true) {
+            Thread.sleep(SETTLE_CHECK_MILLIS);
+            String current = fingerprint(path);
+            if (current.equals(previous))
+                return true;
+            if (System.currentTimeMillis() > deadline) {
+                _logger.Warn(String.format("The file %s is still being written, skipping it until it changes again.", path.getFileName()));
+                return false;
+            }
+            previous = current;
+        }
+    }
+
+    /**
+     * Gets the size and the modification time of a file, which change while the file is being written.
+     *
+     * @param path the file
+     * @return the fingerprint of the file, empty if the file does not exist
+     */
+    private static String fingerprint(Path path) {
+        try {
+            return Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException ex) {
+            return "";
+        }
+    }
+}
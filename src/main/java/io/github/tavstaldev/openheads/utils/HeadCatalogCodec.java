@@ -0,0 +1,507 @@
+package io.github.tavstaldev.openheads.utils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.models.IHeadList;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads and writes the head files of the categories.
+ * <p>
+ * Besides the editable JSON format, heads can be stored in a compact binary catalog.
+ * The binary catalog keeps every name and tag once in a string pool and stores only the hash of the
+ * standard {@code textures.minecraft.net} skin URL instead of the whole base64 texture value.
+ * The file is memory-mapped and entries are decoded on access. The files are written to a temporary file
+ * which is then moved over the old one, so a mapped file is never truncated or rewritten while a catalog snapshot
+ * still reads from it. Binary catalog files must be replaced the same way, never edited in place.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * magic "OHHC", version (u16)
+ * string count (i32), strings: length (u16) + UTF-8 bytes
+ * head count (i32), entry offsets relative to the first entry (i32 each)
+ * entries: name id (i32), tag count (i16, -1 for null), tag ids (i32 each),
+ *          texture kind (u8) + hash digit count (u8) and packed hex digits | raw length (i32) and UTF-8 bytes
+ * </pre>
+ * This class does not depend on the server, the build uses its {@link #main(String[])} to compile the bundled heads.
+ */
+public class HeadCatalogCodec {
+    /**
+     * The extension of the binary catalog files.
+     */
+    public static final String BINARY_EXTENSION = ".bin";
+    private static final byte[] MAGIC = {'O', 'H', 'H', 'C'};
+    private static final short VERSION = 1;
+
+    private static final byte TEXTURE_NONE = 0;
+    private static final byte TEXTURE_HASH = 1;
+    private static final byte TEXTURE_RAW = 2;
+
+    private static final String TEXTURE_PREFIX = "{\"textures\":{\"SKIN\":{\"url\":\"http://textures.minecraft.net/texture/";
+    private static final String TEXTURE_SUFFIX = "\"}}}";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Gets the name of the binary catalog file belonging to a JSON head file.
+     *
+     * @param jsonFile the name of the JSON head file
+     * @return the name of the binary catalog file
+     */
+    public static String toBinaryFileName(String jsonFile) {
+        int dot = jsonFile.lastIndexOf('.');
+        return (dot < 0 ? jsonFile : jsonFile.substring(0, dot)) + BINARY_EXTENSION;
+    }
+
+    /**
+     * Reads a JSON head file as a stream, into a string pool of its own.
+     *
+     * @param path the path of the file
+     * @return the heads read from the file
+     * @throws IOException if the file could not be read or parsed
+     */
+    public static List<HeadData> readJson(Path path) throws IOException {
+        return readJson(path, new HeadStringPool());
+    }
+
+    /**
+     * Reads a JSON head file as a stream.
+     *
+     * @param path the path of the file
+     * @param strings the pool of the catalog the heads are loaded into
+     * @return the heads read from the file
+     * @throws IOException if the file could not be read or parsed
+     */
+    public static List<HeadData> readJson(Path path, HeadStringPool strings) throws IOException {
+        List<HeadData> heads = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                heads.add(readHead(reader, strings));
+            }
+            reader.endArray();
+        } catch (IllegalStateException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        return heads;
+    }
+
+    /**
+     * Reads a single head object from the reader. Unknown properties are skipped.
+     *
+     * @param reader the reader positioned at the beginning of a head object
+     * @param strings the pool of the catalog the head is loaded into
+     * @return the head data read from the object
+     * @throws IOException if the object could not be read
+     */
+    private static HeadData readHead(JsonReader reader, HeadStringPool strings) throws IOException {
+        String name = null;
+        String tags = null;
+        String texture = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String property = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (property) {
+                case "Name":
+                    name = reader.nextString();
+                    break;
+                case "Tags":
+                    tags = reader.nextString();
+                    break;
+                case "Texture":
+                    texture = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return new HeadData(strings, name, tags, texture);
+    }
+
+    /**
+     * Writes heads into a binary catalog file.
+     * The file is written next to the target first and then moved over it, so readers never see a half-written file.
+     *
+     * @param heads the heads to write
+     * @param path the path of the binary catalog file
+     * @throws IOException if the file could not be written
+     */
+    public static void writeBinary(List<HeadData> heads, Path path) throws IOException {
+        // Intern the names and tags
+        Map<String, Integer> pool = new LinkedHashMap<>();
+        for (HeadData head : heads) {
+            if (head.Name != null)
+                pool.putIfAbsent(head.Name, pool.size());
+            String tags = head.GetTagText();
+            if (tags != null) {
+                for (String tag : tags.split(",", -1))
+                    pool.putIfAbsent(tag, pool.size());
+            }
+        }
+
+        // Encode the entries first, so the offsets are known
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream(heads.size() * 48);
+        DataOutputStream entries = new DataOutputStream(entryBytes);
+        int[] offsets = new int[heads.size()];
+        for (int i = 0; i < heads.size(); i++) {
+            HeadData head = heads.get(i);
+            offsets[i] = entries.size();
+            entries.writeInt(head.Name == null ? -1 : pool.get(head.Name));
+            String tagText = head.GetTagText();
+            if (tagText == null) {
+                entries.writeShort(-1);
+            } else {
+                String[] tags = tagText.split(",", -1);
+                entries.writeShort(tags.length);
+                for (String tag : tags)
+                    entries.writeInt(pool.get(tag));
+            }
+            writeTexture(entries, head.GetTexture());
+        }
+        entries.flush();
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.write(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(pool.size());
+            for (String value : pool.keySet()) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xFFFF)
+                    throw new IOException(String.format("String is too long for the catalog: %s...", value.substring(0, 32)));
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(heads.size());
+            for (int offset : offsets)
+                out.writeInt(offset);
+            entryBytes.writeTo(out);
+        } catch (IOException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+        replace(temp, path);
+    }
+
+    /**
+     * Moves a file over another one, atomically if the file system supports it.
+     * The old file is unlinked rather than truncated, so an existing mapping of it stays valid.
+     *
+     * @param source the new file
+     * @param target the file to replace
+     * @throws IOException if the file could not be moved
+     */
+    private static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the texture of a head, as a hash if it is a standard skin URL, otherwise as it is.
+     */
+    private static void writeTexture(DataOutputStream out, String texture) throws IOException {
+        if (texture == null) {
+            out.writeByte(TEXTURE_NONE);
+            return;
+        }
+
+        String hash = extractHash(texture);
+        if (hash != null) {
+            out.writeByte(TEXTURE_HASH);
+            out.writeByte(hash.length());
+            out.write(packHash(hash));
+            return;
+        }
+
+        byte[] bytes = texture.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(TEXTURE_RAW);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Extracts the skin hash of a texture value, if regenerating the value from the hash gives back the exact same string.
+     *
+     * @param texture the base64 texture value
+     * @return the lower-case hex hash, or null if the texture does not follow the standard format
+     */
+    public static String extractHash(String texture) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getDecoder().decode(texture), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        if (!decoded.startsWith(TEXTURE_PREFIX) || !decoded.endsWith(TEXTURE_SUFFIX))
+            return null;
+
+        String hash = decoded.substring(TEXTURE_PREFIX.length(), decoded.length() - TEXTURE_SUFFIX.length());
+        if (hash.isEmpty() || hash.length() > 0xFF)
+            return null;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return null;
+        }
+        return texture.equals(textureFromHash(hash)) ? hash : null;
+    }
+
+    /**
+     * Packs the hex digits of a skin hash, two digits per byte.
+     *
+     * @param hash the lower-case hex hash of the skin
+     * @return the packed digits
+     */
+    public static byte[] packHash(String hash) {
+        byte[] packed = new byte[(hash.length() + 1) / 2];
+        for (int i = 0; i < hash.length(); i++) {
+            int digit = Character.digit(hash.charAt(i), 16);
+            packed[i / 2] |= (byte) (i % 2 == 0 ? digit << 4 : digit);
+        }
+        return packed;
+    }
+
+    /**
+     * Builds the base64 texture value of a standard skin URL from the packed digits of its hash.
+     *
+     * @param packed the packed digits, see {@link #packHash(String)}
+     * @param digits the number of hex digits
+     * @return the base64 texture value
+     */
+    public static String textureFromPackedHash(byte[] packed, int digits) {
+        char[] hash = new char[digits];
+        for (int i = 0; i < digits; i++) {
+            int value = packed[i / 2];
+            hash[i] = HEX_DIGITS[i % 2 == 0 ? (value >> 4) & 0xF : value & 0xF];
+        }
+        return textureFromHash(new String(hash));
+    }
+
+    /**
+     * Builds the base64 texture value of a standard skin URL.
+     *
+     * @param hash the lower-case hex hash of the skin
+     * @return the base64 texture value
+     */
+    static String textureFromHash(String hash) {
+        return Base64.getEncoder().encodeToString((TEXTURE_PREFIX + hash + TEXTURE_SUFFIX).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Memory-maps a binary catalog file, into a string pool of its own.
+     *
+     * @param path the path of the binary catalog file
+     * @return a read-only list of the heads in the catalog
+     * @throws IOException if the file could not be mapped or is not a valid catalog
+     */
+    public static List<HeadData> readBinary(Path path) throws IOException {
+        return readBinary(path, new HeadStringPool());
+    }
+
+    /**
+     * Memory-maps a binary catalog file.
+     * The string pool is decoded right away, the heads are decoded from the mapped file whenever they are accessed.
+     * <p>
+     * A replaced file is unlinked, so an existing mapping keeps reading the old contents until the catalog snapshot using it
+     * is collected. A file which is truncated or rewritten in place while it is mapped crashes its readers instead,
+     * so the files must be replaced, like {@link #writeBinary(List, Path)} does.
+     *
+     * @param path the path of the binary catalog file
+     * @param strings the pool of the catalog the heads are loaded into
+     * @return a read-only list of the heads in the catalog
+     * @throws IOException if the file could not be mapped or is not a valid catalog
+     */
+    public static List<HeadData> readBinary(Path path, HeadStringPool strings) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException("Not a head catalog file.");
+            short version = buffer.getShort();
+            if (version != VERSION)
+                throw new IOException(String.format("Unsupported head catalog version: %d", version));
+
+            // The strings of the file are moved into the pool of the catalog, the entries refer to them by their pool ids
+            int[] pool = new int[buffer.getInt()];
+            for (int i = 0; i < pool.length; i++) {
+                byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+                buffer.get(bytes);
+                pool[i] = strings.intern(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            int headCount = buffer.getInt();
+            int offsetsStart = buffer.position();
+            int entriesStart = offsetsStart + headCount * Integer.BYTES;
+            if (headCount < 0 || entriesStart > buffer.limit())
+                throw new IOException("Truncated head catalog file.");
+            // A file read while it was being written has offsets pointing past its end
+            for (int i = 0; i < headCount; i++) {
+                int offset = buffer.getInt(offsetsStart + i * Integer.BYTES);
+                if (offset < 0 || entriesStart + offset >= buffer.limit())
+                    throw new IOException("Truncated head catalog file.");
+            }
+            MappedHeadList heads = new MappedHeadList(buffer, strings, pool, headCount, offsetsStart, entriesStart);
+            // The entries are written in order, so the file is complete if its last entry can be decoded
+            if (headCount > 0)
+                heads.get(headCount - 1);
+            return heads;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IOException("Truncated head catalog file.", ex);
+        }
+    }
+
+    /**
+     * Read-only view over the entries of a mapped catalog file.
+     * Only absolute reads are used on the shared buffer, so the list can be read from several threads.
+     * The heads are decoded on every access, the name and the tags can be read on their own, see {@link IHeadList}.
+     */
+    private static final class MappedHeadList extends AbstractList<HeadData> implements IHeadList, RandomAccess {
+        private final ByteBuffer _buffer;
+        private final HeadStringPool _strings;
+        private final int[] _pool;
+        private final int _size;
+        private final int _offsetsStart;
+        private final int _entriesStart;
+
+        MappedHeadList(ByteBuffer buffer, HeadStringPool strings, int[] pool, int size, int offsetsStart, int entriesStart) {
+            _buffer = buffer;
+            _strings = strings;
+            _pool = pool;
+            _size = size;
+            _offsetsStart = offsetsStart;
+            _entriesStart = entriesStart;
+        }
+
+        @Override
+        public int size() {
+            return _size;
+        }
+
+        /**
+         * Gets the position of an entry in the buffer.
+         */
+        private int position(int index) {
+            Objects.checkIndex(index, _size);
+            return _entriesStart + _buffer.getInt(_offsetsStart + index * Integer.BYTES);
+        }
+
+        @Override
+        public String getName(int index) {
+            int nameId = _buffer.getInt(position(index));
+            return nameId < 0 ? null : _strings.get(_pool[nameId]);
+        }
+
+        @Override
+        public String getTagText(int index) {
+            int position = position(index) + Integer.BYTES;
+            short tagCount = _buffer.getShort(position);
+            if (tagCount < 0)
+                return null;
+            position += Short.BYTES;
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < tagCount; i++) {
+                if (i > 0)
+                    builder.append(',');
+                builder.append(_strings.get(_pool[_buffer.getInt(position + i * Integer.BYTES)]));
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public HeadData get(int index) {
+            int position = position(index);
+
+            int nameId = _buffer.getInt(position);
+            position += Integer.BYTES;
+            String name = nameId < 0 ? null : _strings.get(_pool[nameId]);
+
+            int[] tagIds = null;
+            short tagCount = _buffer.getShort(position);
+            position += Short.BYTES;
+            if (tagCount >= 0) {
+                tagIds = new int[tagCount];
+                for (int i = 0; i < tagCount; i++) {
+                    tagIds[i] = _pool[_buffer.getInt(position)];
+                    position += Integer.BYTES;
+                }
+            }
+
+            byte kind = _buffer.get(position++);
+            if (kind == TEXTURE_HASH) {
+                int digits = Byte.toUnsignedInt(_buffer.get(position++));
+                byte[] hash = new byte[(digits + 1) / 2];
+                _buffer.get(position, hash);
+                return new HeadData(_strings, name, tagIds, hash, digits, null);
+            }
+            String texture = null;
+            if (kind == TEXTURE_RAW) {
+                byte[] bytes = new byte[_buffer.getInt(position)];
+                _buffer.get(position + Integer.BYTES, bytes);
+                texture = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return new HeadData(_strings, name, tagIds, null, 0, texture);
+        }
+    }
+
+    /**
+     * Compiles every JSON head file of a directory into binary catalog files.
+     * Used by the build, see the {@code compileHeadCatalog} task.
+     *
+     * @param args the input directory and the output directory
+     * @throws IOException if a file could not be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: HeadCatalogCodec <input directory> <output directory>");
+            System.exit(1);
+        }
+
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(input, "*.json")) {
+            for (Path file : files) {
+                List<HeadData> heads = readJson(file);
+                Path target = output.resolve(toBinaryFileName(file.getFileName().toString()));
+                writeBinary(heads, target);
+                System.out.printf("Compiled %d heads: %s (%d bytes) -> %s (%d bytes)%n",
+                        heads.size(), file.getFileName(), Files.size(file), target.getFileName(), Files.size(target));
+            }
+        }
+    }
+}
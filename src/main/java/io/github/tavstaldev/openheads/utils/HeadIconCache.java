@@ -0,0 +1,180 @@
+package io.github.tavstaldev.openheads.utils;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.models.HeadData;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of the prebuilt head items.
+ * Building a skull means creating a new item, its meta and a player profile with the texture property,
+ * so the finished items are kept per texture, locale and favorite state, and only cloned when they are used.
+ * The least recently used item is evicted once the cache is full.
+ */
+public class HeadIconCache {
+    private static final PluginLogger _logger = OpenHeads.Logger().WithModule(HeadIconCache.class);
+    /**
+     * The number of items kept when the config does not say otherwise.
+     */
+    private static final int DEFAULT_MAX_SIZE = 4096;
+    private static final LongAdder _hits = new LongAdder();
+    private static final LongAdder _misses = new LongAdder();
+    private static final LongAdder _evictions = new LongAdder();
+    private static int _maxSize = DEFAULT_MAX_SIZE;
+    private static final LinkedHashMap<Key, ItemStack> _items = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, ItemStack> eldest) {
+            if (size() <= _maxSize)
+                return false;
+            _evictions.increment();
+            return true;
+        }
+    };
+
+    /**
+     * The kind of item stored in the cache.
+     */
+    public enum Variant {
+        /**
+         * The item given to the player.
+         */
+        ITEM,
+        /**
+         * The menu icon of a head which is not a favorite.
+         */
+        ICON,
+        /**
+         * The menu icon of a favorite head.
+         */
+        FAVORITE_ICON
+    }
+
+    /**
+     * The identity of a cached item. The head is compared by value, its name and texture are rendered on the item,
+     * and so is the category.
+     */
+    private record Key(HeadData Head, String Category, String Locale, Variant Variant) {}
+
+    /**
+     * Reads the size of the cache from the config and drops every cached item.
+     */
+    public static void init() {
+        int maxSize = OpenHeads.GetConfig().getInt("iconCacheSize", DEFAULT_MAX_SIZE);
+        synchronized (_items) {
+            _maxSize = Math.max(0, maxSize);
+            _items.clear();
+        }
+        _logger.Debug(String.format("Head icon cache size set to %d.", _maxSize));
+    }
+
+    /**
+     * Gets the locale used to render the items of a player, the same way the translator picks it.
+     *
+     * @param player the player
+     * @return the ISO 639-2 code of the locale
+     */
+    public static String getLocale(Player player) {
+        if (player == null || !OpenHeads.GetConfig().getBoolean("usePlayerLocale"))
+            return OpenHeads.GetConfig().getString("locale", "eng");
+        try {
+            return player.locale().getISO3Language();
+        } catch (Exception ex) {
+            return OpenHeads.GetConfig().getString("locale", "eng");
+        }
+    }
+
+    /**
+     * Gets a copy of a cached item, building and caching it first if needed.
+     *
+     * @param player the player the item is rendered for
+     * @param head the head shown by the item
+     * @param categoryDisplayNameKey the key for the category display name localization
+     * @param variant the kind of the item
+     * @param factory builds the item on a miss
+     * @return a copy of the item, which can be modified freely
+     */
+    public static ItemStack get(Player player, HeadData head, String categoryDisplayNameKey, Variant variant, Supplier<ItemStack> factory) {
+        Key key = new Key(head, categoryDisplayNameKey, getLocale(player), variant);
+        ItemStack item;
+        synchronized (_items) {
+            item = _items.get(key);
+        }
+        if (item != null) {
+            _hits.increment();
+            return item.clone();
+        }
+
+        _misses.increment();
+        item = factory.get();
+        if (item == null)
+            return null;
+        synchronized (_items) {
+            _items.put(key, item);
+        }
+        return item.clone();
+    }
+
+    /**
+     * Drops every cached item. The hit and miss counters are kept.
+     */
+    public static void clear() {
+        synchronized (_items) {
+            _items.clear();
+        }
+    }
+
+    /**
+     * Gets the number of cached items.
+     *
+     * @return the number of cached items
+     */
+    public static int size() {
+        synchronized (_items) {
+            return _items.size();
+        }
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public static long getHits() {
+        return _hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups which had to build the item.
+     *
+     * @return the number of misses
+     */
+    public static long getMisses() {
+        return _misses.sum();
+    }
+
+    /**
+     * Gets the number of items dropped because the cache was full.
+     *
+     * @return the number of evictions
+     */
+    public static long getEvictions() {
+        return _evictions.sum();
+    }
+
+    /**
+     * Gets the share of the lookups answered from the cache.
+     *
+     * @return the hit rate between 0 and 1, 0 if there were no lookups yet
+     */
+    public static double getHitRate() {
+        long hits = _hits.sum();
+        long total = hits + _misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,651 @@
+package io.github.tavstaldev.openheads.utils;
+
+import io.github.tavstaldev.openheads.models.HeadCategory;
+import io.github.tavstaldev.openheads.models.HeadData;
+import io.github.tavstaldev.openheads.models.HeadView;
+import io.github.tavstaldev.openheads.models.IHeadList;
+
+import java.util.*;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Immutable search index over the names and tags of every head.
+ * The index is split into one segment per category. Every segment holds the lower-cased names and tags,
+ * token postings for ranking and a trigram index, which narrows substring queries down to a handful of candidates.
+ * The distinct tokens of a segment are also kept grouped by length, so the tokens within a few typos of the query
+ * can be found by comparing the query only to the tokens of a similar length.
+ * A new index is built on every load and swapped in as a whole, so readers never see a partially built index.
+ */
+public class HeadSearchIndex {
+    /**
+     * The length of the n-grams stored in the index.
+     */
+    private static final int GRAM_LENGTH = 3;
+    /**
+     * Separates the name and the tags, so an n-gram never spans both of them.
+     */
+    private static final char FIELD_SEPARATOR = '\u0000';
+
+    private static final int SCORE_NAME_EXACT = 100;
+    private static final int SCORE_NAME_PREFIX = 60;
+    private static final int SCORE_NAME_TOKEN = 40;
+    private static final int SCORE_NAME_WORD_PREFIX = 30;
+    private static final int SCORE_NAME_CONTAINS = 20;
+    private static final int SCORE_TAG_TOKEN = 10;
+    private static final int SCORE_TAG_CONTAINS = 5;
+    private static final int MAX_SCORE = SCORE_NAME_EXACT + SCORE_TAG_TOKEN;
+
+    /**
+     * The score of a query token matching a name token, reduced by one for every typo.
+     */
+    private static final int SCORE_FUZZY_NAME = 6;
+    /**
+     * The score of a query token matching a tag token, reduced by one for every typo.
+     */
+    private static final int SCORE_FUZZY_TAG = 3;
+    /**
+     * The number of query tokens matched with typos, the rest of the tokens are ignored.
+     */
+    private static final int MAX_FUZZY_TOKENS = 8;
+    /**
+     * The highest score of a typo-tolerant match. Every substring match ranks above it.
+     */
+    private static final int MAX_FUZZY_SCORE = SCORE_FUZZY_NAME * MAX_FUZZY_TOKENS;
+    private static final int MAX_RANK = MAX_FUZZY_SCORE + MAX_SCORE;
+
+    /**
+     * The number of results returned by a search, when the config does not say otherwise.
+     */
+    public static final int DEFAULT_RESULT_LIMIT = 500;
+
+    private final List<Segment> _segments;
+    private final int _size;
+
+    private HeadSearchIndex(List<Segment> segments) {
+        _segments = segments;
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.Names.length;
+        _size = size;
+    }
+
+    /**
+     * Builds a new index over the given categories.
+     *
+     * @param categories the categories whose heads are indexed
+     * @return the built index
+     */
+    public static HeadSearchIndex build(List<HeadCategory> categories) {
+        return build(categories, null);
+    }
+
+    /**
+     * Builds a new index over the given categories, reusing the segments of a previous index
+     * for the categories whose heads have not changed. Only the changed categories are indexed again.
+     *
+     * @param categories the categories whose heads are indexed
+     * @param previous the previous index, or null to index every category
+     * @return the built index
+     */
+    public static HeadSearchIndex build(List<HeadCategory> categories, HeadSearchIndex previous) {
+        Map<List<HeadData>, Segment> reusable = new IdentityHashMap<>();
+        if (previous != null) {
+            for (Segment segment : previous._segments)
+                reusable.put(segment.Heads, segment);
+        }
+
+        List<Segment> segments = new ArrayList<>(categories.size());
+        for (HeadCategory category : categories) {
+            List<HeadData> heads = category.getHeads();
+            Segment segment = heads == null ? null : reusable.get(heads);
+            if (segment == null || !segment.CategoryName.equals(category.Name))
+                segment = new Segment(category.Name, heads == null ? List.of() : heads);
+            segments.add(segment);
+        }
+        return new HeadSearchIndex(List.copyOf(segments));
+    }
+
+    /**
+     * Gets the number of indexed heads.
+     *
+     * @return the number of indexed heads
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Finds every head whose name or tags contain the query, ignoring case.
+     *
+     * @param query the text to search for
+     * @return the ranked view of matching heads, keyed by category name
+     * @see #search(String, int)
+     */
+    public HeadView search(String query) {
+        return search(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds the best matching heads for the query, ignoring case.
+     * The hits are ordered by relevance: name matches come before tag matches,
+     * exact and prefix matches come before plain substring matches.
+     * If there are fewer substring matches than the limit, the heads whose name or tag tokens are within a few typos
+     * of every query token are added after them, closer and name matches first.
+     * Hits with the same score keep the catalog order.
+     * The result only holds the packed hits, the entries are created when they are read.
+     *
+     * @param query the text to search for
+     * @param limit the maximum number of results
+     * @return the ranked view of the best matching heads, keyed by category name
+     */
+    public HeadView search(String query, int limit) {
+        if (query == null || query.isBlank() || limit <= 0)
+            return HeadView.EMPTY;
+
+        String normalized = query.toLowerCase(Locale.ROOT);
+        // Every hit is packed into a long: inverted score, segment index and document id.
+        // Sorting the longs orders the hits by score, then by catalog order.
+        long[] hits = new long[16];
+        int hitCount = 0;
+        for (int segmentIndex = 0; segmentIndex < _segments.size(); segmentIndex++) {
+            Segment segment = _segments.get(segmentIndex);
+            int[] candidates = segment.candidates(normalized);
+            int candidateCount = candidates == null ? segment.Names.length : candidates.length;
+            for (int i = 0; i < candidateCount; i++) {
+                int doc = candidates == null ? i : candidates[i];
+                int score = segment.score(doc, normalized);
+                if (score == 0)
+                    continue;
+
+                if (hitCount == hits.length)
+                    hits = Arrays.copyOf(hits, hits.length * 2);
+                hits[hitCount++] = pack(MAX_FUZZY_SCORE + score, segmentIndex, doc);
+            }
+        }
+
+        // The typo-tolerant matches rank below every substring match, they are only needed if the limit is not reached yet
+        List<String> tokens = hitCount < limit ? fuzzyTokens(normalized) : List.of();
+        if (!tokens.isEmpty()) {
+            int[] maxEdits = new int[tokens.size()];
+            for (int i = 0; i < tokens.size(); i++)
+                maxEdits[i] = maxEdits(tokens.get(i));
+
+            for (int segmentIndex = 0; segmentIndex < _segments.size(); segmentIndex++) {
+                Segment segment = _segments.get(segmentIndex);
+                int[] scores = segment.fuzzyScores(tokens, maxEdits);
+                if (scores == null)
+                    continue;
+
+                for (int doc = 0; doc < scores.length; doc++) {
+                    // Heads matching the whole query are already in the hits
+                    if (scores[doc] == 0 || segment.score(doc, normalized) != 0)
+                        continue;
+
+                    if (hitCount == hits.length)
+                        hits = Arrays.copyOf(hits, hits.length * 2);
+                    hits[hitCount++] = pack(scores[doc], segmentIndex, doc);
+                }
+            }
+        }
+
+        if (hitCount == 0)
+            return HeadView.EMPTY;
+        Arrays.sort(hits, 0, hitCount);
+        int resultCount = Math.min(hitCount, limit);
+        return new SearchResult(_segments, resultCount == hits.length ? hits : Arrays.copyOf(hits, resultCount));
+    }
+
+    /**
+     * Packs a hit into a long, which sorts by descending rank, then by catalog order.
+     */
+    private static long pack(int rank, int segmentIndex, int doc) {
+        return ((long) (MAX_RANK - rank) << 48) | ((long) segmentIndex << 32) | doc;
+    }
+
+    /**
+     * Gets the tokens of the query matched with typos.
+     * A query of a single token too short for typos is skipped, the substring search already covers it.
+     *
+     * @param normalized the lower-cased query
+     * @return the distinct tokens of the query, or an empty list if typo-tolerant matching is not needed
+     */
+    private static List<String> fuzzyTokens(String normalized) {
+        List<String> tokens = new ArrayList<>(new LinkedHashSet<>(tokenize(normalized)));
+        if (tokens.size() > MAX_FUZZY_TOKENS)
+            tokens = tokens.subList(0, MAX_FUZZY_TOKENS);
+        if (tokens.size() == 1 && maxEdits(tokens.get(0)) == 0)
+            return List.of();
+        return tokens;
+    }
+
+    /**
+     * Gets the number of typos allowed in a query token: none for short tokens, one for medium and two for long ones.
+     *
+     * @param token the query token
+     * @return the maximum edit distance
+     */
+    private static int maxEdits(String token) {
+        if (token.length() < 4)
+            return 0;
+        return token.length() < 6 ? 1 : 2;
+    }
+
+    /**
+     * Splits a lower-cased text into tokens on every character which is not a letter or a digit.
+     *
+     * @param text the text to split
+     * @return the tokens of the text
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean isTokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (isTokenChar && start < 0) {
+                start = i;
+            } else if (!isTokenChar && start >= 0) {
+                tokens.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Packs the n-gram starting at the given position into a long key.
+     */
+    private static long gramKey(CharSequence text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    /**
+     * The ranked hits of a search, decoded into entries only when they are read.
+     */
+    private static final class SearchResult extends HeadView {
+        private final List<Segment> _segments;
+        private final long[] _hits;
+
+        SearchResult(List<Segment> segments, long[] hits) {
+            _segments = segments;
+            _hits = hits;
+        }
+
+        @Override
+        public Map.Entry<String, HeadData> get(int index) {
+            long hit = _hits[index];
+            Segment segment = _segments.get((int) ((hit >>> 32) & 0xFFFF));
+            return new AbstractMap.SimpleImmutableEntry<>(segment.CategoryName, segment.Heads.get((int) hit));
+        }
+
+        @Override
+        public int size() {
+            return _hits.length;
+        }
+    }
+
+    /**
+     * The indexed heads of a single category.
+     */
+    private static final class Segment {
+        final String CategoryName;
+        final List<HeadData> Heads;
+        final String[] Names;
+        final String[] Tags;
+        final Map<String, int[]> NameTokens;
+        final Map<String, int[]> TagTokens;
+        final Map<Long, int[]> Grams;
+        final TokenDictionary Words;
+
+        Segment(String categoryName, List<HeadData> heads) {
+            CategoryName = categoryName;
+            Heads = heads;
+            Names = new String[heads.size()];
+            Tags = new String[heads.size()];
+
+            Map<String, IntList> nameTokens = new HashMap<>();
+            Map<String, IntList> tagTokens = new HashMap<>();
+            Map<Long, IntList> grams = new HashMap<>();
+            Set<Long> docGrams = new HashSet<>();
+            Set<String> docTokens = new HashSet<>();
+            for (int doc = 0; doc < heads.size(); doc++) {
+                // Only the name and the tags are read, a mapped catalog does not decode its heads
+                String headName = IHeadList.nameOf(heads, doc);
+                String name = headName == null ? "" : headName.toLowerCase(Locale.ROOT);
+                String tagText = IHeadList.tagTextOf(heads, doc);
+                String tags = tagText == null ? "" : tagText.toLowerCase(Locale.ROOT);
+                Names[doc] = name;
+                Tags[doc] = tags;
+
+                docTokens.clear();
+                docTokens.addAll(tokenize(name));
+                for (String token : docTokens)
+                    nameTokens.computeIfAbsent(token, k -> new IntList()).add(doc);
+
+                docTokens.clear();
+                docTokens.addAll(tokenize(tags));
+                for (String token : docTokens)
+                    tagTokens.computeIfAbsent(token, k -> new IntList()).add(doc);
+
+                String text = name + FIELD_SEPARATOR + tags;
+                docGrams.clear();
+                for (int i = 0; i + GRAM_LENGTH <= text.length(); i++)
+                    docGrams.add(gramKey(text, i));
+                for (Long gram : docGrams)
+                    grams.computeIfAbsent(gram, k -> new IntList()).add(doc);
+            }
+
+            NameTokens = toPostings(nameTokens);
+            TagTokens = toPostings(tagTokens);
+            Grams = toPostings(grams);
+
+            Set<String> words = new LinkedHashSet<>(NameTokens.keySet());
+            words.addAll(TagTokens.keySet());
+            Words = new TokenDictionary(words);
+        }
+
+        private static <K> Map<K, int[]> toPostings(Map<K, IntList> lists) {
+            Map<K, int[]> postings = new HashMap<>(lists.size() * 4 / 3 + 1);
+            for (var entry : lists.entrySet())
+                postings.put(entry.getKey(), entry.getValue().toArray());
+            return postings;
+        }
+
+        /**
+         * Gets the documents which contain every n-gram of the query.
+         *
+         * @param query the lower-cased query
+         * @return the sorted candidate document ids, or null if the query is too short to use the n-grams
+         */
+        int[] candidates(String query) {
+            if (query.length() < GRAM_LENGTH)
+                return null;
+
+            List<int[]> lists = new ArrayList<>();
+            for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+                int[] postings = Grams.get(gramKey(query, i));
+                if (postings == null)
+                    return new int[0];
+                lists.add(postings);
+            }
+            // Start with the rarest n-gram, so the candidate set shrinks as fast as possible
+            lists.sort(Comparator.comparingInt(list -> list.length));
+            int[] result = lists.get(0);
+            for (int i = 1; i < lists.size() && result.length > 0; i++)
+                result = intersect(result, lists.get(i));
+            return result;
+        }
+
+        /**
+         * Scores a document against the query.
+         *
+         * @param doc the document id
+         * @param query the lower-cased query
+         * @return the score of the document, 0 if it does not match
+         */
+        int score(int doc, String query) {
+            int score = 0;
+            String name = Names[doc];
+            if (name.equals(query))
+                score += SCORE_NAME_EXACT;
+            else if (name.startsWith(query))
+                score += SCORE_NAME_PREFIX;
+            else if (contains(NameTokens.get(query), doc))
+                score += SCORE_NAME_TOKEN;
+            else {
+                int index = name.indexOf(query);
+                if (index > 0)
+                    score += startsWord(name, query, index) ? SCORE_NAME_WORD_PREFIX : SCORE_NAME_CONTAINS;
+            }
+
+            if (contains(TagTokens.get(query), doc))
+                score += SCORE_TAG_TOKEN;
+            else if (Tags[doc].contains(query))
+                score += SCORE_TAG_CONTAINS;
+            return score;
+        }
+
+        /**
+         * Scores the documents against the tokens of the query, allowing typos in every token.
+         * A document matches if every query token is close enough to one of its name or tag tokens,
+         * its score is the sum of the best score of every query token.
+         *
+         * @param tokens the lower-cased query tokens
+         * @param maxEdits the maximum edit distance of every query token
+         * @return the scores of the documents, 0 for the ones not matching, or null if no document matches
+         */
+        int[] fuzzyScores(List<String> tokens, int[] maxEdits) {
+            int[] scores = null;
+            int[] matched = null;
+            int[] tokenScores = null;
+            IntList touched = new IntList();
+            for (int t = 0; t < tokens.size(); t++) {
+                List<String> words = new ArrayList<>();
+                IntList distances = new IntList();
+                Words.find(tokens.get(t), maxEdits[t], (word, distance) -> {
+                    words.add(word);
+                    distances.add(distance);
+                });
+                if (words.isEmpty())
+                    return null;
+                if (scores == null) {
+                    scores = new int[Names.length];
+                    matched = new int[Names.length];
+                    tokenScores = new int[Names.length];
+                }
+
+                // Only the documents which matched every previous token are still candidates
+                touched.clear();
+                for (int i = 0; i < words.size(); i++) {
+                    int distance = distances.get(i);
+                    collect(NameTokens.get(words.get(i)), SCORE_FUZZY_NAME - distance, t, matched, tokenScores, touched);
+                    collect(TagTokens.get(words.get(i)), SCORE_FUZZY_TAG - distance, t, matched, tokenScores, touched);
+                }
+                if (touched.size() == 0)
+                    return null;
+
+                for (int i = 0; i < touched.size(); i++) {
+                    int doc = touched.get(i);
+                    scores[doc] += tokenScores[doc];
+                    matched[doc]++;
+                    tokenScores[doc] = 0;
+                }
+            }
+
+            if (scores == null)
+                return null;
+            for (int doc = 0; doc < scores.length; doc++) {
+                if (matched[doc] != tokens.size())
+                    scores[doc] = 0;
+            }
+            return scores;
+        }
+
+        /**
+         * Keeps the best score of a query token for the candidate documents of a posting list.
+         */
+        private static void collect(int[] postings, int score, int token, int[] matched, int[] tokenScores, IntList touched) {
+            if (postings == null)
+                return;
+            for (int doc : postings) {
+                if (matched[doc] != token)
+                    continue;
+                if (tokenScores[doc] == 0)
+                    touched.add(doc);
+                tokenScores[doc] = Math.max(tokenScores[doc], score);
+            }
+        }
+
+        /**
+         * Checks if an occurrence of the query starts a word of the name.
+         *
+         * @param name the lower-cased name
+         * @param query the lower-cased query
+         * @param index the index of the first occurrence of the query
+         * @return true if any occurrence of the query follows a character which is not a letter or a digit
+         */
+        private static boolean startsWord(String name, String query, int index) {
+            for (; index > 0; index = name.indexOf(query, index + 1)) {
+                if (!Character.isLetterOrDigit(name.charAt(index - 1)))
+                    return true;
+            }
+            return false;
+        }
+
+        private static boolean contains(int[] postings, int doc) {
+            return postings != null && Arrays.binarySearch(postings, doc) >= 0;
+        }
+
+        private static int[] intersect(int[] left, int[] right) {
+            int[] result = new int[Math.min(left.length, right.length)];
+            int count = 0;
+            int i = 0, j = 0;
+            while (i < left.length && j < right.length) {
+                if (left[i] < right[j])
+                    i++;
+                else if (left[i] > right[j])
+                    j++;
+                else {
+                    result[count++] = left[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+    }
+
+    /**
+     * Minimal growable list of primitive ints, used while building the postings.
+     */
+    private static final class IntList {
+        private int[] _values = new int[4];
+        private int _size;
+
+        void add(int value) {
+            if (_size == _values.length)
+                _values = Arrays.copyOf(_values, _size * 2);
+            _values[_size++] = value;
+        }
+
+        int get(int index) {
+            return _values[index];
+        }
+
+        int size() {
+            return _size;
+        }
+
+        void clear() {
+            _size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(_values, _size);
+        }
+    }
+
+    /**
+     * The distinct tokens of a segment, grouped by their length.
+     * A typo-tolerant lookup only compares the query to the tokens whose length is within the allowed typos.
+     * Every token also has a bit mask of its characters: a token missing more distinct characters of the query
+     * than the allowed typos cannot match, so most tokens are rejected without computing the distance.
+     * The distance itself is a banded Levenshtein distance, which gives up as soon as the typos are exceeded.
+     */
+    private static final class TokenDictionary {
+        private final String[] _words;
+        private final long[] _masks;
+        /**
+         * The index of the first token of every length, the tokens of length n are between _offsets[n] and _offsets[n + 1].
+         */
+        private final int[] _offsets;
+
+        TokenDictionary(Collection<String> words) {
+            _words = words.toArray(new String[0]);
+            Arrays.sort(_words, Comparator.comparingInt(String::length));
+            int maxLength = _words.length == 0 ? 0 : _words[_words.length - 1].length();
+            _offsets = new int[maxLength + 2];
+            int index = 0;
+            for (int length = 0; length <= maxLength + 1; length++) {
+                while (index < _words.length && _words[index].length() < length)
+                    index++;
+                _offsets[length] = index;
+            }
+            _masks = new long[_words.length];
+            for (int i = 0; i < _words.length; i++)
+                _masks[i] = mask(_words[i]);
+        }
+
+        /**
+         * Gets the bit mask of the characters of a token. Characters can share a bit, which only lets more tokens through.
+         */
+        private static long mask(String word) {
+            long mask = 0L;
+            for (int i = 0; i < word.length(); i++)
+                mask |= 1L << (word.charAt(i) & 63);
+            return mask;
+        }
+
+        /**
+         * Finds every token within the given edit distance of the query.
+         *
+         * @param query the lower-cased query token
+         * @param maxDistance the maximum edit distance
+         * @param consumer receives the matching tokens and their distance from the query
+         */
+        void find(String query, int maxDistance, ObjIntConsumer<String> consumer) {
+            int maxLength = _offsets.length - 2;
+            int from = Math.max(0, query.length() - maxDistance);
+            int to = Math.min(maxLength, query.length() + maxDistance);
+            if (from > to)
+                return;
+
+            long queryMask = mask(query);
+            int[] previous = new int[to + 1];
+            int[] current = new int[to + 1];
+            for (int i = _offsets[from]; i < _offsets[to + 1]; i++) {
+                // Every character of the query missing from the token takes at least one edit
+                if (Long.bitCount(queryMask & ~_masks[i]) > maxDistance)
+                    continue;
+                int distance = distance(query, _words[i], maxDistance, previous, current);
+                if (distance <= maxDistance)
+                    consumer.accept(_words[i], distance);
+            }
+        }
+
+        /**
+         * Computes the Levenshtein distance of two strings, only within a band of the maximum distance around the diagonal.
+         * The rows are reused, they are at least as long as the second string plus one.
+         *
+         * @return the distance, or maxDistance + 1 if the distance is larger than the maximum
+         */
+        private static int distance(String left, String right, int maxDistance, int[] previous, int[] current) {
+            int length = right.length();
+            int outside = maxDistance + 1;
+            for (int j = 0; j <= length; j++)
+                previous[j] = j;
+            for (int i = 1; i <= left.length(); i++) {
+                int from = Math.max(1, i - maxDistance);
+                int to = Math.min(length, i + maxDistance);
+                current[0] = i;
+                current[from - 1] = from == 1 ? i : outside;
+                int rowMin = current[from - 1];
+                char c = left.charAt(i - 1);
+                for (int j = from; j <= to; j++) {
+                    int substitution = previous[j - 1] + (c == right.charAt(j - 1) ? 0 : 1);
+                    int value = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                    current[j] = value;
+                    rowMin = Math.min(rowMin, value);
+                }
+                if (to < length)
+                    current[to + 1] = outside;
+                if (rowMin > maxDistance)
+                    return outside;
+
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return Math.min(previous[length], outside);
+        }
+    }
+}
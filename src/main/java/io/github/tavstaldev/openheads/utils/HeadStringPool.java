@@ -0,0 +1,76 @@
+package io.github.tavstaldev.openheads.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of the names and tags of the heads of a catalog.
+ * Every distinct string is stored once and gets a stable id, so the heads can refer to their tags
+ * with a primitive int array and share the same name instances.
+ * A full catalog build starts a new pool, and the incremental patches of a snapshot add to the pool of the snapshot,
+ * so the strings of a retired catalog are freed together with its last head.
+ * Interning is synchronized, looking up a string by its id is lock-free.
+ */
+public class HeadStringPool {
+    private final Map<String, Integer> _ids = new ConcurrentHashMap<>();
+    private volatile String[] _values = new String[1024];
+    private int _size;
+
+    /**
+     * Gets the id of a string, adding it to the pool if needed.
+     *
+     * @param value the string
+     * @return the id of the string
+     */
+    public int intern(String value) {
+        Integer id = _ids.get(value);
+        if (id != null)
+            return id;
+
+        synchronized (this) {
+            id = _ids.get(value);
+            if (id != null)
+                return id;
+
+            String[] values = _values;
+            if (_size == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+            values[_size] = value;
+            // The volatile write publishes the new element to the lock-free readers
+            _values = values;
+            id = _size++;
+            _ids.put(value, id);
+            return id;
+        }
+    }
+
+    /**
+     * Gets the pooled instance of a string, adding it to the pool if needed.
+     *
+     * @param value the string, can be null
+     * @return the pooled instance, or null if the string is null
+     */
+    public String canonicalize(String value) {
+        return value == null ? null : get(intern(value));
+    }
+
+    /**
+     * Gets the string belonging to an id.
+     *
+     * @param id the id returned by {@link #intern(String)}
+     * @return the string
+     */
+    public String get(int id) {
+        return _values[id];
+    }
+
+    /**
+     * Gets the number of pooled strings.
+     *
+     * @return the size of the pool
+     */
+    public int size() {
+        return _ids.size();
+    }
+}
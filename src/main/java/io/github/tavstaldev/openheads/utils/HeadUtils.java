@@ -2,6 +2,9 @@ package io.github.tavstaldev.openheads.utils;
 
 import io.github.tavstaldev.minecorelib.core.PluginLogger;
 import io.github.tavstaldev.openheads.OpenHeads;
+import io.github.tavstaldev.openheads.gui.MenuTemplate;
+import io.github.tavstaldev.openheads.managers.SearchManager;
+import io.github.tavstaldev.openheads.models.HeadCatalog;
 import io.github.tavstaldev.openheads.models.HeadCategory;
 import io.github.tavstaldev.openheads.models.HeadData;
 import org.yaml.snakeyaml.DumperOptions;
@@ -22,6 +25,8 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 // Regex Save
 // Tags:\s*"([^"]*)"\s*"([^"]*)"
@@ -29,17 +34,82 @@ import java.util.Map;
 
 /**
  * Utility class for handling head categories and YAML configuration.
+ * The catalog is published as an immutable {@link HeadCatalog} snapshot. Loading builds a complete new snapshot
+ * in the background and swaps it in with a single reference write, readers never see a half-built catalog.
  */
 public class HeadUtils {
     private static PluginLogger _logger;
-    private static List<HeadCategory> _headCategories;
+    private static volatile HeadCatalog _catalog = HeadCatalog.EMPTY;
+    private static volatile boolean _isLoaded;
+    private static CompletableFuture<Void> _loadFuture = CompletableFuture.completedFuture(null);
+    private static CompletableFuture<HeadCatalog> _reloadFuture;
+    /**
+     * Serializes the swaps of the snapshot, so an incremental update never builds on a snapshot which is being replaced.
+     */
+    private static final Object _updateLock = new Object();
+    /**
+     * Counts the changes of the snapshot, guarded by {@link #_updateLock}.
+     * A full build remembers the generation it started from, and is only published if no patch was applied in the meantime.
+     */
+    private static long _generation;
+    /**
+     * The number of times a full build is started again because the catalog was patched while it was running.
+     */
+    private static final int MAX_BUILD_ATTEMPTS = 3;
+
+    /**
+     * Gets the current catalog snapshot.
+     * Callers which read the catalog several times should keep the snapshot, so a reload in between does not mix two catalogs.
+     *
+     * @return the current catalog
+     */
+    public static HeadCatalog getCatalog() {
+        return _catalog;
+    }
+
     /**
      * Gets the list of head categories.
      *
-     * @return the list of head categories
+     * @return the immutable list of head categories
      */
     public static List<HeadCategory> getHeadCategories() {
-        return _headCategories;
+        return _catalog.Categories;
+    }
+
+    /**
+     * Checks if the head files of every category have been loaded and indexed.
+     *
+     * @return true if the catalog is ready, false while it is still loading
+     */
+    public static boolean isLoaded() {
+        return _isLoaded;
+    }
+
+    /**
+     * Gets the future of the catalog loading started by the last {@link #Load()} call.
+     *
+     * @return a future completed once the catalog is ready
+     */
+    public static CompletableFuture<Void> getLoadFuture() {
+        return _loadFuture;
+    }
+
+    /**
+     * Gets the future of the last catalog reload started by {@link #reload()}.
+     *
+     * @return a future completed with the new catalog, or null if the catalog has not been reloaded yet
+     */
+    public static synchronized CompletableFuture<HeadCatalog> getReloadFuture() {
+        return _reloadFuture;
+    }
+
+    /**
+     * Gets the search index built over every loaded head.
+     *
+     * @return the search index
+     */
+    public static HeadSearchIndex getSearchIndex() {
+        return _catalog.SearchIndex;
     }
 
     /**
@@ -68,30 +138,124 @@ public class HeadUtils {
 
     /**
      * Loads the head categories from the YAML configuration file.
+     * The head files of the categories are parsed in the background, see {@link #getLoadFuture()}.
      *
      * @return true if the categories were loaded successfully, false otherwise
      */
     public static boolean Load() {
         _logger = OpenHeads.Logger().WithModule(HeadUtils.class);
-        InputStream inputStream;
-        boolean isFirstLaunch = false;
-        _headCategories = new ArrayList<>();
+        _isLoaded = false;
+        long generation = currentGeneration();
+        boolean isFirstLaunch = !Files.exists(getCategoriesPath());
+        List<HeadCategory> categories = readCategories();
+        if (categories == null)
+            return false;
 
-        Path dirPath = Paths.get(OpenHeads.Instance.getDataFolder().getPath());
-        Path filePath = Paths.get(dirPath.toString(), "categories.yml");
+        _loadFuture = buildAndPublish(buildCatalog(categories, isFirstLaunch), generation, 1)
+                .thenAccept(ignored -> {})
+                .exceptionally(ex -> {
+                    _logger.Error("Failed to load the heads catalog.");
+                    _logger.Error(ex);
+                    return null;
+                });
+        return true;
+    }
+
+    /**
+     * Rebuilds the whole catalog from the categories file and the head files, without blocking the calling thread.
+     * The current snapshot stays in use until the new one is complete. If a reload is already running, its future is returned.
+     * If a file is patched into the catalog while the reload runs, the reload is started again, so it never overwrites the patch.
+     *
+     * @return a future completed with the new catalog, or completed exceptionally if the catalog could not be loaded
+     */
+    public static synchronized CompletableFuture<HeadCatalog> reload() {
+        if (_reloadFuture != null && !_reloadFuture.isDone())
+            return _reloadFuture;
+
+        _reloadFuture = rebuild(1);
+        return _reloadFuture;
+    }
+
+    /**
+     * Reads the categories file and builds a new snapshot over it in the background, then publishes it.
+     *
+     * @param attempt the number of the attempt, starting from 1
+     * @return a future completed with the published catalog
+     */
+    private static CompletableFuture<HeadCatalog> rebuild(int attempt) {
+        long generation = currentGeneration();
+        return CompletableFuture.supplyAsync(() -> {
+            boolean isFirstLaunch = !Files.exists(getCategoriesPath());
+            List<HeadCategory> categories = readCategories();
+            if (categories == null)
+                throw new IllegalStateException("Failed to read the categories file.");
+            return buildCatalog(categories, isFirstLaunch);
+        }, ForkJoinPool.commonPool()).thenCompose(future -> buildAndPublish(future, generation, attempt));
+    }
+
+    /**
+     * Publishes a snapshot once it is built, unless the catalog has been patched since the build started.
+     * A stale snapshot is dropped and the build is started again, the files are read again so the patched files are included.
+     *
+     * @param build the future of the build
+     * @param generation the generation of the catalog when the build started
+     * @param attempt the number of the attempt, starting from 1
+     * @return a future completed with the published catalog
+     */
+    private static CompletableFuture<HeadCatalog> buildAndPublish(CompletableFuture<HeadCatalog> build, long generation, int attempt) {
+        return build.thenCompose(catalog -> {
+            if (publish(catalog, generation))
+                return CompletableFuture.completedFuture(catalog);
+            if (attempt >= MAX_BUILD_ATTEMPTS) {
+                _logger.Warn("The catalog kept changing while it was being reloaded, keeping the patched catalog.");
+                _isLoaded = true;
+                return CompletableFuture.completedFuture(_catalog);
+            }
+            _logger.Debug("The catalog was patched while it was being reloaded, reloading it again.");
+            return rebuild(attempt + 1);
+        });
+    }
+
+    /**
+     * Gets the generation of the current snapshot.
+     *
+     * @return the generation
+     */
+    private static long currentGeneration() {
+        synchronized (_updateLock) {
+            return _generation;
+        }
+    }
+
+    /**
+     * Gets the path of the categories file in the data folder.
+     */
+    private static Path getCategoriesPath() {
+        return Paths.get(OpenHeads.Instance.getDataFolder().getPath(), "categories.yml");
+    }
+
+    /**
+     * Reads the categories file, copying it from the resources first if it does not exist.
+     * The returned categories are new objects, their heads are not loaded yet.
+     *
+     * @return the categories, or null if the file could not be read
+     */
+    private static List<HeadCategory> readCategories() {
+        InputStream inputStream;
+        List<HeadCategory> categories = new ArrayList<>();
+        Path filePath = getCategoriesPath();
         if (!Files.exists(filePath)) {
             try {
                 inputStream = OpenHeads.Instance.getResource("categories.yml");
                 if (inputStream == null) {
                     _logger.Debug("Failed to get categories file from resources.");
-                    return false;
+                    return null;
                 }
                 Files.copy(inputStream, filePath);
-                isFirstLaunch = true;
             } catch (IOException ex) {
                 _logger.Warn("Failed to create categories file.");
                 _logger.Error(ex.getMessage());
-                return false;
+                return null;
             }
         }
 
@@ -99,20 +263,26 @@ public class HeadUtils {
             inputStream = new FileInputStream(filePath.toFile());
         } catch (FileNotFoundException ex) {
             _logger.Error(String.format("Failed to get categories file. Path: %s", filePath));
-            return false;
+            return null;
         } catch (Exception ex) {
             _logger.Warn("Unknown error happened while reading categories file.");
             _logger.Error(ex.getMessage());
-            return false;
+            return null;
         }
 
         _logger.Debug("Loading yaml file...");
         Yaml yaml = createYaml();
-        Object yamlObject = yaml.load(inputStream);
+        Object yamlObject;
+        try (InputStream stream = inputStream) {
+            yamlObject = yaml.load(stream);
+        } catch (Exception ex) {
+            _logger.Warn("Failed to parse the categories file.");
+            _logger.Error(ex.getMessage());
+            return null;
+        }
         _logger.Debug("Casting yamlObject to list...");
         if (yamlObject instanceof List<?> tempList) {
             try {
-                _headCategories = new ArrayList<>();
                 for (Object obj : tempList) {
                     if (obj instanceof Map) {
                         Map<String, Object> data = (Map<String, Object>) obj;
@@ -126,7 +296,7 @@ public class HeadUtils {
                                 (String) data.get("File"),
                                 (String) data.get("Texture")
                         );
-                        _headCategories.add(category);
+                        categories.add(category);
                     } else {
                         _logger.Warn("Element in yamlObject list is not a Map<String, Object>.");
                     }
@@ -139,18 +309,160 @@ public class HeadUtils {
             _logger.Warn("yamlObject is not a List.");
         }
 
-        for (var category : _headCategories) {
-            if (isFirstLaunch) {
-                if (!category.CopyFromResource()) {
-                    _logger.Warn(String.format("Failed to copy head data file for category '%s'.", category.Name));
+        return categories;
+    }
+
+    /**
+     * Parses the head files of the categories in parallel and builds a new snapshot over them.
+     *
+     * @param categories the categories to load
+     * @param copyResources whether the head files should be copied from the resources
+     * @return a future completed with the new snapshot
+     */
+    private static CompletableFuture<HeadCatalog> buildCatalog(List<HeadCategory> categories, boolean copyResources) {
+        long start = System.nanoTime();
+        // A new pool for every full build, the strings of the previous catalog are freed together with it
+        HeadStringPool strings = new HeadStringPool();
+        CompletableFuture<?>[] tasks = new CompletableFuture[categories.size()];
+        for (int i = 0; i < categories.size(); i++) {
+            HeadCategory category = categories.get(i);
+            tasks[i] = CompletableFuture.runAsync(() -> loadCategory(category, copyResources, strings), ForkJoinPool.commonPool());
+        }
+
+        return CompletableFuture.allOf(tasks).thenApply(ignored -> {
+            // Build the indexes completely before publishing them, so searches never see a half-built index
+            _logger.Debug("Building search index...");
+            return new HeadCatalog(categories, (System.nanoTime() - start) / 1_000_000, strings);
+        });
+    }
+
+    /**
+     * Publishes a new snapshot and drops everything built from the previous one.
+     * The snapshot is dropped instead if the catalog has been changed since its build started.
+     *
+     * @param catalog the new snapshot
+     * @param generation the generation of the catalog when the build of the snapshot started
+     * @return true if the snapshot was published, false if it is stale
+     */
+    private static boolean publish(HeadCatalog catalog, long generation) {
+        synchronized (_updateLock) {
+            if (_generation != generation)
+                return false;
+            _catalog = catalog;
+            _generation++;
+        }
+        _isLoaded = true;
+        clearRenderedState();
+        _logger.Info(String.format("Loaded %d heads in %d categories in %d ms.",
+                catalog.HeadCount, catalog.Categories.size(), catalog.LoadMillis));
+        return true;
+    }
+
+    /**
+     * Drops the head items, category icons, menu templates and search results built from the previous snapshot.
+     */
+    private static void clearRenderedState() {
+        HeadIconCache.clear();
+        MenuItemCache.clear();
+        MenuTemplate.clear();
+        SearchManager.clear();
+    }
+
+    /**
+     * Reloads the categories which use a changed file of the heads directory, and patches them into the current snapshot.
+     * Only the affected categories are parsed and indexed again, the rest of the catalog is shared with the current snapshot.
+     * If a category fails to load, it keeps its current heads.
+     *
+     * @param fileName the name of the changed JSON or binary head file
+     * @return true if a category was updated, false otherwise
+     */
+    public static boolean reloadHeadFile(String fileName) {
+        synchronized (_updateLock) {
+            HeadCatalog catalog = _catalog;
+            long start = System.nanoTime();
+            List<HeadCategory> categories = new ArrayList<>(catalog.Categories);
+            List<String> updated = new ArrayList<>();
+            for (int i = 0; i < categories.size(); i++) {
+                HeadCategory category = categories.get(i);
+                if (!category.usesFile(fileName))
+                    continue;
+
+                HeadCategory reloaded = category.copy();
+                if (!reloaded.Load(catalog.Strings)) {
+                    _logger.Warn(String.format("Failed to reload head data file for category '%s', keeping the loaded heads.", category.Name));
+                    continue;
+                }
+                categories.set(i, reloaded);
+                updated.add(category.Name);
+            }
+            if (updated.isEmpty()) {
+                _logger.Debug(String.format("The head file %s is not used by any category.", fileName));
+                return false;
+            }
+
+            HeadCatalog patched = new HeadCatalog(categories, (System.nanoTime() - start) / 1_000_000, catalog);
+            _catalog = patched;
+            _generation++;
+            clearRenderedState();
+            _logger.Info(String.format("Reloaded the categories %s from %s in %d ms, the catalog now has %d heads.",
+                    String.join(", ", updated), fileName, patched.LoadMillis, patched.HeadCount));
+            return true;
+        }
+    }
+
+    /**
+     * Reads the categories file again and patches the changes into the current snapshot.
+     * Categories whose entry has not changed keep their loaded heads and indexes, only new and changed entries are loaded.
+     *
+     * @return true if the catalog was updated, false if the categories file could not be read
+     */
+    public static boolean reloadCategoriesFile() {
+        synchronized (_updateLock) {
+            HeadCatalog catalog = _catalog;
+            long start = System.nanoTime();
+            List<HeadCategory> categories = readCategories();
+            if (categories == null)
+                return false;
+
+            int loaded = 0;
+            for (int i = 0; i < categories.size(); i++) {
+                HeadCategory category = categories.get(i);
+                HeadCategory current = catalog.getCategory(category.Name);
+                if (category.hasSameDefinition(current)) {
+                    categories.set(i, current);
                     continue;
                 }
+                loadCategory(category, false, catalog.Strings);
+                loaded++;
             }
 
-            if (!category.Load())
-                _logger.Warn(String.format("Failed to load head data file for category '%s'.", category.Name));
+            HeadCatalog patched = new HeadCatalog(categories, (System.nanoTime() - start) / 1_000_000, catalog);
+            _catalog = patched;
+            _generation++;
+            clearRenderedState();
+            _logger.Info(String.format("Reloaded the categories file in %d ms: %d of %d categories loaded again, the catalog now has %d heads.",
+                    patched.LoadMillis, loaded, categories.size(), patched.HeadCount));
+            return true;
         }
-        return true;
+    }
+
+    /**
+     * Loads the head file of a category, copying it from the resources first if needed.
+     *
+     * @param category the category to load
+     * @param copyResource whether the head file should be copied from the resources
+     * @param strings the pool of the catalog the heads are loaded into
+     */
+    private static void loadCategory(HeadCategory category, boolean copyResource, HeadStringPool strings) {
+        if (copyResource) {
+            if (!category.CopyFromResource()) {
+                _logger.Warn(String.format("Failed to copy head data file for category '%s'.", category.Name));
+                return;
+            }
+        }
+
+        if (!category.Load(strings))
+            _logger.Warn(String.format("Failed to load head data file for category '%s'.", category.Name));
     }
 
     /**
@@ -160,12 +472,7 @@ public class HeadUtils {
      * @return the HeadCategory object if found, null otherwise
      */
     public static HeadCategory getCategory(String categoryName) {
-        for (var cat : _headCategories) {
-            if (cat.Name.equals(categoryName)) {
-                return cat;
-            }
-        }
-        return null;
+        return _catalog.getCategory(categoryName);
     }
 
     /**
@@ -176,20 +483,7 @@ public class HeadUtils {
      * @return the HeadData object if found, null otherwise
      */
     public static HeadData getHead(String categoryName, String headName) {
-        for (var cat : _headCategories) {
-            if (!cat.Name.equals(categoryName)) {
-                continue;
-            }
-
-            for (var head : cat.getHeads()) {
-                if (head.Name.equals(headName)) {
-                    return head;
-                }
-            }
-
-            break;
-        }
-        return null;
+        return _catalog.getHead(categoryName, headName);
     }
 
     /**
@@ -198,10 +492,6 @@ public class HeadUtils {
      * @return the total count of heads
      */
     public static int getHeadCount() {
-        int count = 0;
-        for (var cat : _headCategories) {
-            count += cat.getHeads().size();
-        }
-        return count;
+        return _catalog.HeadCount;
     }
 }
@@ -0,0 +1,86 @@
+package io.github.tavstaldev.openheads.utils;
+
+import io.github.tavstaldev.minecorelib.utils.GuiUtils;
+import io.github.tavstaldev.openheads.OpenHeads;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the rendered menu items which only depend on the locale of the player:
+ * the static buttons of the menus and the icons of the categories.
+ * Every item is built the first time a player with a new locale needs it, and only cloned afterwards.
+ * The cache is small, it holds a handful of items for every locale in use, so it is not bounded.
+ * It is cleared when the translations are reloaded and when the categories change.
+ */
+public class MenuItemCache {
+    private static final Map<Key, ItemStack> _items = new HashMap<>();
+
+    /**
+     * The identity of a cached item. The source is a translation key for the static buttons,
+     * and the category itself for the category icons, so a reloaded category never gets the icon of the previous one.
+     */
+    private record Key(Object Source, String Locale) {}
+
+    /**
+     * Gets a copy of a cached item, building and caching it first if needed.
+     *
+     * @param player the player the item is rendered for
+     * @param source identifies the item within a locale
+     * @param factory builds the item on a miss, in the locale of the player
+     * @return a copy of the item, which can be modified freely
+     */
+    public static ItemStack get(Player player, Object source, Supplier<ItemStack> factory) {
+        Key key = new Key(source, HeadIconCache.getLocale(player));
+        ItemStack item;
+        synchronized (_items) {
+            item = _items.get(key);
+        }
+        if (item == null) {
+            item = factory.get();
+            if (item == null)
+                return null;
+            synchronized (_items) {
+                _items.put(key, item);
+            }
+        }
+        return item.clone();
+    }
+
+    /**
+     * Gets a copy of a cached button whose name is a translation key.
+     *
+     * @param player the player the item is rendered for
+     * @param material the material of the button
+     * @param nameKey the translation key of the name of the button
+     * @return a copy of the button
+     */
+    public static ItemStack getButton(Player player, Material material, String nameKey) {
+        return get(player, List.of(material, nameKey), () -> GuiUtils.createItem(OpenHeads.Instance, material, OpenHeads.Instance.Localize(player, nameKey)));
+    }
+
+    /**
+     * Drops every cached item.
+     */
+    public static void clear() {
+        synchronized (_items) {
+            _items.clear();
+        }
+    }
+
+    /**
+     * Gets the number of cached items.
+     *
+     * @return the number of cached items
+     */
+    public static int size() {
+        synchronized (_items) {
+            return _items.size();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package io.github.tavstaldev.openheads.testing;
+
+import io.github.tavstaldev.minecorelib.core.PluginLogger;
+import io.github.tavstaldev.openheads.OpenHeads;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Runs the plugin code on a plain JVM, shared by the benchmarks and the integration tests.
+ * The JavaPlugin constructor only works inside a plugin class loader, so the plugin instance is a Mockito mock
+ * calling the real methods, with the config, the data folder and the loggers answered by the fixture.
+ * The Bukkit server is a dynamic proxy which only answers the handful of calls made by the plugin code,
+ * every caller is treated as the main thread, so main thread continuations run inline.
+ * The scheduled timers never run on their own, see {@link #runTimers()}.
+ */
+public class HeadlessPlugin {
+    private static final Logger _logger = Logger.getLogger("HeadlessPlugin");
+    private static final List<Runnable> _timers = new CopyOnWriteArrayList<>();
+    private static OpenHeads _plugin;
+    private static volatile FileConfiguration _config;
+    private static volatile File _dataFolder;
+
+    /**
+     * Sets up the plugin and the server once per JVM, later calls only replace the config and the data folder.
+     *
+     * @param config     the config returned by the plugin
+     * @param dataFolder the data folder of the plugin
+     * @return the plugin instance, also set as {@link OpenHeads#Instance}
+     * @throws ReflectiveOperationException if the server could not be set
+     */
+    public static synchronized OpenHeads start(FileConfiguration config, Path dataFolder) throws ReflectiveOperationException {
+        _config = config;
+        setDataFolder(dataFolder);
+        if (_plugin != null)
+            return _plugin;
+
+        OpenHeads plugin = Mockito.mock(OpenHeads.class, Mockito.withSettings().defaultAnswer(Mockito.CALLS_REAL_METHODS));
+        Mockito.doReturn("OpenHeads").when(plugin).getProjectName();
+        Mockito.doAnswer(invocation -> _config).when(plugin).getConfig();
+        Mockito.doAnswer(invocation -> _dataFolder).when(plugin).getDataFolder();
+        Mockito.doReturn(true).when(plugin).isEnabled();
+        Mockito.doReturn(_logger).when(plugin).getLogger();
+        // The logger reads the project name, so it is created after that is stubbed
+        PluginLogger pluginLogger = new PluginLogger(plugin);
+        Mockito.doReturn(pluginLogger).when(plugin).getCustomLogger();
+        OpenHeads.Instance = plugin;
+
+        BukkitScheduler scheduler = (BukkitScheduler) Proxy.newProxyInstance(HeadlessPlugin.class.getClassLoader(),
+                new Class<?>[]{BukkitScheduler.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "runTaskTimer":
+                        case "runTaskTimerAsynchronously":
+                            if (args[1] instanceof Runnable task)
+                                return createTimer(task);
+                            return defaultValue(method.getReturnType());
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+        Server server = (Server) Proxy.newProxyInstance(HeadlessPlugin.class.getClassLoader(), new Class<?>[]{Server.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isPrimaryThread":
+                            return true;
+                        case "getScheduler":
+                            return scheduler;
+                        case "getLogger":
+                            return _logger;
+                        case "getName":
+                            return "HeadlessPlugin";
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+        // Bukkit.setServer logs the build info of the server, which only a real server provides
+        Field field = Bukkit.class.getDeclaredField("server");
+        field.setAccessible(true);
+        field.set(null, server);
+
+        _plugin = plugin;
+        return plugin;
+    }
+
+    /**
+     * Sets the data folder returned by the plugin.
+     *
+     * @param dataFolder the data folder
+     */
+    public static void setDataFolder(Path dataFolder) {
+        _dataFolder = dataFolder.toFile();
+    }
+
+    /**
+     * Runs every timer scheduled and not yet cancelled, once, on the calling thread.
+     */
+    public static void runTimers() {
+        for (Runnable timer : _timers) {
+            timer.run();
+        }
+    }
+
+    /**
+     * Gets the value a proxy returns for calls it does not handle.
+     *
+     * @param type the return type of the call
+     * @return null, or the default value of a primitive type
+     */
+    public static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        if (type == boolean.class)
+            return false;
+        if (type == char.class)
+            return '\0';
+        if (type == long.class)
+            return 0L;
+        if (type == float.class)
+            return 0f;
+        if (type == double.class)
+            return 0d;
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == short.class)
+            return (short) 0;
+        return 0;
+    }
+
+    /**
+     * Captures a timer, the returned task removes it when it is cancelled.
+     */
+    private static BukkitTask createTimer(Runnable timer) {
+        _timers.add(timer);
+        return (BukkitTask) Proxy.newProxyInstance(HeadlessPlugin.class.getClassLoader(), new Class<?>[]{BukkitTask.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "cancel":
+                            _timers.remove(timer);
+                            return null;
+                        case "isCancelled":
+                            return !_timers.contains(timer);
+                        case "getOwner":
+                            return _plugin;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+}